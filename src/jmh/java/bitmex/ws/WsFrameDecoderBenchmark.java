@@ -0,0 +1,56 @@
+package bitmex.ws;
+
+import bitmex.data.OrderBookL2;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of an orderBookL2 update: single pass WsFrameDecoder against the JsonObject tree it replaced
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WsFrameDecoderBenchmark {
+    // number of rows of the update
+    @Param({"1", "25"})
+    public int rows;
+
+    private Gson g;
+    private WsFrameDecoder decoder;
+    private String message;
+
+    @Setup
+    public void setup() {
+        this.g = new Gson();
+        this.decoder = new WsFrameDecoder(this.g);
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < this.rows; i++) {
+            if (i > 0)
+                data.append(',');
+            data.append(String.format(Locale.ROOT, "{\"symbol\":\"XBTUSD\",\"id\":%d,\"side\":\"%s\",\"size\":%d,\"price\":%.1f}",
+                    8799000000L + i, i % 2 == 0 ? "Buy" : "Sell", 1000 + i, 10000.5 + i));
+        }
+        this.message = String.format(Locale.ROOT, "{\"table\":\"orderBookL2\",\"action\":\"update\",\"data\":[%s]}", data);
+    }
+
+    @Benchmark
+    public WsFrame single_pass() throws IOException {
+        return this.decoder.decode(this.message, 0L, 0L);
+    }
+
+    @Benchmark
+    public OrderBookL2[] json_tree() {
+        JsonObject obj = this.g.fromJson(this.message, JsonObject.class);
+        obj.get("table").getAsString();
+        obj.get("action").getAsString();
+        return this.g.fromJson(obj.get("data"), OrderBookL2[].class);
+    }
+}
@@ -0,0 +1,38 @@
+package utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature of a BitMEX order request: HmacSigner against Auth.encode_hmac, that it replaced on the request path
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacSignerBenchmark {
+    private static final String SECRET = "chNOOS4KvNXR_Xq4k4c9qsfoKWvnDecLATCRlcBwyKDYnWgO";
+
+    private HmacSigner signer;
+    private String payload;
+
+    @Setup
+    public void setup() {
+        this.signer = new HmacSigner(SECRET);
+        this.payload = "POST/api/v1/order1518064238{\"symbol\":\"XBTUSD\",\"side\":\"Buy\",\"orderQty\":100,"
+                + "\"price\":9123.5,\"ordType\":\"Limit\",\"execInst\":\"ParticipateDoNotInitiate\"}";
+    }
+
+    @Benchmark
+    public String signer() {
+        return this.signer.sign(this.payload);
+    }
+
+    @Benchmark
+    public String encode_hmac() {
+        return Auth.encode_hmac(SECRET, this.payload);
+    }
+}
@@ -0,0 +1,27 @@
+package binance.data;
+
+public class Depth {
+    private Long lastUpdateId, E, T;
+    // [price, quantity] levels, best first
+    private String[][] bids, asks;
+
+    public Long getLastUpdateId() {
+        return lastUpdateId;
+    }
+
+    public Long getEventTime() {
+        return E;
+    }
+
+    public Long getTransactionTime() {
+        return T;
+    }
+
+    public String[][] getBids() {
+        return bids;
+    }
+
+    public String[][] getAsks() {
+        return asks;
+    }
+}
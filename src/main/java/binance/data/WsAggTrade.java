@@ -10,6 +10,10 @@ public class WsAggTrade {
         return e;
     }
 
+    public Long getEventTime() {
+        return E;
+    }
+
     public Long getAggTradeID() {
         return a;
     }
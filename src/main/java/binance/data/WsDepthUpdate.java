@@ -0,0 +1,44 @@
+package binance.data;
+
+public class WsDepthUpdate {
+    private String e, s;
+    private Long E, T, U, u, pu;
+    // [price, quantity] levels changed, quantity 0 removes the level
+    private String[][] b, a;
+
+    public String getEventType() {
+        return e;
+    }
+
+    public Long getEventTime() {
+        return E;
+    }
+
+    public Long getTransactionTime() {
+        return T;
+    }
+
+    public String getSymbol() {
+        return s;
+    }
+
+    public Long getFirstUpdateId() {
+        return U;
+    }
+
+    public Long getFinalUpdateId() {
+        return u;
+    }
+
+    public Long getPrevFinalUpdateId() {
+        return pu;
+    }
+
+    public String[][] getBids() {
+        return b;
+    }
+
+    public String[][] getAsks() {
+        return a;
+    }
+}
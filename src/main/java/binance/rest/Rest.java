@@ -14,6 +14,17 @@ public interface Rest {
     int CONNECTION_TIMEOUT = 3000;
     int REPLY_TIMEOUT = 3000;
     int RETRY_PERIOD = 3000;
+    // request weight per window allowed to an ip / api key, the weight used is read from X-MBX-USED-WEIGHT-1M
+    int RATE_LIMIT = 2400;
+    int RATE_LIMIT_WINDOW = 60000;
+    // keep-alive connections: kept per host (JVM wide), opened at startup and pinged every keep-alive period when
+    // unused, the period leaves time for the ping to land before the 5 s idle eviction
+    int MAX_CONNECTIONS = 4;
+    int WARM_UP_CONNECTIONS = 2;
+    int KEEP_ALIVE_INTERVAL = 3000;
+    // hold off after a 429 / 418 without Retry-After header, in ms
+    int RATE_LIMIT_HOLD_OFF = 5000;
+    int IP_BAN_HOLD_OFF = 60000;
 
 
     /**
@@ -37,6 +48,21 @@ public interface Rest {
      */
     JsonArray get_klines(@NotNull JsonObject params);
 
+    /**
+     * Returns order book of a symbol, to synchronize the diff depth stream
+     * @param symbol - symbol
+     * @param limit  - number of levels per side: 5, 10, 20, 50, 100, 500 or 1000
+     * @return rest response, null if error
+     */
+    Depth get_depth(@NotNull String symbol, int limit);
+
+    /**
+     * Returns tick size of a symbol, from the PRICE_FILTER of the exchange information
+     * @param symbol - symbol
+     * @return tick size, NaN if error or unknown symbol
+     */
+    float get_tick_size(@NotNull String symbol);
+
     /**
      * Send in a new order.
      * @param params - parameters data
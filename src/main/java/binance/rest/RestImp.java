@@ -10,6 +10,9 @@ import org.apache.logging.log4j.Logger;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
 import org.jetbrains.annotations.NotNull;
+import utils.HmacSigner;
+import utils.HttpConnectionPool;
+import utils.RateGovernor;
 
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
@@ -22,26 +25,30 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
-import static utils.Auth.encode_hmac;
-
 public class RestImp implements Rest {
 
     private static final Logger logger = LogManager.getLogger(binance.rest.RestImp.class.getName());
 
     private final Gson g;
     private final String url;
+    private final HttpConnectionPool pool;
     private final Client client;
     private final String apiKey;
-    private final String apiSecret;
+    private final HmacSigner signer;
+    private final RateGovernor governor;
     private final String orderIDPrefix;
 
     public RestImp(String url, String apiKey, String apiSecret, String orderIDPrefix) {
         this.g = new Gson();
         this.url = url;
+        this.pool = HttpConnectionPool.shared(url, Rest.MAX_CONNECTIONS, Rest.KEEP_ALIVE_INTERVAL);
         this.client = client_configuration();
         this.apiKey = apiKey;
-        this.apiSecret = apiSecret;
+        this.signer = new HmacSigner(apiSecret);
+        // shared by the clients of all symbols traded with this key
+        this.governor = RateGovernor.shared("binance", apiKey, Rest.RATE_LIMIT, Rest.RATE_LIMIT_WINDOW);
         this.orderIDPrefix = orderIDPrefix;
+        this.pool.warmUp(this::ping, Rest.WARM_UP_CONNECTIONS);
     }
 
     /**
@@ -67,7 +74,7 @@ public class RestImp implements Rest {
             target = target
                     .queryParam("timestamp", System.currentTimeMillis());
             target = target
-                    .queryParam("signature", URLEncoder.encode(encode_hmac(this.apiSecret, target.getUri().getRawQuery()), StandardCharsets.UTF_8));
+                    .queryParam("signature", URLEncoder.encode(this.signer.sign(target.getUri().getRawQuery()), StandardCharsets.UTF_8));
         }
 
         Invocation.Builder httpReq = target.request()
@@ -78,14 +85,24 @@ public class RestImp implements Rest {
 
         logger.debug(String.format("Making API request: %s", target.getUri().toString()));
 
+        RateGovernor.Priority priority = priority_of(verb, endpoint);
+        int weight = weight_of(verb, endpoint);
+
         boolean success = false;
         while (!success) {
+            try {
+                governor.acquire(priority, weight);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
             try {
                 Response r = httpReq.build(verb).invoke();
 
                 assert r != null;
                 int status = r.getStatus();
                 success = true;
+                update_budget(r);
 
                 if (r.hasEntity()) {
                     if (status == Response.Status.OK.getStatusCode()) {
@@ -93,7 +110,7 @@ public class RestImp implements Rest {
                         logger.debug(srvResponse);
                         return srvResponse;
                     }else
-                        return api_error(status, g.fromJson(r.readEntity(String.class), DefaultMsgAPI.class));
+                        return api_error(status, g.fromJson(r.readEntity(String.class), DefaultMsgAPI.class), r.getHeaderString("Retry-After"));
                 }
             } catch (ProcessingException pe) { //Error in communication with server
                 logger.warn(String.format("Timeout occurred on %s%s. Retrying request...", verb, endpoint));
@@ -107,14 +124,22 @@ public class RestImp implements Rest {
         return null;
     }
 
-    private String api_error(int status, DefaultMsgAPI errObj) {
+    private String api_error(int status, DefaultMsgAPI errObj, String retryAfter) {
         logger.warn(String.format("API error, code (%d) %s", errObj.getCode(), errObj.getMsg()));
+        if (status == 429 || status == 418) {
+            // every request of the key waits, not only this caller
+            long holdOff = status == 429 ? Rest.RATE_LIMIT_HOLD_OFF : Rest.IP_BAN_HOLD_OFF;
+            try {
+                if (retryAfter != null)
+                    holdOff = Long.parseLong(retryAfter) * 1000L;
+            } catch (NumberFormatException e) {
+                // keeps default hold off
+            }
+            governor.holdOff(holdOff);
+            return null;
+        }
         try {
-            if (status == 429) {
-                Thread.sleep(5000);
-            } else if (status == 418) {
-                Thread.sleep(60000);
-            } else if (String.valueOf(status).startsWith("5")) { // error on server side 5xx
+            if (String.valueOf(status).startsWith("5")) { // error on server side 5xx
                 Thread.sleep(3000);
             }
         } catch (InterruptedException e) {
@@ -123,6 +148,63 @@ public class RestImp implements Rest {
         return null;
     }
 
+    /**
+     * Returns the priority lane of a request, cancels before amends before new orders before reads
+     *
+     * @param verb     - 'GET', 'POST', 'DELETE', 'PUT'
+     * @param endpoint - endpoint on server
+     * @return priority of the request
+     */
+    private static RateGovernor.Priority priority_of(String verb, String endpoint) {
+        if (verb.equalsIgnoreCase("DELETE") || endpoint.equals("/fapi/v1/countdownCancelAll"))
+            return RateGovernor.Priority.CANCEL;
+        else if (verb.equalsIgnoreCase("PUT"))
+            return RateGovernor.Priority.AMEND;
+        else if (verb.equalsIgnoreCase("POST"))
+            return RateGovernor.Priority.NEW;
+        return RateGovernor.Priority.READ;
+    }
+
+    /**
+     * Returns the weight of a request, see https://binance-docs.github.io/apidocs/futures/en/
+     *
+     * @param verb     - 'GET', 'POST', 'DELETE', 'PUT'
+     * @param endpoint - endpoint on server
+     * @return weight of the request
+     */
+    private static int weight_of(String verb, String endpoint) {
+        switch (endpoint) {
+            case "/fapi/v1/batchOrders":
+                return verb.equalsIgnoreCase("POST") ? 5 : 1;
+            case "/fapi/v1/klines":
+            case "/fapi/v2/balance":
+                return 5;
+            // 2 to 20 depending on the limit, charged at the maximum
+            case "/fapi/v1/depth":
+                return 20;
+            case "/fapi/v1/income":
+                return 30;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Corrects the rate limit budget of the key with the weight used reported in the response headers
+     *
+     * @param r - response
+     */
+    private void update_budget(Response r) {
+        String used = r.getHeaderString("X-MBX-USED-WEIGHT-1M");
+        if (used == null)
+            return;
+        try {
+            governor.update(Rest.RATE_LIMIT - Long.parseLong(used), -1L);
+        } catch (NumberFormatException e) {
+            logger.warn(String.format("Invalid used weight header: %s", used));
+        }
+    }
+
     /**
      * Returns new order ID with the given prefix
      *
@@ -132,6 +214,29 @@ public class RestImp implements Rest {
         return (this.orderIDPrefix + UUID.randomUUID()).substring(0, 28);
     }
 
+    /**
+     * Sends a cheap request that opens or keeps alive a connection, only with spare rate limit budget
+     */
+    private void ping() {
+        if (governor.tryAcquire(RateGovernor.Priority.READ, 1) > 0L)
+            return;
+        try {
+            Response r = client.target(url).path("/fapi/v1/ping").request().get();
+            update_budget(r);
+            // reads the body so the connection goes back to the keep-alive cache
+            r.readEntity(String.class);
+        } catch (Exception e) {
+            logger.debug(String.format("Ping to %s failed: %s", url, e.getMessage()));
+        }
+    }
+
+    /**
+     * @return connection pool of the client
+     */
+    public HttpConnectionPool getConnectionPool() {
+        return this.pool;
+    }
+
     /**
      * Build and configures a Jersey client
      *
@@ -139,6 +244,8 @@ public class RestImp implements Rest {
      */
     private Client client_configuration() {
         ClientConfig config = new ClientConfig();
+        // opens keep-alive connections with TCP_NODELAY through the pool
+        config.connectorProvider(pool.getConnectorProvider());
         //How much time until timeout on opening the TCP connection to the server
         config.property(ClientProperties.CONNECT_TIMEOUT, Rest.CONNECTION_TIMEOUT);
         //How much time to wait for the reply of the server after sending the request
@@ -170,6 +277,39 @@ public class RestImp implements Rest {
         }
     }
 
+    @Override
+    public Depth get_depth(@NotNull String symbol, int limit) {
+        try {
+            JsonObject params = new JsonObject();
+            params.addProperty("symbol", symbol);
+            params.addProperty("limit", limit);
+            return g.fromJson(api_call("GET", "/fapi/v1/depth", params, false), Depth.class);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public float get_tick_size(@NotNull String symbol) {
+        try {
+            JsonObject info = g.fromJson(api_call("GET", "/fapi/v1/exchangeInfo", new JsonObject(), false), JsonObject.class);
+            for (JsonElement s : info.getAsJsonArray("symbols")) {
+                if (!symbol.equalsIgnoreCase(s.getAsJsonObject().get("symbol").getAsString()))
+                    continue;
+                for (JsonElement filter : s.getAsJsonObject().getAsJsonArray("filters")) {
+                    if ("PRICE_FILTER".equals(filter.getAsJsonObject().get("filterType").getAsString()))
+                        return filter.getAsJsonObject().get("tickSize").getAsFloat();
+                }
+            }
+            logger.error(String.format("No tick size found for %s.", symbol));
+            return Float.NaN;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Float.NaN;
+        }
+    }
+
     @Override
     public Order place_order(JsonObject params) {
         try {
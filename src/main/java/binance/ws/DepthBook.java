@@ -0,0 +1,217 @@
+package binance.ws;
+
+import binance.data.Depth;
+import binance.data.WsDepthUpdate;
+import utils.PriceLevelBook;
+
+/**
+ * Order book built from the Binance diff depth stream (symbol@depth@100ms), synchronized with a rest snapshot:
+ * events older than the snapshot are dropped, the first event applied must contain the snapshot (U <= lastUpdateId <= u)
+ * and each following event must continue the previous one (pu equal to the previous u). Any other event is a gap: the
+ * book stops being ready until a new snapshot is applied.
+ * Price levels are stored in primitive arrays indexed by price tick, levels too far from the top of the book are
+ * ignored. Only the writer (the depth worker) modifies the book, reads are safe from any thread and do not allocate
+ * memory.
+ */
+public class DepthBook {
+    private final PriceLevelBook levels;
+    // lastUpdateId of the snapshot, then final update id (u) of the last event applied
+    private long lastUpdateId;
+    private boolean snapshotApplied;
+    private boolean ready;
+    // number of gaps found
+    private long gaps;
+
+    /**
+     * @param tickSize - tick size of the symbol
+     * @param capacity - number of price ticks around the top of the book kept in memory
+     */
+    public DepthBook(double tickSize, int capacity) {
+        this.levels = new PriceLevelBook(tickSize, capacity);
+        this.lastUpdateId = -1L;
+        this.snapshotApplied = false;
+        this.ready = false;
+        this.gaps = 0L;
+    }
+
+    /**
+     * Replaces the book with a rest snapshot, the book is ready once the first event after it is applied
+     *
+     * @param snapshot - order book from GET /fapi/v1/depth
+     */
+    public synchronized void apply_snapshot(Depth snapshot) {
+        this.levels.clear();
+        String[][] bids = snapshot.getBids(), asks = snapshot.getAsks();
+        // centers price window on the top of the book received
+        long bestBid = bids.length > 0 ? this.levels.toTick(Double.parseDouble(bids[0][0])) : Long.MIN_VALUE;
+        long bestAsk = asks.length > 0 ? this.levels.toTick(Double.parseDouble(asks[0][0])) : Long.MAX_VALUE;
+        long mid = midTick(bestBid, bestAsk);
+        if (mid != Long.MIN_VALUE)
+            this.levels.recenter(mid);
+        for (String[] level : bids)
+            set(true, level);
+        for (String[] level : asks)
+            set(false, level);
+        this.lastUpdateId = snapshot.getLastUpdateId();
+        this.snapshotApplied = true;
+        this.ready = false;
+    }
+
+    /**
+     * Applies a diff depth event
+     *
+     * @param update - event of the diff depth stream
+     * @return false if a gap was found and a new snapshot must be applied, true otherwise
+     */
+    public synchronized boolean apply(WsDepthUpdate update) {
+        if (!this.snapshotApplied)
+            return false;
+        if (!this.ready) {
+            // already in the snapshot
+            if (update.getFinalUpdateId() < this.lastUpdateId)
+                return true;
+            if (update.getFirstUpdateId() > this.lastUpdateId)
+                return gap();
+        } else if (update.getPrevFinalUpdateId() != this.lastUpdateId)
+            return gap();
+        for (String[] level : update.getBids())
+            set(true, level);
+        for (String[] level : update.getAsks())
+            set(false, level);
+        this.lastUpdateId = update.getFinalUpdateId();
+        this.ready = true;
+        return true;
+    }
+
+    /**
+     * Drops the book until a new snapshot is applied (eg: when the stream reconnects)
+     */
+    public synchronized void invalidate() {
+        this.snapshotApplied = false;
+        this.ready = false;
+    }
+
+    /**
+     * @return true if a snapshot must be applied before the next event
+     */
+    public synchronized boolean needsSnapshot() {
+        return !this.snapshotApplied;
+    }
+
+    /**
+     * @return true if the book is synchronized with the stream
+     */
+    public synchronized boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * @return update id of the last event applied
+     */
+    public synchronized long getLastUpdateId() {
+        return this.lastUpdateId;
+    }
+
+    /**
+     * @return number of gaps found, each one followed by a new snapshot
+     */
+    public synchronized long getGaps() {
+        return this.gaps;
+    }
+
+    /**
+     * @return best bid price, NaN if there are no bids
+     */
+    public synchronized double getBestBid() {
+        return this.levels.hasBid() ? this.levels.toPrice(this.levels.getBestBidTick()) : Double.NaN;
+    }
+
+    /**
+     * @return best ask price, NaN if there are no asks
+     */
+    public synchronized double getBestAsk() {
+        return this.levels.hasAsk() ? this.levels.toPrice(this.levels.getBestAskTick()) : Double.NaN;
+    }
+
+    /**
+     * @return quantity at best bid, 0 if there are no bids
+     */
+    public synchronized double getBestBidSize() {
+        return this.levels.getBestBidSize();
+    }
+
+    /**
+     * @return quantity at best ask, 0 if there are no asks
+     */
+    public synchronized double getBestAskSize() {
+        return this.levels.getBestAskSize();
+    }
+
+    /**
+     * Copies the first n levels of a side of the book, starting at the top
+     *
+     * @param bids   - true for bids, false for asks
+     * @param n      - maximum number of levels
+     * @param prices - array where prices are copied to
+     * @param sizes  - array where quantities are copied to
+     * @return number of levels copied
+     */
+    public synchronized int getTopN(boolean bids, int n, double[] prices, double[] sizes) {
+        return this.levels.getTopN(bids, n, prices, sizes);
+    }
+
+    /**
+     * Returns the sum of quantities from the top of the book up to (and including) a given price
+     *
+     * @param bids  - true for bids, false for asks
+     * @param price - last price to include
+     * @return cumulative quantity
+     */
+    public synchronized double getCumulativeDepth(boolean bids, double price) {
+        return this.levels.getCumulativeDepth(bids, this.levels.toTick(price));
+    }
+
+    private boolean gap() {
+        this.gaps++;
+        invalidate();
+        return false;
+    }
+
+    /**
+     * Sets a [price, quantity] level, moving the price window if the top of the book drifted away from its center
+     */
+    private void set(boolean bid, String[] level) {
+        long tick = this.levels.toTick(Double.parseDouble(level[0]));
+        double size = Double.parseDouble(level[1]);
+        if (!this.levels.set(bid, tick, size) && size > 0d && moveWindow())
+            this.levels.set(bid, tick, size);
+    }
+
+    /**
+     * Recenters the price window on the top of the book if it left the central half of the window, levels that fall
+     * outside are discarded
+     *
+     * @return true if the window moved
+     */
+    private boolean moveWindow() {
+        long mid = midTick(this.levels.getBestBidTick(), this.levels.getBestAskTick());
+        long quarter = this.levels.getCapacity() / 4;
+        if (mid == Long.MIN_VALUE || this.levels.inWindow(mid - quarter) && this.levels.inWindow(mid + quarter))
+            return false;
+        this.levels.recenter(mid);
+        return true;
+    }
+
+    /**
+     * Returns tick between best bid and best ask, or the tick of the only side present
+     */
+    private static long midTick(long bestBid, long bestAsk) {
+        if (bestBid == Long.MIN_VALUE && bestAsk == Long.MAX_VALUE)
+            return Long.MIN_VALUE;
+        if (bestBid == Long.MIN_VALUE)
+            return bestAsk;
+        if (bestAsk == Long.MAX_VALUE)
+            return bestBid;
+        return (bestBid + bestAsk) / 2;
+    }
+}
@@ -1,5 +1,14 @@
 package binance.ws;
 
+import binance.data.WsAggTrade;
+import binance.data.WsKlineData;
+import binance.data.WsLiquidationData;
+import binance.data.WsMarkPrice;
+import utils.EventPublisher;
+import utils.LatencyHistogram;
+import utils.SequencedRing;
+import utils.TradeTape;
+
 import javax.websocket.ClientEndpoint;
 
 @ClientEndpoint
@@ -9,20 +18,40 @@ public interface MarketStream {
     String WS_MAINNET = "wss://fstream.binance.com";
     int MAX_LATENCY = 15000;
     int FORCE_RECONNECT_INTERVAL = 60000;
+    // reconnect policy on the rolling percentiles of mark price latency (one update every 3s), MAX_LATENCY is the
+    // threshold of the tail percentile, p90 so that a single late update out of a window does not trigger it
+    int MAX_LATENCY_P50 = 5000;
+    int LATENCY_TAIL_PERCENTILE = 90;
+    int LATENCY_WINDOW = 60000;
+    int LATENCY_MIN_SAMPLES = 20;
+    int LATENCY_CHECK_INTERVAL = 1000;
 
     //Streams
     String KLINE_1M = "kline_1m";
     String MINI_TICKER = "miniTicker";
     String AGG_TRADE = "aggTrade";
     String MARK_PRICE = "markPrice";
-    String LIQUIDATION = "forcedOrder";
+    String LIQUIDATION = "forceOrder";
+    String DEPTH = "depth";
 
-    int MAX_LEN_KLINE = 100;
-    int MAX_LEN_AGG_TRADE = 100;
-    int MAX_LEN_LIQUIDATION = 100;
+    // capacities of the stream histories, rounded up to a power of two
+    int MAX_LEN_KLINE = 128;
+    int MAX_LEN_AGG_TRADE = 16384;
+    int MAX_LEN_LIQUIDATION = 128;
+    // maximum number of events waiting to be applied per stream, the socket thread blocks when full
+    int STREAM_QUEUE_CAPACITY = 1024;
+    // diff depth stream: update speed ('100ms', '250ms', '500ms'), levels of the rest snapshot (weight 20), price ticks
+    // kept around the top of the book, minimum time between two snapshots after gaps
+    String DEPTH_UPDATE_SPEED = "100ms";
+    int DEPTH_SNAPSHOT_LIMIT = 1000;
+    int DEPTH_BOOK_CAPACITY = 16384;
+    int DEPTH_RESYNC_INTERVAL = 1000;
+    // depth events kept while a snapshot loads, the oldest are dropped (the snapshot is newer than them)
+    int DEPTH_BUFFER_CAPACITY = 1024;
 
     //Server configuration
-    int RETRY_PERIOD = 5000;
+    int RECONNECT_MIN_DELAY = 500; // reconnect delay after the first failed attempt, doubled after each failed attempt
+    int RECONNECT_MAX_DELAY = 30000;
 
     /**
      * Returns true if websocket connection is open, false otherwise
@@ -54,4 +83,61 @@ public interface MarketStream {
      */
     long get_next_funding_period();
 
+    /**
+     * Returns histogram of the latency between the event time of a stream message and its reception
+     * @param stream - stream (eg: MarketStream.MARK_PRICE)
+     * @return histogram in ms over the last LATENCY_WINDOW to 2 * LATENCY_WINDOW ms
+     */
+    LatencyHistogram getExchangeLatency(String stream);
+
+    /**
+     * Returns histogram of the latency between the reception of a stream message and the moment it was applied
+     * @param stream - stream (eg: MarketStream.MARK_PRICE)
+     * @return histogram in us over the last LATENCY_WINDOW to 2 * LATENCY_WINDOW ms
+     */
+    LatencyHistogram getApplyLatency(String stream);
+
+    /**
+     * Returns number of events of a stream waiting to be applied
+     * @param stream - stream (eg: MarketStream.AGG_TRADE)
+     * @return queue depth, -1 if unknown stream
+     */
+    int getQueueDepth(String stream);
+
+    /**
+     * Publisher of mark price updates, only updates newer than the last one are published
+     * @return publisher, subscribe with EventPublisher.Mode.CONFLATE to receive only the latest mark price
+     */
+    EventPublisher<WsMarkPrice> get_markPrice_events();
+
+    /**
+     * Publisher of aggregated trades, each trade received is published
+     * @return publisher
+     */
+    EventPublisher<WsAggTrade> get_aggTrade_events();
+
+    /**
+     * Tape of the last aggregated trades, trade id is the aggregate trade id
+     * @return tape, read without locking from any thread
+     */
+    TradeTape get_aggTrade_tape();
+
+    /**
+     * Last kline updates, one per update received (the open kline is updated several times)
+     * @return ring, read without locking from any thread
+     */
+    SequencedRing<WsKlineData> get_klines();
+
+    /**
+     * Last liquidation orders
+     * @return ring, read without locking from any thread
+     */
+    SequencedRing<WsLiquidationData> get_liquidations();
+
+    /**
+     * Order book of the diff depth stream, synchronized with rest snapshots
+     * @return book, null if the depth stream is not subscribed
+     */
+    DepthBook get_depth_book();
+
 }
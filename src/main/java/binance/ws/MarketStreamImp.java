@@ -1,37 +1,134 @@
 package binance.ws;
 
 import binance.data.*;
+import binance.rest.Rest;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
+import utils.EventPublisher;
+import utils.LatencyHistogram;
+import utils.LatencyMonitor;
+import utils.OrderedDispatcher;
+import utils.ReconnectManager;
+import utils.SequencedRing;
+import utils.TimerWheel;
+import utils.TradeTape;
 
 import javax.websocket.*;
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @ClientEndpoint
 public class MarketStreamImp implements MarketStream {
+
+    /**
+     * Streams subscribed, by name of the stream (suffix of the stream name, after the symbol)
+     */
+    private enum StreamType {
+        AGG_TRADE(MarketStream.AGG_TRADE),
+        MARK_PRICE(MarketStream.MARK_PRICE),
+        KLINE_1M(MarketStream.KLINE_1M),
+        MINI_TICKER(MarketStream.MINI_TICKER),
+        LIQUIDATION(MarketStream.LIQUIDATION),
+        DEPTH(MarketStream.DEPTH);
+
+        private final String stream;
+
+        StreamType(String stream) {
+            this.stream = stream;
+        }
+
+        /**
+         * @param streamName - name of a combined stream (eg: btcusdt@aggTrade, btcusdt@depth@100ms)
+         * @return type of the stream, null if not subscribed
+         */
+        static StreamType of(String streamName) {
+            int start = streamName.indexOf('@') + 1, end = streamName.indexOf('@', start);
+            String stream = streamName.substring(start, end < 0 ? streamName.length() : end);
+            for (StreamType type : values()) {
+                if (type.stream.equals(stream))
+                    return type;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Event of a stream, queued to the worker of the stream. Depth snapshots loaded by rest are queued as events too, so
+     * they are applied in order with the depth events.
+     */
+    private static final class StreamEvent {
+        private final JsonObject data;
+        private final Depth snapshot;
+        private final long receivedMillis;
+        private final long receivedNanos;
+
+        StreamEvent(JsonObject data, long receivedMillis, long receivedNanos) {
+            this.data = data;
+            this.snapshot = null;
+            this.receivedMillis = receivedMillis;
+            this.receivedNanos = receivedNanos;
+        }
+
+        /**
+         * @param snapshot - depth snapshot, null if it could not be loaded
+         */
+        StreamEvent(Depth snapshot) {
+            this.data = null;
+            this.snapshot = snapshot;
+            this.receivedMillis = System.currentTimeMillis();
+            this.receivedNanos = System.nanoTime();
+        }
+    }
+
     private static final Logger logger = LogManager.getLogger(MarketStreamImp.class.getName());
+    // loads depth snapshots, never on the depth worker so a rate limit hold off can not stall the streams
+    private static final ExecutorService DEPTH_SNAPSHOTS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "depth-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final WebSocketContainer container;
     private final Gson g;
     private Session userSession;
     private final String url;
     private final String subscriptions;
     private final String symbol;
-    // minimum timestamp to check latency on instrument update
+    // reconnects with backoff when the session drops
+    private final ReconnectManager reconnect;
+    // stream names resolved to their type, on the first event of each stream
+    private final Map<String, StreamType> streamTypes;
+    // applies the events of each stream in order, on one worker thread per stream
+    private final OrderedDispatcher<StreamEvent> dispatcher;
+    // publishers of the changes of each stream
+    private final EventPublisher<WsMarkPrice> markPriceEvents;
+    private final EventPublisher<WsAggTrade> aggTradeEvents;
+    // latency histograms per stream
+    private final LatencyMonitor latency;
+    // minimum timestamp to reconnect again due to latency
     private long minReconnectTimeStamp;
-    // check latency sync lock
-    private final Object latencyLock = "Latency checking lock";
     // wait / notification mechanism to wait for updates before allowing methods to be executed
     private final Object wsDataUpdate = "Web socket data update";
     // data structure to store ws data
     private final Map<String, Object> wsData;
+    // stream histories, written by the worker of their stream only
+    private final TradeTape aggTrades;
+    private final SequencedRing<WsKlineData> klines;
+    private final SequencedRing<WsLiquidationData> liquidations;
+    // diff depth book, null if not subscribed
+    private final Rest rest;
+    private final DepthBook depthBook;
+    // depth worker state: events received while the snapshot loads, snapshot requested and not applied yet
+    private final ArrayDeque<WsDepthUpdate> depthBuffer;
+    private boolean depthLoading;
+    private long lastDepthSnapshot;
 
     /**
      * Binance web socket client implementation
@@ -40,36 +137,90 @@ public class MarketStreamImp implements MarketStream {
      * @param symbol           - symbol to subscribe
      */
     public MarketStreamImp(String url, String symbol) throws InterruptedException {
+        this(url, symbol, MAX_LEN_AGG_TRADE);
+    }
+
+    /**
+     * Binance web socket client implementation
+     *
+     * @param url              - true if we want to connect to testnet, false otherwise
+     * @param symbol           - symbol to subscribe
+     * @param aggTradeCapacity - number of aggregated trades kept in the tape
+     */
+    public MarketStreamImp(String url, String symbol, int aggTradeCapacity) throws InterruptedException {
+        this(url, symbol, aggTradeCapacity, null, DEPTH_UPDATE_SPEED);
+    }
+
+    /**
+     * Binance web socket client implementation
+     *
+     * @param url              - true if we want to connect to testnet, false otherwise
+     * @param symbol           - symbol to subscribe
+     * @param aggTradeCapacity - number of aggregated trades kept in the tape
+     * @param rest             - rest client used to get the tick size and depth snapshots, null to not subscribe depth
+     * @param depthSpeed       - update speed of the diff depth stream (eg: '100ms')
+     */
+    public MarketStreamImp(String url, String symbol, int aggTradeCapacity, Rest rest, String depthSpeed) throws InterruptedException {
         this.container = ContainerProvider.getWebSocketContainer();
         this.g = new Gson();
         this.url = url;
-        this.subscriptions = String.format("/stream?streams=%s@aggTrade/%s@markPrice/%s@kline_1m/%s@miniTicker/%s@forceOrder", symbol, symbol, symbol, symbol, symbol);
+        StringBuilder streams = new StringBuilder("/stream?streams=");
+        for (StreamType type : StreamType.values()) {
+            if (type == StreamType.DEPTH && rest == null)
+                continue;
+            streams.append(type.ordinal() > 0 ? "/" : "").append(symbol).append('@').append(type.stream);
+            if (type == StreamType.DEPTH)
+                streams.append('@').append(depthSpeed);
+        }
+        this.subscriptions = streams.toString();
+        this.rest = rest;
+        if (rest != null) {
+            float tickSize = rest.get_tick_size(symbol);
+            if (Float.isNaN(tickSize))
+                throw new IllegalStateException(String.format("Could not get tick size of %s.", symbol));
+            this.depthBook = new DepthBook(tickSize, DEPTH_BOOK_CAPACITY);
+        } else
+            this.depthBook = null;
+        this.depthBuffer = new ArrayDeque<>();
+        this.depthLoading = false;
+        this.lastDepthSnapshot = 0L;
         this.userSession = null;
         this.wsData = new ConcurrentHashMap<>();
+        this.aggTrades = new TradeTape(aggTradeCapacity);
+        this.klines = new SequencedRing<>(MAX_LEN_KLINE);
+        this.liquidations = new SequencedRing<>(MAX_LEN_LIQUIDATION);
         this.minReconnectTimeStamp = 0L;
         this.symbol = symbol;
+        this.reconnect = new ReconnectManager(symbol, () -> this.container.connectToServer(this, URI.create(this.url + this.subscriptions)),
+                RECONNECT_MIN_DELAY, RECONNECT_MAX_DELAY);
+        this.latency = new LatencyMonitor(LATENCY_WINDOW);
+        this.markPriceEvents = new EventPublisher<>(MARK_PRICE + ":" + symbol);
+        this.aggTradeEvents = new EventPublisher<>(AGG_TRADE + ":" + symbol);
+        this.streamTypes = new ConcurrentHashMap<>();
+        this.dispatcher = new OrderedDispatcher<>("stream-" + symbol, symbol, STREAM_QUEUE_CAPACITY, OrderedDispatcher.OverflowPolicy.BLOCK);
+        this.dispatcher.register(MINI_TICKER, e -> update_miniTicker(e.data, e.receivedMillis, e.receivedNanos));
+        this.dispatcher.register(KLINE_1M, e -> update_kline(e.data, e.receivedMillis, e.receivedNanos));
+        this.dispatcher.register(AGG_TRADE, e -> update_aggTrade(e.data, e.receivedMillis, e.receivedNanos));
+        this.dispatcher.register(MARK_PRICE, e -> update_markPrice(e.data, e.receivedMillis, e.receivedNanos));
+        this.dispatcher.register(LIQUIDATION, e -> update_liquidation(e.data, e.receivedMillis, e.receivedNanos));
+        if (this.depthBook != null)
+            this.dispatcher.register(DEPTH, e -> {
+                if (e.data == null)
+                    apply_depth_snapshot(e.snapshot);
+                else
+                    update_depth(e.data, e.receivedMillis, e.receivedNanos);
+            });
 
         this.connect();
+        TimerWheel.shared().schedulePeriodic(this::check_latency, LATENCY_CHECK_INTERVAL);
         this.waitForData();
     }
 
     /**
-     * Connects to Binance web socket server
+     * Connects to Binance web socket server, blocking until the connection is open
      */
-    void connect() {
-        try {
-            this.container.connectToServer(this, URI.create(this.url + this.subscriptions));
-        } catch (Exception e) {
-            e.printStackTrace();
-            ThreadContext.put("ROUTINGKEY", symbol);
-            logger.error("Failed to connect to web socket server.");
-            try {
-                Thread.sleep(RETRY_PERIOD);
-            } catch (InterruptedException e2) {
-                //Nothing to be done here, if this happens we will just retry sooner.
-            }
-            this.connect();
-        }
+    void connect() throws InterruptedException {
+        this.reconnect.connect();
     }
 
     /**
@@ -94,7 +245,10 @@ public class MarketStreamImp implements MarketStream {
         ThreadContext.put("ROUTINGKEY", symbol);
         logger.info(String.format("Websocket closed with code: %d", reason.getCloseCode().getCode()));
         this.userSession = null;
-        this.connect();
+        // events are lost while disconnected
+        if (this.depthBook != null)
+            this.depthBook.invalidate();
+        this.reconnect.reconnect();
     }
 
     /**
@@ -115,6 +269,7 @@ public class MarketStreamImp implements MarketStream {
      */
     @OnMessage
     public void onMessage(String message) {
+        long receivedMillis = System.currentTimeMillis(), receivedNanos = System.nanoTime();
         ThreadContext.put("ROUTINGKEY", symbol);
         if (!isSessionOpen())
             return;
@@ -125,122 +280,212 @@ public class MarketStreamImp implements MarketStream {
         logger.debug(message);
 
         WsData dataRec = g.fromJson(message, WsData.class);
-        switch (dataRec.getStream().split("@")[1]) {
-            case MINI_TICKER:
-                new Thread(() -> update_miniTicker(dataRec.getData()) ).start();
-                break;
-            case KLINE_1M:
-                new Thread(() -> update_kline(dataRec.getData()) ).start();
-                break;
-            case AGG_TRADE:
-                new Thread(() -> update_aggTrade(dataRec.getData()) ).start();
-                break;
-            case MARK_PRICE:
-                new Thread(() -> update_markPrice(dataRec.getData()) ).start();
-                break;
-            case LIQUIDATION:
-                new Thread(() -> update_liquidation(dataRec.getData()) ).start();
-                break;
+        if (dataRec.getStream() == null)
+            return;
+        StreamType type = streamTypes.computeIfAbsent(dataRec.getStream(), StreamType::of);
+        if (type != null)
+            dispatcher.dispatch(type.stream, new StreamEvent(dataRec.getData(), receivedMillis, receivedNanos));
+    }
+
+    private void update_liquidation(JsonObject data, long receivedMillis, long receivedNanos) {
+        WsLiquidationRec newLiquidation = g.fromJson(data, WsLiquidationRec.class);
+        record_exchange(LIQUIDATION, newLiquidation.getEventTime(), receivedMillis);
+        liquidations.add(newLiquidation.getLiquidationData());
+        latency.recordApply(LIQUIDATION, receivedNanos);
+    }
+
+    /**
+     * Applies a diff depth event. While the book waits for a snapshot, events are buffered and the snapshot is loaded
+     * in the background, the worker never blocks on rest.
+     */
+    private void update_depth(JsonObject data, long receivedMillis, long receivedNanos) {
+        WsDepthUpdate update = g.fromJson(data, WsDepthUpdate.class);
+        record_exchange(DEPTH, update.getEventTime(), receivedMillis);
+        if (!depthBook.needsSnapshot() && !depthBook.apply(update))
+            logger.warn(String.format("Gap in depth stream at update %d (previous %d), resynchronizing.",
+                    update.getFirstUpdateId(), update.getPrevFinalUpdateId()));
+        if (depthBook.needsSnapshot()) {
+            if (depthBuffer.size() == DEPTH_BUFFER_CAPACITY)
+                depthBuffer.poll();
+            depthBuffer.add(update);
+            request_depth_snapshot();
         }
+        latency.recordApply(DEPTH, receivedNanos);
     }
 
-    @SuppressWarnings("unchecked")
-    private void update_liquidation(JsonObject data) {
-        WsLiquidationRec newLiquidation = g.fromJson(data.toString(), WsLiquidationRec.class);
-        List<WsLiquidationData> oldLiquidation = (List<WsLiquidationData>) wsData.get(LIQUIDATION);
-        if(oldLiquidation != null) {
-            int size = oldLiquidation.size();
-            if(size == MAX_LEN_LIQUIDATION)
-                oldLiquidation.remove(0);
-            oldLiquidation.add(newLiquidation.getLiquidationData());
-            wsData.put(LIQUIDATION, oldLiquidation);
-        } else {
-            List<WsLiquidationData> newLiquidationList = new ArrayList<>(MAX_LEN_LIQUIDATION);
-            newLiquidationList.add(newLiquidation.getLiquidationData());
-            wsData.put(LIQUIDATION, newLiquidationList);
+    /**
+     * Starts loading a depth snapshot, unless one is loading or the last one was requested less than
+     * DEPTH_RESYNC_INTERVAL ago (the next event asks again)
+     */
+    private void request_depth_snapshot() {
+        long now = System.currentTimeMillis();
+        if (depthLoading || now - lastDepthSnapshot < DEPTH_RESYNC_INTERVAL)
+            return;
+        depthLoading = true;
+        lastDepthSnapshot = now;
+        DEPTH_SNAPSHOTS.execute(() -> {
+            Depth snapshot = null;
+            try {
+                snapshot = rest.get_depth(symbol.toUpperCase(), DEPTH_SNAPSHOT_LIMIT);
+            } finally {
+                // always queued, so the worker knows the load ended
+                dispatcher.dispatch(DEPTH, new StreamEvent(snapshot));
+            }
+        });
+    }
+
+    /**
+     * Applies a depth snapshot and the events buffered while it loaded, on the depth worker
+     *
+     * @param snapshot - snapshot, null if it could not be loaded
+     */
+    private void apply_depth_snapshot(Depth snapshot) {
+        depthLoading = false;
+        if (snapshot == null || snapshot.getLastUpdateId() == null) {
+            logger.warn("Could not load depth snapshot, retrying on next event.");
+            return;
+        }
+        if (!depthBook.needsSnapshot())
+            return;
+        depthBook.apply_snapshot(snapshot);
+        while (!depthBuffer.isEmpty()) {
+            WsDepthUpdate update = depthBuffer.poll();
+            if (!depthBook.apply(update)) {
+                // the events after the gap stay buffered for the next snapshot
+                logger.warn(String.format("Gap in depth stream at update %d (previous %d) after snapshot %d, resynchronizing.",
+                        update.getFirstUpdateId(), update.getPrevFinalUpdateId(), snapshot.getLastUpdateId()));
+                return;
+            }
         }
+        logger.info(String.format("Depth book synchronized at update %d.", snapshot.getLastUpdateId()));
     }
 
-    private void update_markPrice(JsonObject data) {
+    private void update_markPrice(JsonObject data, long receivedMillis, long receivedNanos) {
         WsMarkPrice oldMarkPrice = (WsMarkPrice) wsData.get(MARK_PRICE);
-        WsMarkPrice newMarkPrice = g.fromJson(data.toString(), WsMarkPrice.class);
+        WsMarkPrice newMarkPrice = g.fromJson(data, WsMarkPrice.class);
         long newTimestamp = newMarkPrice.getEventTime();
-        check_latency(newTimestamp);
+        record_exchange(MARK_PRICE, newTimestamp, receivedMillis);
         if(oldMarkPrice != null) {
             long oldTimestamp = oldMarkPrice.getEventTime();
-            if(newTimestamp > oldTimestamp)
+            if(newTimestamp > oldTimestamp) {
                 wsData.put(MARK_PRICE, newMarkPrice);
+                markPriceEvents.publish(newMarkPrice);
+            }
         } else {
             wsData.put(MARK_PRICE, newMarkPrice);
+            markPriceEvents.publish(newMarkPrice);
             synchronized (wsDataUpdate) {
                 wsDataUpdate.notifyAll();
             }
         }
+        latency.recordApply(MARK_PRICE, receivedNanos);
     }
 
-    @SuppressWarnings("unchecked")
-    private void update_aggTrade(JsonObject data) {
-        List<WsAggTrade> oldAggTrade = (List<WsAggTrade>) wsData.get(AGG_TRADE);
-        WsAggTrade newAggTrade = g.fromJson(data.toString(), WsAggTrade.class);
-        if(oldAggTrade != null) {
-            int size = oldAggTrade.size();
-            if(size == MAX_LEN_AGG_TRADE)
-                oldAggTrade.remove(0);
-            oldAggTrade.add(newAggTrade);
-            wsData.put(AGG_TRADE, oldAggTrade);
-        } else {
-            List<WsAggTrade> newAggTradeList = new ArrayList<>(MAX_LEN_AGG_TRADE);
-            newAggTradeList.add(newAggTrade);
-            wsData.put(AGG_TRADE, newAggTradeList);
-        }
+    private void update_aggTrade(JsonObject data, long receivedMillis, long receivedNanos) {
+        WsAggTrade newAggTrade = g.fromJson(data, WsAggTrade.class);
+        record_exchange(AGG_TRADE, newAggTrade.getEventTime(), receivedMillis);
+        aggTrades.add(newAggTrade.getPrice(), newAggTrade.getQuantity(), newAggTrade.getTradeTime(),
+                newAggTrade.getAggTradeID(), newAggTrade.isMarketMaker());
+        aggTradeEvents.publish(newAggTrade);
+        latency.recordApply(AGG_TRADE, receivedNanos);
     }
 
-    @SuppressWarnings("unchecked")
-    private void update_kline(JsonObject data) {
-        WsKlineRec newKline = g.fromJson(data.toString(), WsKlineRec.class);
-        List<WsKlineData> oldKline = (List<WsKlineData>) wsData.get(KLINE_1M);
-        if(oldKline != null) {
-            int size = oldKline.size();
-            if(size == MAX_LEN_KLINE)
-                oldKline.remove(0);
-            oldKline.add(newKline.getKline());
-            wsData.put(KLINE_1M, oldKline);
-        } else {
-            List<WsKlineData> newKlineList = new ArrayList<>(MAX_LEN_KLINE);
-            newKlineList.add(newKline.getKline());
-            wsData.put(KLINE_1M, newKlineList);
-        }
+    private void update_kline(JsonObject data, long receivedMillis, long receivedNanos) {
+        WsKlineRec newKline = g.fromJson(data, WsKlineRec.class);
+        record_exchange(KLINE_1M, newKline.getEventTime(), receivedMillis);
+        klines.add(newKline.getKline());
+        latency.recordApply(KLINE_1M, receivedNanos);
     }
 
-    private void update_miniTicker(JsonObject data) {
-        WsMiniTicker newMiniTicker = g.fromJson(data.toString(), WsMiniTicker.class);
+    private void update_miniTicker(JsonObject data, long receivedMillis, long receivedNanos) {
+        WsMiniTicker newMiniTicker = g.fromJson(data, WsMiniTicker.class);
         WsMiniTicker oldMiniTicker = (WsMiniTicker) wsData.get(MINI_TICKER);
         long newTimestamp = newMiniTicker.getEventTime();
+        record_exchange(MINI_TICKER, newTimestamp, receivedMillis);
         if(oldMiniTicker != null) {
             long oldTimestamp = oldMiniTicker.getEventTime();
             if(newTimestamp > oldTimestamp)
                 wsData.put(MINI_TICKER, newMiniTicker);
         } else
             wsData.put(MINI_TICKER, newMiniTicker);
+        latency.recordApply(MINI_TICKER, receivedNanos);
     }
 
     /**
-     * Checks latency on a websocket instrument update
+     * Records exchange latency of a stream message
      *
-     * @param timestamp - timestamp of last update
+     * @param stream         - stream of message
+     * @param eventTime      - event time of message, may be null
+     * @param receivedMillis - reception timestamp of message
      */
-    private void check_latency(Long timestamp) {
-        long latency = System.currentTimeMillis() - timestamp;
-        synchronized (latencyLock) {
-            if (latency > MAX_LATENCY && System.currentTimeMillis() > minReconnectTimeStamp) {
-                minReconnectTimeStamp = System.currentTimeMillis() + FORCE_RECONNECT_INTERVAL;
-                ThreadContext.put("ROUTINGKEY", symbol);
-                logger.warn(String.format("Reconnecting to websocket due to high latency of: %d Current timestamp: %d Next reconnect: %d", latency, System.currentTimeMillis(), minReconnectTimeStamp));
-                this.closeSession();
-            }
+    private void record_exchange(String stream, Long eventTime, long receivedMillis) {
+        if (eventTime != null)
+            latency.recordExchange(stream, eventTime, receivedMillis);
+    }
+
+    /**
+     * Called periodically by the timer, reconnects if the rolling percentiles of the mark price latency are too high.
+     * A single late update does not trigger a reconnect.
+     */
+    private void check_latency() {
+        long now = System.currentTimeMillis();
+        if (!isSessionOpen() || now <= minReconnectTimeStamp)
+            return;
+        if (latency.isDegraded(MARK_PRICE, MAX_LATENCY_P50, LATENCY_TAIL_PERCENTILE, MAX_LATENCY, LATENCY_MIN_SAMPLES)) {
+            minReconnectTimeStamp = now + FORCE_RECONNECT_INTERVAL;
+            ThreadContext.put("ROUTINGKEY", symbol);
+            logger.warn(String.format("Reconnecting to websocket due to high latency: %s Next reconnect: %d", latency.getExchangeLatency(MARK_PRICE), minReconnectTimeStamp));
+            // samples of the old session must not trigger another reconnect
+            latency.getExchangeLatency(MARK_PRICE).reset();
+            this.closeSession();
         }
     }
 
+    @Override
+    public EventPublisher<WsMarkPrice> get_markPrice_events() {
+        return markPriceEvents;
+    }
+
+    @Override
+    public EventPublisher<WsAggTrade> get_aggTrade_events() {
+        return aggTradeEvents;
+    }
+
+    @Override
+    public TradeTape get_aggTrade_tape() {
+        return aggTrades;
+    }
+
+    @Override
+    public SequencedRing<WsKlineData> get_klines() {
+        return klines;
+    }
+
+    @Override
+    public SequencedRing<WsLiquidationData> get_liquidations() {
+        return liquidations;
+    }
+
+    @Override
+    public DepthBook get_depth_book() {
+        return depthBook;
+    }
+
+    @Override
+    public LatencyHistogram getExchangeLatency(String stream) {
+        return latency.getExchangeLatency(stream);
+    }
+
+    @Override
+    public LatencyHistogram getApplyLatency(String stream) {
+        return latency.getApplyLatency(stream);
+    }
+
+    @Override
+    public int getQueueDepth(String stream) {
+        return dispatcher.getQueueDepth(stream);
+    }
+
     @Override
     public boolean isSessionOpen() {
         return this.userSession != null;
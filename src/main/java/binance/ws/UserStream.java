@@ -24,7 +24,9 @@ public interface UserStream {
     int MAX_LEN_ORDER = 100;
 
     //Server configuration
-    int RETRY_PERIOD = 5000;
+    int RECONNECT_MIN_DELAY = 500; // reconnect delay after the first failed attempt, doubled after each failed attempt
+    int RECONNECT_MAX_DELAY = 30000;
+    int LISTEN_KEY_EXTEND_PERIOD = 55 * 60000;
 
     /**
      * Returns true if websocket connection is open, false otherwise
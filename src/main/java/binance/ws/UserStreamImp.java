@@ -6,6 +6,8 @@ import com.google.gson.Gson;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
+import utils.ReconnectManager;
+import utils.TimerWheel;
 import utils.Tuple;
 
 import javax.websocket.*;
@@ -16,41 +18,18 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-
-/**
- * Heartbeat thread that sends ping messages to the websocket server
- */
-class ListenKeyExtenderThread extends Thread {
-    private final UserStreamImp ws;
-    private final String symbol;
-
-    public ListenKeyExtenderThread(UserStreamImp ws, String symbol) {
-        this.ws = ws;
-        this.symbol = symbol;
-        this.start();
-    }
-
-    @Override
-    public void run() {
-        long startTime = System.currentTimeMillis();
-        while (!Thread.interrupted()) {
-            if (System.currentTimeMillis() - startTime > 55 * 60000) {
-                ThreadContext.put("ROUTINGKEY", symbol);
-                ws.get_new_listen_key();
-            }
-            try {
-                Thread.sleep(60000);
-            } catch (InterruptedException e) {
-                this.interrupt();
-            }
-        }
-    }
-}
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @ClientEndpoint
 public class UserStreamImp implements UserStream{
     private static final Logger logger = LogManager.getLogger(UserStream.class.getName());
+    // listen key keepalive requests, never on the timer thread or the common pool (may wait for the rate limit)
+    private static final ExecutorService LISTEN_KEY_KEEP_ALIVE = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "listen-key-keepalive");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final WebSocketContainer container;
     private final Gson g;
     private final RestImp rest;
@@ -58,7 +37,10 @@ public class UserStreamImp implements UserStream{
     private final String url;
     private String listenKey;
     private final String symbol;
-    private ListenKeyExtenderThread listenKeyExtender;
+    // reconnects with backoff when the session drops
+    private final ReconnectManager reconnect;
+    // periodically extends validity of the listen key while the session is open
+    private final TimerWheel.Timeout listenKeyExtender;
     // wait / notification mechanism to wait for updates before allowing methods to be executed
     private final Object wsDataUpdate = "Web socket data update";
     // data structure to store ws data
@@ -77,29 +59,22 @@ public class UserStreamImp implements UserStream{
         this.userSession = null;
         this.wsData = new ConcurrentHashMap<>();
         this.symbol = symbol;
+        this.reconnect = new ReconnectManager(symbol, () -> this.container.connectToServer(this, URI.create(this.url + "/ws/" + this.listenKey)),
+                RECONNECT_MIN_DELAY, RECONNECT_MAX_DELAY);
         get_new_listen_key();
+        // rest call is made outside of the timer thread
+        this.listenKeyExtender = TimerWheel.shared().schedulePeriodic(() -> LISTEN_KEY_KEEP_ALIVE.execute(this::extend_listen_key),
+                LISTEN_KEY_EXTEND_PERIOD);
 
         this.connect();
         this.waitForData();
     }
 
     /**
-     * Connects to Binance web socket server
+     * Connects to Binance web socket server, blocking until the connection is open
      */
-    void connect() {
-        try {
-            this.container.connectToServer(this, URI.create(this.url + "/ws/" + this.listenKey));
-        } catch (Exception e) {
-            e.printStackTrace();
-            ThreadContext.put("ROUTINGKEY", symbol);
-            logger.error("Failed to connect to web socket server.");
-            try {
-                Thread.sleep(RETRY_PERIOD);
-            } catch (InterruptedException e2) {
-                //Nothing to be done here, if this happens we will just retry sooner.
-            }
-            this.connect();
-        }
+    void connect() throws InterruptedException {
+        this.reconnect.connect();
     }
 
     /**
@@ -112,6 +87,9 @@ public class UserStreamImp implements UserStream{
         ThreadContext.put("ROUTINGKEY", symbol);
         logger.info(String.format("Connected to: %s", this.url));
         this.userSession = userSession;
+        // stopped by closeSession()
+        if (!this.listenKeyExtender.isActive())
+            this.listenKeyExtender.reschedule(LISTEN_KEY_EXTEND_PERIOD);
     }
 
     /**
@@ -123,11 +101,8 @@ public class UserStreamImp implements UserStream{
     public void onClose(CloseReason reason) {
         ThreadContext.put("ROUTINGKEY", symbol);
         logger.info(String.format("Websocket closed with code: %d", reason.getCloseCode().getCode()));
-        if(listenKeyExtender != null && !listenKeyExtender.isInterrupted())
-            listenKeyExtender.interrupt();
-        listenKeyExtender = null;
         this.userSession = null;
-        this.connect();
+        this.reconnect.reconnect();
     }
 
     /**
@@ -222,6 +197,7 @@ public class UserStreamImp implements UserStream{
 
     @Override
     public boolean closeSession() {
+        this.listenKeyExtender.cancel();
         if (isSessionOpen()) {
             try {
                 this.userSession.close();
@@ -240,9 +216,15 @@ public class UserStreamImp implements UserStream{
      */
     protected void get_new_listen_key() {
         this.listenKey = rest.start_user_stream().getListenKey();
-        if(listenKeyExtender != null && !listenKeyExtender.isInterrupted())
-            listenKeyExtender.interrupt();
-        listenKeyExtender = new ListenKeyExtenderThread(this, symbol);
+    }
+
+    /**
+     * Extends validity of current listen key
+     */
+    private void extend_listen_key() {
+        ThreadContext.put("ROUTINGKEY", symbol);
+        if (rest.keep_alive_user_stream() == null)
+            logger.warn("Could not extend listen key validity.");
     }
 
 
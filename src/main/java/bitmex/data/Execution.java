@@ -1,7 +1,12 @@
 package bitmex.data;
 
+import com.google.gson.annotations.JsonAdapter;
+import utils.TimeStampAdapter;
+
 public class Execution {
-    private String execID, orderID, clOrdID, symbol, side, ordStatus, timestamp;
+    private String execID, orderID, clOrdID, symbol, side, ordStatus;
+    @JsonAdapter(TimeStampAdapter.class)
+    private long timestamp; // epoch ms
     private Float orderQty, price;
 
     public String getExecID() {
@@ -52,11 +57,14 @@ public class Execution {
         this.ordStatus = ordStatus;
     }
 
-    public String getTimestamp() {
+    /**
+     * @return timestamp in epoch ms, 0 if not present
+     */
+    public long getTimestamp() {
         return timestamp;
     }
 
-    public void setTimestamp(String timestamp) {
+    public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
 
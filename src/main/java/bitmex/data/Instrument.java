@@ -1,7 +1,12 @@
 package bitmex.data;
 
+import com.google.gson.annotations.JsonAdapter;
+import utils.TimeStampAdapter;
+
 public class Instrument {
-    private String timestamp;
+    private String symbol;
+    @JsonAdapter(TimeStampAdapter.class)
+    private long timestamp; // epoch ms
     private Float markPrice;
     private Float midPrice;
     private Float bidPrice;
@@ -14,11 +19,22 @@ public class Instrument {
     private Float initMargin;
     private Boolean isQuanto, isInverse;
 
-    public String getTimestamp() {
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * @return timestamp in epoch ms, 0 if not present
+     */
+    public long getTimestamp() {
         return timestamp;
     }
 
-    public void setTimestamp(String timestamp) {
+    public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -112,7 +128,7 @@ public class Instrument {
      * @param other - updated object
      */
     public void update(Instrument other) {
-        if(other.getTimestamp() != null)
+        if(other.getTimestamp() != 0L)
             this.timestamp = other.getTimestamp();
         if(other.getMarkPrice() != null)
             this.markPrice = other.getMarkPrice();
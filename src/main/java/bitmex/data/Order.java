@@ -1,6 +1,10 @@
 package bitmex.data;
 
+import com.google.gson.annotations.JsonAdapter;
+import utils.TimeStampAdapter;
+
 public class Order {
+    private String symbol;
     private String orderID;
     private String clOrdID;
     private String side;
@@ -8,6 +12,16 @@ public class Order {
     private String ordStatus;
     private Long orderQty;
     private Float price;
+    @JsonAdapter(TimeStampAdapter.class)
+    private long timestamp; // epoch ms
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
 
     public String getOrderID() {
         return orderID;
@@ -65,6 +79,17 @@ public class Order {
         this.ordStatus = ordStatus;
     }
 
+    /**
+     * @return timestamp of last update in epoch ms, 0 if not present
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
     public boolean equals(Order other) {
         return this.orderID.equals(other.getOrderID());
     }
@@ -85,5 +110,7 @@ public class Order {
             this.orderQty = other.getOrderQty();
         if(other.getPrice() != null)
             this.price = other.getPrice();
+        if(other.getTimestamp() != 0L)
+            this.timestamp = other.getTimestamp();
     }
 }
@@ -1,9 +1,18 @@
 package bitmex.data;
 
 public class Position {
+    private String symbol;
     private Float avgEntryPrice;
     private Long currentQty;
 
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
     public Float getAvgEntryPrice() {
         return avgEntryPrice;
     }
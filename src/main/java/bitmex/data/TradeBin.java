@@ -1,14 +1,30 @@
 package bitmex.data;
 
+import com.google.gson.annotations.JsonAdapter;
+import utils.TimeStampAdapter;
+
 public class TradeBin {
-    private String timestamp;
+    private String symbol;
+    @JsonAdapter(TimeStampAdapter.class)
+    private long timestamp; // epoch ms
     private Float open, high, low, close;
 
-    public String getTimestamp() {
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * @return timestamp in epoch ms, 0 if not present
+     */
+    public long getTimestamp() {
         return timestamp;
     }
 
-    public void setTimestamp(String timestamp) {
+    public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -0,0 +1,296 @@
+package bitmex.rest;
+
+import bitmex.data.Order;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import utils.TimerWheel;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gateway between a strategy and the rest api that gathers order intents over a short window and sends them with the
+ * fewest requests: one DELETE /order with every orderID to cancel, one PUT /order/bulk and one POST /order/bulk.
+ * Within a window, amends of the same order are merged (later fields win) and a cancel drops the amends of its order.
+ * Amends and cancels equal to a request still in flight are not sent again, the caller gets the future of that request.
+ * New orders are never merged, each one is placed. They are sent once the cancels of the same window are answered.
+ * Futures complete with the order returned by the server, or null if the request failed.
+ */
+public class OrderGateway {
+    private static final Logger logger = LogManager.getLogger(OrderGateway.class.getName());
+
+    private final RestImp rest;
+    private final long windowMs;
+    // intents waiting for the window to close, by orderID (amends / cancels) or in order (new orders)
+    private final Map<String, PendingAmend> pendingAmends;
+    private final Map<String, CompletableFuture<Order>> pendingCancels;
+    private final List<PendingPlace> pendingPlaces;
+    // requests sent and not answered yet
+    private final Map<String, PendingAmend> inFlightAmends;
+    private final Map<String, CompletableFuture<Order>> inFlightCancels;
+    private boolean flushScheduled;
+    // metrics
+    private long intents;
+    private long requests;
+    private long suppressed;
+
+    /**
+     * @param rest     - rest client
+     * @param windowMs - time intents are gathered before they are sent, in ms (rounded up to the timer resolution)
+     */
+    public OrderGateway(RestImp rest, long windowMs) {
+        this.rest = rest;
+        this.windowMs = windowMs;
+        this.pendingAmends = new LinkedHashMap<>();
+        this.pendingCancels = new LinkedHashMap<>();
+        this.pendingPlaces = new ArrayList<>();
+        this.inFlightAmends = new HashMap<>();
+        this.inFlightCancels = new HashMap<>();
+        this.flushScheduled = false;
+        this.intents = 0L;
+        this.requests = 0L;
+        this.suppressed = 0L;
+    }
+
+    /**
+     * Amends an order
+     *
+     * @param order - amend, with orderID
+     * @return future of the amended order
+     */
+    public synchronized CompletableFuture<Order> amend(OrderIntent order) {
+        this.intents++;
+        String orderID = order.getOrderID();
+        CompletableFuture<Order> cancel = cancel_of(orderID);
+        if (cancel != null) {
+            // order is being canceled
+            this.suppressed++;
+            return CompletableFuture.completedFuture(null);
+        }
+        PendingAmend pending = this.pendingAmends.get(orderID);
+        if (pending != null) {
+            // supersedes the fields of the pending amend
+            pending.order = pending.order.merge(order);
+            this.suppressed++;
+            return pending.future;
+        }
+        PendingAmend inFlight = this.inFlightAmends.get(orderID);
+        if (inFlight != null && inFlight.order.equals(order)) {
+            this.suppressed++;
+            return inFlight.future;
+        }
+        pending = new PendingAmend(order);
+        this.pendingAmends.put(orderID, pending);
+        schedule_flush();
+        return pending.future;
+    }
+
+    /**
+     * Cancels an order
+     *
+     * @param orderID - orderID of the order
+     * @return future of the canceled order
+     */
+    public synchronized CompletableFuture<Order> cancel(String orderID) {
+        this.intents++;
+        CompletableFuture<Order> future = cancel_of(orderID);
+        if (future != null) {
+            this.suppressed++;
+            return future;
+        }
+        PendingAmend amend = this.pendingAmends.remove(orderID);
+        if (amend != null) {
+            this.suppressed++;
+            amend.future.complete(null);
+        }
+        future = new CompletableFuture<>();
+        this.pendingCancels.put(orderID, future);
+        schedule_flush();
+        return future;
+    }
+
+    /**
+     * Places a new order
+     *
+     * @param order - order to place, without clOrdID
+     * @return future of the placed order
+     */
+    public synchronized CompletableFuture<Order> place(OrderIntent order) {
+        this.intents++;
+        PendingPlace pending = new PendingPlace(order);
+        this.pendingPlaces.add(pending);
+        schedule_flush();
+        return pending.future;
+    }
+
+    /**
+     * Sends the pending intents now, without waiting for the window to close
+     */
+    public void flush() {
+        Map<String, CompletableFuture<Order>> cancels;
+        Map<String, PendingAmend> amends;
+        List<PendingPlace> places;
+        synchronized (this) {
+            this.flushScheduled = false;
+            if (this.pendingCancels.isEmpty() && this.pendingAmends.isEmpty() && this.pendingPlaces.isEmpty())
+                return;
+            cancels = new LinkedHashMap<>(this.pendingCancels);
+            amends = new LinkedHashMap<>(this.pendingAmends);
+            places = new ArrayList<>(this.pendingPlaces);
+            this.pendingCancels.clear();
+            this.pendingAmends.clear();
+            this.pendingPlaces.clear();
+            this.inFlightCancels.putAll(cancels);
+            this.inFlightAmends.putAll(amends);
+        }
+        CompletableFuture<?> canceled = cancels.isEmpty() ? CompletableFuture.completedFuture(null) : send_cancels(cancels);
+        if (!amends.isEmpty())
+            send_amends(amends);
+        // new orders wait for the cancels, that free margin and remove stale quotes
+        if (!places.isEmpty())
+            canceled.whenComplete((v, t) -> send_places(places));
+    }
+
+    /**
+     * @return intents received, sent or not
+     */
+    public synchronized long getIntents() {
+        return intents;
+    }
+
+    /**
+     * @return requests sent to the server
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return intents merged into another intent, or not sent because they were in flight
+     */
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("intents: %d requests: %d suppressed: %d", intents, requests, suppressed);
+    }
+
+    /**
+     * @return future completed once the cancels are answered (or failed)
+     */
+    private CompletableFuture<Order[]> send_cancels(Map<String, CompletableFuture<Order>> cancels) {
+        JsonArray orderIDs = new JsonArray();
+        for (String orderID : cancels.keySet())
+            orderIDs.add(orderID);
+        JsonObject params = new JsonObject();
+        params.add("orderID", orderIDs);
+        count_request();
+        return this.rest.del_order_async(params).whenComplete((response, error) -> {
+            synchronized (this) {
+                this.inFlightCancels.keySet().removeAll(cancels.keySet());
+            }
+            complete_by_orderID(cancels, response);
+        });
+    }
+
+    private void send_amends(Map<String, PendingAmend> amends) {
+        List<OrderIntent> orders = new ArrayList<>(amends.size());
+        Map<String, CompletableFuture<Order>> futures = new HashMap<>();
+        for (Map.Entry<String, PendingAmend> amend : amends.entrySet()) {
+            orders.add(amend.getValue().order);
+            futures.put(amend.getKey(), amend.getValue().future);
+        }
+        count_request();
+        this.rest.put_order_bulk_async(orders).whenComplete((response, error) -> {
+            synchronized (this) {
+                // a newer amend of the same order may be in flight
+                this.inFlightAmends.entrySet().removeIf(e -> amends.get(e.getKey()) == e.getValue());
+            }
+            complete_by_orderID(futures, response);
+        });
+    }
+
+    private void send_places(List<PendingPlace> places) {
+        List<OrderIntent> orders = new ArrayList<>(places.size());
+        Map<String, CompletableFuture<Order>> futures = new HashMap<>();
+        for (PendingPlace place : places) {
+            // responses are matched by clOrdID
+            OrderIntent order = this.rest.with_new_clOrdID(place.order);
+            orders.add(order);
+            futures.put(order.getClOrdID(), place.future);
+        }
+        count_request();
+        this.rest.post_order_bulk_async(orders).whenComplete((response, error) -> {
+            if (response != null) {
+                for (Order order : response) {
+                    CompletableFuture<Order> future = order.getClOrdID() == null ? null : futures.get(order.getClOrdID());
+                    if (future != null)
+                        future.complete(order);
+                }
+            }
+            complete_failed(futures.values(), error);
+        });
+    }
+
+    /**
+     * Completes the futures of the orders in the response, and the remaining ones with null
+     */
+    private void complete_by_orderID(Map<String, CompletableFuture<Order>> futures, Order[] response) {
+        if (response != null) {
+            for (Order order : response) {
+                CompletableFuture<Order> future = order.getOrderID() == null ? null : futures.get(order.getOrderID());
+                if (future != null)
+                    future.complete(order);
+            }
+        }
+        complete_failed(futures.values(), null);
+    }
+
+    private void complete_failed(Collection<CompletableFuture<Order>> futures, Throwable error) {
+        if (error != null)
+            logger.warn(String.format("Order request failed: %s", error.getMessage()));
+        for (CompletableFuture<Order> future : futures)
+            future.complete(null);
+    }
+
+    private CompletableFuture<Order> cancel_of(String orderID) {
+        CompletableFuture<Order> future = this.pendingCancels.get(orderID);
+        return future != null ? future : this.inFlightCancels.get(orderID);
+    }
+
+    private synchronized void count_request() {
+        this.requests++;
+    }
+
+    private void schedule_flush() {
+        if (this.flushScheduled)
+            return;
+        this.flushScheduled = true;
+        TimerWheel.shared().schedule(this::flush, this.windowMs);
+    }
+
+    private static final class PendingPlace {
+        private final OrderIntent order;
+        private final CompletableFuture<Order> future;
+
+        PendingPlace(OrderIntent order) {
+            this.order = order;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    private static final class PendingAmend {
+        // merged with later amends while pending
+        private OrderIntent order;
+        private final CompletableFuture<Order> future;
+
+        PendingAmend(OrderIntent order) {
+            this.order = order;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package bitmex.rest;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Typed order request (new order or amend), written straight to the JSON body of the request without building a Gson
+ * tree. Prices are kept as a whole number of ticks, so the price sent is always a multiple of the tick size.
+ */
+public final class OrderIntent {
+    // value of unset numeric fields
+    private static final long UNSET = Long.MIN_VALUE;
+    private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L};
+
+    private final String orderID;
+    private final String clOrdID;
+    private final String symbol;
+    private final String side;
+    private final long orderQty;
+    private final long priceTicks;
+    private final float tickSize;
+    private final String ordType;
+    private final String execInst;
+
+    private OrderIntent(String orderID, String clOrdID, String symbol, String side, long orderQty, long priceTicks,
+                        float tickSize, String ordType, String execInst) {
+        this.orderID = orderID;
+        this.clOrdID = clOrdID;
+        this.symbol = symbol;
+        this.side = side;
+        this.orderQty = orderQty;
+        this.priceTicks = priceTicks;
+        this.tickSize = tickSize;
+        this.ordType = ordType;
+        this.execInst = execInst;
+    }
+
+    /**
+     * New limit order
+     *
+     * @param symbol   - symbol
+     * @param orderQty - order quantity, if negative sell order
+     * @param price    - price, rounded to the nearest tick
+     * @param tickSize - tick size of the symbol
+     * @param execInst - execution instructions (eg: ParticipateDoNotInitiate), null or empty for none
+     * @return order intent
+     */
+    public static OrderIntent limit(String symbol, long orderQty, float price, float tickSize, String execInst) {
+        return new OrderIntent(null, null, symbol, orderQty < 0 ? "Sell" : "Buy", Math.abs(orderQty),
+                to_ticks(price, tickSize), tickSize, "Limit", execInst == null || execInst.isEmpty() ? null : execInst);
+    }
+
+    /**
+     * Amend of the price of an order
+     *
+     * @param orderID  - orderID of the order
+     * @param price    - new price, rounded to the nearest tick
+     * @param tickSize - tick size of the symbol
+     * @return order intent
+     */
+    public static OrderIntent amend_price(String orderID, float price, float tickSize) {
+        return new OrderIntent(orderID, null, null, null, UNSET, to_ticks(price, tickSize), tickSize, null, null);
+    }
+
+    /**
+     * Amend of the quantity of an order
+     *
+     * @param orderID  - orderID of the order
+     * @param orderQty - new order quantity
+     * @return order intent
+     */
+    public static OrderIntent amend_qty(String orderID, long orderQty) {
+        return new OrderIntent(orderID, null, null, null, orderQty, UNSET, 0f, null, null);
+    }
+
+    /**
+     * @param clOrdID - client order ID
+     * @return copy of this intent with the client order ID
+     */
+    public OrderIntent withClOrdID(String clOrdID) {
+        return new OrderIntent(orderID, clOrdID, symbol, side, orderQty, priceTicks, tickSize, ordType, execInst);
+    }
+
+    /**
+     * Merges a later amend of the same order, its fields replace the fields of this amend
+     *
+     * @param later - later amend
+     * @return merged amend
+     */
+    public OrderIntent merge(OrderIntent later) {
+        boolean priceSet = later.priceTicks != UNSET;
+        return new OrderIntent(orderID, clOrdID, symbol, side, later.orderQty != UNSET ? later.orderQty : orderQty,
+                priceSet ? later.priceTicks : priceTicks, priceSet ? later.tickSize : tickSize, ordType, execInst);
+    }
+
+    /**
+     * Writes the bulk body {"orders": [...]} of a list of intents
+     *
+     * @param orders - intents
+     * @param out    - builder where the body is appended
+     */
+    public static void write_bulk(List<OrderIntent> orders, StringBuilder out) {
+        out.append("{\"orders\":[");
+        for (int i = 0; i < orders.size(); i++) {
+            if (i > 0)
+                out.append(',');
+            orders.get(i).write(out);
+        }
+        out.append("]}");
+    }
+
+    /**
+     * Writes this intent as a JSON object, unset fields are left out
+     *
+     * @param out - builder where the object is appended
+     */
+    public void write(StringBuilder out) {
+        int start = out.length();
+        out.append('{');
+        write_string(out, "orderID", orderID);
+        write_string(out, "clOrdID", clOrdID);
+        write_string(out, "symbol", symbol);
+        write_string(out, "side", side);
+        if (orderQty != UNSET)
+            field(out, "orderQty").append(orderQty);
+        if (priceTicks != UNSET)
+            write_price(field(out, "price"));
+        write_string(out, "ordType", ordType);
+        write_string(out, "execInst", execInst);
+        // drops the comma before the first field
+        if (out.length() > start + 1)
+            out.deleteCharAt(start + 1);
+        out.append('}');
+    }
+
+    public String getOrderID() {
+        return orderID;
+    }
+
+    public String getClOrdID() {
+        return clOrdID;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return 'Buy' or 'Sell', null for amends
+     */
+    public String getSide() {
+        return side;
+    }
+
+    /**
+     * @return order quantity, 0 if not set
+     */
+    public long getOrderQty() {
+        return orderQty == UNSET ? 0L : orderQty;
+    }
+
+    /**
+     * @return price, NaN if not set
+     */
+    public float getPrice() {
+        return priceTicks == UNSET ? Float.NaN : priceTicks * tickSize;
+    }
+
+    /**
+     * @return true if equal to other, ignoring the client order ID
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof OrderIntent))
+            return false;
+        OrderIntent other = (OrderIntent) o;
+        return orderQty == other.orderQty && priceTicks == other.priceTicks && Float.compare(tickSize, other.tickSize) == 0
+                && Objects.equals(orderID, other.orderID) && Objects.equals(symbol, other.symbol)
+                && Objects.equals(side, other.side) && Objects.equals(ordType, other.ordType)
+                && Objects.equals(execInst, other.execInst);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(orderID, symbol, side, orderQty, priceTicks, ordType, execInst);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(128);
+        write(out);
+        return out.toString();
+    }
+
+    private static long to_ticks(float price, float tickSize) {
+        return Math.round((double) price / tickSize);
+    }
+
+    /**
+     * Writes priceTicks * tickSize as an exact decimal
+     */
+    private void write_price(StringBuilder out) {
+        // smallest number of decimals that represents the tick size
+        int scale = 0;
+        while (scale < POW10.length - 1 && Math.abs(tickSize * POW10[scale] - Math.round(tickSize * POW10[scale])) > 1e-4 * tickSize * POW10[scale])
+            scale++;
+        long units = priceTicks * Math.round((double) tickSize * POW10[scale]);
+        if (units < 0) {
+            out.append('-');
+            units = -units;
+        }
+        out.append(units / POW10[scale]);
+        if (scale > 0) {
+            out.append('.');
+            long fraction = units % POW10[scale];
+            for (long p = POW10[scale - 1]; p > fraction && p > 1; p /= 10)
+                out.append('0');
+            out.append(fraction);
+        }
+    }
+
+    private static StringBuilder field(StringBuilder out, String name) {
+        return out.append(",\"").append(name).append("\":");
+    }
+
+    private static void write_string(StringBuilder out, String name, String value) {
+        if (value == null)
+            return;
+        field(out, name).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                out.append('\\').append(c);
+            else if (c < 0x20)
+                out.append(String.format("\\u%04x", (int) c));
+            else
+                out.append(c);
+        }
+        out.append('"');
+    }
+}
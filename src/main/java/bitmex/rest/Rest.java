@@ -2,9 +2,15 @@ package bitmex.rest;
 
 import bitmex.data.*;
 import com.google.gson.JsonObject;
+import utils.RetryPolicy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface to connect to the Bitmex Rest API, see more at https://www.bitmex.com/api/explorer/
+ * Every method has an async variant ('_async') that does not block the caller, its future completes exceptionally with a
+ * TimeoutException after ASYNC_TIMEOUT ms (retries included), and cancelling it stops the retries of the request.
  */
 public interface Rest {
     //Rest endpoints and path
@@ -15,7 +21,22 @@ public interface Rest {
     //Server configuration
     int CONNECTION_TIMEOUT = 3000;
     int REPLY_TIMEOUT = 3000;
-    int RETRY_PERIOD = 3000;
+    // requests per window allowed to an api key, corrected from the x-ratelimit-limit header
+    int RATE_LIMIT = 60;
+    int RATE_LIMIT_WINDOW = 60000;
+    int ASYNC_POOL_SIZE = 4; // maximum number of async requests in flight, shared by all clients
+    int ASYNC_TIMEOUT = 10000;
+    // keep-alive connections: kept per host (JVM wide), opened at startup and pinged every keep-alive period when
+    // unused, the period leaves time for the ping to land before the 5 s idle eviction
+    int MAX_CONNECTIONS = 4;
+    int WARM_UP_CONNECTIONS = 2;
+    int KEEP_ALIVE_INTERVAL = 3000;
+    // retry policies, shared by all clients: name, max attempts, deadline, min and max backoff (ms), retry budget ratio
+    RetryPolicy READ_RETRY = new RetryPolicy("read", 5, 20000, 500, 4000, 0.2, true);
+    // amends and cancels come back fast, the strategy decides again with fresh data
+    RetryPolicy IDEMPOTENT_RETRY = new RetryPolicy("idempotent", 3, 2500, 200, 1000, 0.2, true);
+    // new orders are only retried if the server surely did not process them
+    RetryPolicy POST_RETRY = new RetryPolicy("post", 3, 2500, 200, 1000, 0.2, false);
 
     /**
      * Get instruments
@@ -113,4 +134,115 @@ public interface Rest {
      * @return server response
      */
     UserMargin get_user_margin();
+
+    /**
+     * Async variant of get_instrument
+     * @param symbol - symbol to query
+     * @return future of server response
+     */
+    CompletableFuture<Instrument> get_instrument_async(String symbol);
+
+    /**
+     * Async variant of get_order
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order[]> get_order_async(JsonObject data);
+
+    /**
+     * Async variant of put_order
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order> put_order_async(JsonObject data);
+
+    /**
+     * Async variant of post_order
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order> post_order_async(JsonObject data);
+
+    /**
+     * Async variant of del_order
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order[]> del_order_async(JsonObject data);
+
+    /**
+     * Async variant of del_order_all
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order[]> del_order_all_async(JsonObject data);
+
+    /**
+     * Async variant of put_order_bulk
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order[]> put_order_bulk_async(JsonObject data);
+
+    /**
+     * Async variant of post_order_bulk
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order[]> post_order_bulk_async(JsonObject data);
+
+    /**
+     * Async variant of post_order_cancelAllAfter
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Order> post_order_cancelAllAfter_async(JsonObject data);
+
+    /**
+     * Async variant of get_position
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<Position> get_position_async(JsonObject data);
+
+    /**
+     * Async variant of get_trade_bucketed
+     * @param data - data sent to server as parameters
+     * @return future of server response
+     */
+    CompletableFuture<TradeBin[]> get_trade_bucketed_async(JsonObject data);
+
+    /**
+     * Async variant of get_user_margin
+     * @return future of server response
+     */
+    CompletableFuture<UserMargin> get_user_margin_async();
+
+    /**
+     * Amends multiple orders, written from typed intents instead of a json tree
+     * @param orders - amends, with orderID
+     * @return server response
+     */
+    Order[] put_order_bulk(List<OrderIntent> orders);
+
+    /**
+     * Places multiple orders, written from typed intents instead of a json tree
+     * @param orders - new orders, intents without clOrdID are sent with a new clOrdID, the list is not modified
+     * @return server response
+     */
+    Order[] post_order_bulk(List<OrderIntent> orders);
+
+    /**
+     * Async variant of put_order_bulk(List)
+     * @param orders - amends, with orderID
+     * @return future of server response
+     */
+    CompletableFuture<Order[]> put_order_bulk_async(List<OrderIntent> orders);
+
+    /**
+     * Async variant of post_order_bulk(List)
+     * @param orders - new orders, intents without clOrdID are sent with a new clOrdID, the list is not modified
+     * @return future of server response
+     */
+    CompletableFuture<Order[]> post_order_bulk_async(List<OrderIntent> orders);
 }
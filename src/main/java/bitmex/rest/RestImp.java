@@ -10,28 +10,47 @@ import org.apache.logging.log4j.Logger;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
 import utils.Auth;
+import utils.HmacSigner;
+import utils.HttpConnectionPool;
+import utils.RateGovernor;
+import utils.RetryPolicy;
+import utils.TimerWheel;
 
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import java.net.ConnectException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 public class RestImp implements Rest {
 
     private static final Logger logger = LogManager.getLogger(RestImp.class.getName());
+    // runs the http requests of the async api of all clients, bounds the number of requests in flight
+    private static final ExecutorService ASYNC_POOL = new ThreadPoolExecutor(Rest.ASYNC_POOL_SIZE, Rest.ASYNC_POOL_SIZE,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "bitmex-rest-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // buffer where order intents are written, per thread
+    private static final ThreadLocal<StringBuilder> ORDERS_BODY = ThreadLocal.withInitial(() -> new StringBuilder(512));
 
     private final Gson g;
+    private final HttpConnectionPool pool;
     private final Client client;
     private final String url;
     private final String apiKey;
-    private final String apiSecret;
+    private final HmacSigner signer;
+    private final RateGovernor governor;
     private final String orderIDPrefix;
 
     /**
@@ -48,135 +67,245 @@ public class RestImp implements Rest {
             this.url = Rest.REST_TESTNET;
         else
             this.url = Rest.REST_MAINNET;
+        this.pool = HttpConnectionPool.shared(this.url, Rest.MAX_CONNECTIONS, Rest.KEEP_ALIVE_INTERVAL);
         this.client = client_configuration();
         this.apiKey = apiKey;
-        this.apiSecret = apiSecret;
+        this.signer = new HmacSigner(apiSecret);
+        // shared by the clients of all symbols traded with this key
+        this.governor = RateGovernor.shared("bitmex", apiKey, Rest.RATE_LIMIT, Rest.RATE_LIMIT_WINDOW);
         this.orderIDPrefix = orderIDPrefix;
+        this.pool.warmUp(this::ping, Rest.WARM_UP_CONNECTIONS);
     }
 
     /**
      * @param verb     - 'GET', 'POST', 'DELETE', 'PUT'
      * @param endpoint - endpoint on server
      * @param data     - data sent either in url ('GET') or in the body
-     * @return error message if request could not be retried, or retried request response (both as String)
+     * @return response as String, error message of the last attempt if the request was not retried, null if the server
+     * could not be reached within the retry policy of the request
      */
     public String api_call(String verb, String endpoint, JsonObject data) {
-        WebTarget target = client.target(url).path(Rest.API_PATH + endpoint);
-        if (verb.equalsIgnoreCase("GET")) {
-            for (String name : data.keySet()) {
-                target = target
-                        .queryParam(name, URLEncoder.encode(data.get(name).getAsString(), StandardCharsets.UTF_8));
-            }
-        }
-
-        Invocation.Builder httpReq = target.request()
-                .accept(MediaType.APPLICATION_JSON)
-                .header("content-type", "application/json; charset=utf-8")
-                .header("connection", "keep-alive");
-
-        long expires = Auth.generate_expires();
-        URI uri = target.getUri();
-        String sigData = String.format("%s%s%s%s%s", verb, uri.getPath() == null ? "" : uri.getPath(),
-                uri.getQuery() == null ? "" : "?" + uri.toString().split("\\?")[1], expires, verb.equalsIgnoreCase(
-                        "GET") ? "" :
-                        data.toString());
-        String signature = Auth.encode_hmac(apiSecret, sigData);
-        httpReq = httpReq
-                .header("api-expires", expires)
-                .header("api-key", apiKey)
-                .header("api-signature", signature);
+        boolean get = verb.equalsIgnoreCase("GET");
+        // the body is serialized once, then signed and sent as is
+        return send(verb, endpoint, get ? data : null, get ? null : data.toString());
+    }
 
-        logger.debug(String.format("Making API request: %s", uri.toString()));
-        logger.debug(String.format("API Request data: %s", data.toString()));
+    /**
+     * Sends a request with a body serialized by the caller
+     *
+     * @param verb     - 'POST', 'DELETE', 'PUT'
+     * @param endpoint - endpoint on server
+     * @param body     - JSON body, signed and sent as is
+     * @return see api_call
+     */
+    public String api_call(String verb, String endpoint, String body) {
+        return send(verb, endpoint, null, body);
+    }
 
-        boolean success = false;
-        while (!success) {
+    /**
+     * @param query - parameters sent in the url, null if none
+     * @param body  - body of the request, null if none
+     */
+    private String send(String verb, String endpoint, JsonObject query, String body) {
+        RateGovernor.Priority priority = priority_of(verb, endpoint);
+        RetryPolicy policy = retry_policy_of(verb);
+        policy.deposit();
+        long start = System.currentTimeMillis();
+        int attempts = 0;
+
+        while (true) {
+            try {
+                governor.acquire(priority, 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            attempts++;
+            // signed again on every attempt
+            Invocation.Builder httpReq = build_request(verb, endpoint, query, body);
+            String srvRes = null;
+            long retryDelay;
             try {
                 Response r = null;
                 if (verb.equalsIgnoreCase("GET"))
                     r = httpReq.get();
                 else if (verb.equalsIgnoreCase("POST"))
-                    r = httpReq.post(Entity.entity(data.toString(), MediaType.APPLICATION_JSON));
+                    r = httpReq.post(Entity.entity(body, MediaType.APPLICATION_JSON));
                 else if (verb.equalsIgnoreCase("PUT"))
-                    r = httpReq.put(Entity.entity(data.toString(), MediaType.APPLICATION_JSON));
+                    r = httpReq.put(Entity.entity(body, MediaType.APPLICATION_JSON));
                 else if (verb.equalsIgnoreCase("DELETE"))
-                    r = httpReq.build("DELETE", Entity.entity(data.toString(), MediaType.APPLICATION_JSON)).invoke();
+                    r = httpReq.build("DELETE", Entity.entity(body, MediaType.APPLICATION_JSON)).invoke();
 
                 assert r != null;
                 int status = r.getStatus();
-                success = true;
-
-                if (r.hasEntity()) {
-                    String srvRes = r.readEntity(String.class);
-                    logger.debug(String.format("API request response (%d): %s", status, srvRes));
-                    if(status == Response.Status.OK.getStatusCode())
-                        return srvRes;
-                    else
-                        return api_error(status, verb, endpoint, data, srvRes, r.getHeaders());
-                }
+                update_budget(r);
+
+                if (!r.hasEntity())
+                    return null;
+                srvRes = r.readEntity(String.class);
+                logger.debug(String.format("API request response (%d): %s", status, srvRes));
+                if (status == Response.Status.OK.getStatusCode())
+                    return srvRes;
+                long minDelay = api_error(status, verb, endpoint, srvRes, r.getHeaders());
+                retryDelay = minDelay < 0L ? -1L : policy.retryDelay(attempts, start, minDelay, maybe_processed(status));
             } catch (ProcessingException pe) { //Error in communication with server
-                logger.warn(String.format("Timeout occurred on %s%s. Retrying request...", verb, endpoint));
-                try {
-                    Thread.sleep(Rest.RETRY_PERIOD); //wait until attempting again.
-                } catch (InterruptedException e) {
-                    //Nothing to be done here, if this happens we will just retry sooner.
-                }
+                logger.warn(String.format("Timeout occurred on %s%s.", verb, endpoint));
+                retryDelay = policy.retryDelay(attempts, start, 0L, !(pe.getCause() instanceof ConnectException));
+            }
+            if (retryDelay < 0L) {
+                logger.warn(String.format("Giving up %s request %s%s after %d attempts.", policy.getName(), verb, endpoint, attempts));
+                return srvRes;
+            }
+            logger.warn(String.format("Retrying request %s%s in %d ms...", verb, endpoint, retryDelay));
+            try {
+                Thread.sleep(retryDelay); //wait until attempting again.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return srvRes;
             }
         }
-        return null;
     }
 
     /**
-     * Build and configures a Jersey client
+     * Makes an api call without blocking the caller, the request runs on a bounded pool shared by all clients.
+     * Errors are retried with the same retry policy as api_call, after delays scheduled on the timer instead of sleeping.
      *
-     * @return the entry point to the API to execute client requests
+     * @param verb     - 'GET', 'POST', 'DELETE', 'PUT'
+     * @param endpoint - endpoint on server
+     * @param data     - data sent either in url ('GET') or in the body
+     * @return future of the response as String (see api_call), completed exceptionally with a TimeoutException after
+     * Rest.ASYNC_TIMEOUT ms including retries. Cancelling it stops retries
      */
-    private Client client_configuration() {
-        ClientConfig config = new ClientConfig();
-        //How much time until timeout on opening the TCP connection to the server
-        config.property(ClientProperties.CONNECT_TIMEOUT, Rest.CONNECTION_TIMEOUT);
-        //How much time to wait for the reply of the server after sending the request
-        config.property(ClientProperties.READ_TIMEOUT, Rest.REPLY_TIMEOUT);
-        //Property to allow to post body data in a 'DELETE' request, otherwise an exception is thrown
-        config.property(ClientProperties.SUPPRESS_HTTP_COMPLIANCE_VALIDATION, true);
-        //Suppress warnings for payloads with DELETE calls:
-        java.util.logging.Logger.getLogger("org.glassfish.jersey.client").setLevel(java.util.logging.Level.SEVERE);
-        //Allow changing http headers, before a request
-        System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
-        return ClientBuilder.newClient(config);
+    public CompletableFuture<String> api_call_async(String verb, String endpoint, JsonObject data) {
+        boolean get = verb.equalsIgnoreCase("GET");
+        return send_async(verb, endpoint, get ? data : null, get ? null : data.toString());
+    }
+
+    /**
+     * Async variant of api_call with a body serialized by the caller
+     *
+     * @param verb     - 'POST', 'DELETE', 'PUT'
+     * @param endpoint - endpoint on server
+     * @param body     - JSON body, signed and sent as is
+     * @return see api_call_async
+     */
+    public CompletableFuture<String> api_call_async(String verb, String endpoint, String body) {
+        return send_async(verb, endpoint, null, body);
+    }
+
+    /**
+     * @param query - parameters sent in the url, null if none
+     * @param body  - body of the request, null if none
+     */
+    private CompletableFuture<String> send_async(String verb, String endpoint, JsonObject query, String body) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        RetryPolicy policy = retry_policy_of(verb);
+        policy.deposit();
+        attempt_async(result, verb, endpoint, query, body, policy, System.currentTimeMillis(), 0);
+        return result.orTimeout(Rest.ASYNC_TIMEOUT, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Deals with an api call which response was non ok (~200)
+     * Sends one attempt of an async api call, completing result or scheduling a retry
+     *
+     * @param attempts - attempts made so far
+     */
+    private void attempt_async(CompletableFuture<String> result, String verb, String endpoint, JsonObject query,
+                               String body, RetryPolicy policy, long start, int attempts) {
+        if (result.isDone())
+            return;
+        long wait = governor.tryAcquire(priority_of(verb, endpoint), 1);
+        if (wait > 0L) {
+            TimerWheel.shared().schedule(() -> attempt_async(result, verb, endpoint, query, body, policy, start, attempts),
+                    wait);
+            return;
+        }
+        // signed again on every attempt
+        Invocation.Builder httpReq = build_request(verb, endpoint, query, body);
+        CompletionStage<Response> request = body == null ? httpReq.rx().method(verb.toUpperCase()) :
+                httpReq.rx().method(verb.toUpperCase(), Entity.entity(body, MediaType.APPLICATION_JSON));
+        request.whenComplete((r, error) -> {
+            if (result.isDone())
+                return;
+            String srvRes = null;
+            long retryDelay;
+            if (error != null) {
+                logger.warn(String.format("Timeout occurred on %s%s.", verb, endpoint));
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                retryDelay = policy.retryDelay(attempts + 1, start, 0L, !(cause.getCause() instanceof ConnectException));
+            } else {
+                int status = r.getStatus();
+                update_budget(r);
+                srvRes = r.hasEntity() ? r.readEntity(String.class) : null;
+                logger.debug(String.format("API request response (%d): %s", status, srvRes));
+                if (status == Response.Status.OK.getStatusCode() || srvRes == null) {
+                    result.complete(srvRes);
+                    return;
+                }
+                long minDelay = api_error(status, verb, endpoint, srvRes, r.getHeaders());
+                retryDelay = minDelay < 0L ? -1L : policy.retryDelay(attempts + 1, start, minDelay, maybe_processed(status));
+            }
+            if (retryDelay < 0L) {
+                logger.warn(String.format("Giving up %s request %s%s after %d attempts.", policy.getName(), verb, endpoint, attempts + 1));
+                result.complete(srvRes);
+            } else {
+                logger.warn(String.format("Retrying request %s%s in %d ms...", verb, endpoint, retryDelay));
+                TimerWheel.shared().schedule(() -> attempt_async(result, verb, endpoint, query, body, policy, start,
+                        attempts + 1),
+                        retryDelay);
+            }
+        });
+    }
+
+    /**
+     * Returns the retry policy of a request: reads, idempotent amends / cancels or non-idempotent posts
+     *
+     * @param verb - 'GET', 'POST', 'DELETE', 'PUT'
+     * @return retry policy
+     */
+    private static RetryPolicy retry_policy_of(String verb) {
+        if (verb.equalsIgnoreCase("GET"))
+            return Rest.READ_RETRY;
+        else if (verb.equalsIgnoreCase("POST"))
+            return Rest.POST_RETRY;
+        return Rest.IDEMPOTENT_RETRY;
+    }
+
+    /**
+     * @param status - http response code of an error
+     * @return true if the server may have processed the request (only 429 and 503 are rejected before processing)
+     */
+    private static boolean maybe_processed(int status) {
+        return status >= 500 && status != 503;
+    }
+
+    /**
+     * Handles an api call which response was non ok (~200)
      *
      * @param status   - http response code
      * @param verb     - 'GET', 'POST', 'DELETE', 'PUT'
      * @param endpoint - endpoint on server
-     * @param data     - data sent either in url ('GET') or in the body
      * @param response - response as string received by the server
      * @param headers  - headers of http request
-     * @return response of server,  null if error
+     * @return minimum delay before retrying in ms, -1 if request must not be retried
      */
-    private String api_error(int status, String verb, String endpoint, JsonObject data, String response,
-                             MultivaluedMap<String, Object> headers) {
-
-        // converts error response to json element
-        JsonElement obj = g.fromJson(response, JsonElement.class);
-        if (!obj.isJsonObject() || !obj.getAsJsonObject().has("error")) {
-            logger.error(String.format("Unknown handled error (%d), retrying request in 2000ms", status));
-            sleep(2000); //waits 2000ms until attempting again.
-            return api_call(verb, endpoint, data);
+    private long api_error(int status, String verb, String endpoint, String response,
+                           MultivaluedMap<String, Object> headers) {
+        JsonElement obj;
+        try {
+            obj = g.fromJson(response, JsonElement.class);
+        } catch (Exception e) {
+            obj = null;
+        }
+        if (obj == null || !obj.isJsonObject() || !obj.getAsJsonObject().has("error")) {
+            logger.error(String.format("Unknown handled error (%d)", status));
+            return 0L;
         }
-
-        // gets error element on json
         JsonObject errorObj = obj.getAsJsonObject().get("error").getAsJsonObject();
-
-        // formats error message
         String errLog = String.format("(%d) error on request: %s  Name: %s  Message: %s", status,
                 verb + endpoint, errorObj.get("name").toString(),
                 errorObj.get("message").toString());
 
-        //Checks response codes
         if (status == 401 || status == 403) {
             // Authentication error, forbidden
             logger.fatal(errLog);
@@ -184,44 +313,184 @@ public class RestImp implements Rest {
         } else if (status == 400) {
             //Parameter error
             logger.error(errLog);
-            sleep(2000); //waits 2000ms
-            return response;
+            return -1L;
         } else if (status == 404) {
-            logger.error(errLog);
-            sleep(2000); //waits 2000ms until attempting again.
             //Order not found
-            if (verb.equalsIgnoreCase("DELETE"))
-                return response;
-            return api_call(verb, endpoint, data);
+            logger.error(errLog);
+            return verb.equalsIgnoreCase("DELETE") ? -1L : 0L;
         } else if (status == 429) {
             logger.error(errLog);
             long rateLimitReset = Long.parseLong(headers.get("x-ratelimit-reset").get(0).toString());
             long toSleep = rateLimitReset * 1000 - System.currentTimeMillis();
-            logger.warn(String.format("Rate-limit will reset at: %d , sleeping for %d ms", rateLimitReset, toSleep));
-            sleep(toSleep); //waits until attempting again.
-            return api_call(verb, endpoint, data);
+            logger.warn(String.format("Rate-limit will reset at: %d , retrying in %d ms", rateLimitReset, toSleep));
+            governor.holdOff(toSleep);
+            return toSleep;
         } else if (String.valueOf(status).startsWith("5")) { // error on server side 5xx
             logger.error(errLog);
-            sleep(3000); //waits 3000ms until attempting again.
-            return api_call(verb, endpoint, data);
+            return 0L;
         }
         logger.error("Unhandled error response. \n " + response);
-        return null;
+        return -1L;
+    }
+
+    /**
+     * Returns the priority lane of a request, cancels before amends before new orders before reads
+     *
+     * @param verb     - 'GET', 'POST', 'DELETE', 'PUT'
+     * @param endpoint - endpoint on server
+     * @return priority of the request
+     */
+    private static RateGovernor.Priority priority_of(String verb, String endpoint) {
+        if (verb.equalsIgnoreCase("DELETE") || endpoint.equals("/order/cancelAllAfter"))
+            return RateGovernor.Priority.CANCEL;
+        else if (verb.equalsIgnoreCase("PUT"))
+            return RateGovernor.Priority.AMEND;
+        else if (verb.equalsIgnoreCase("POST"))
+            return RateGovernor.Priority.NEW;
+        return RateGovernor.Priority.READ;
     }
 
     /**
-     * Sleeps code execution for x ms
+     * Corrects the rate limit budget of the key with the one reported in the response headers
      *
-     * @param ms - ms amount to sleep
+     * @param r - response
      */
-    private void sleep(long ms) {
+    private void update_budget(Response r) {
+        String remaining = r.getHeaderString("x-ratelimit-remaining");
+        if (remaining == null)
+            return;
+        String limit = r.getHeaderString("x-ratelimit-limit");
         try {
-            Thread.sleep(ms); //wait ms until attempting again.
-        } catch (InterruptedException e) {
-            //Nothing to be done here, if this happens we will just retry sooner.
+            governor.update(Long.parseLong(remaining), limit == null ? -1L : Long.parseLong(limit));
+        } catch (NumberFormatException e) {
+            logger.warn(String.format("Invalid rate limit headers: %s / %s", remaining, limit));
         }
     }
 
+    /**
+     * Builds a signed request
+     *
+     * @param verb     - 'GET', 'POST', 'DELETE', 'PUT'
+     * @param endpoint - endpoint on server
+     * @param query    - parameters sent in the url, null if none
+     * @param body     - body of the request, null if none
+     * @return request ready to be invoked
+     */
+    private Invocation.Builder build_request(String verb, String endpoint, JsonObject query, String body) {
+        WebTarget target = client.target(url).path(Rest.API_PATH + endpoint);
+        if (query != null) {
+            for (String name : query.keySet()) {
+                target = target
+                        .queryParam(name, URLEncoder.encode(query.get(name).getAsString(), StandardCharsets.UTF_8));
+            }
+        }
+
+        Invocation.Builder httpReq = target.request()
+                .accept(MediaType.APPLICATION_JSON)
+                .header("content-type", "application/json; charset=utf-8")
+                .header("connection", "keep-alive");
+
+        long expires = Auth.generate_expires();
+        URI uri = target.getUri();
+        StringBuilder sigData = signer.payload().append(verb);
+        if (uri.getPath() != null)
+            sigData.append(uri.getPath());
+        if (uri.getRawQuery() != null)
+            sigData.append('?').append(uri.getRawQuery());
+        sigData.append(expires);
+        if (body != null)
+            sigData.append(body);
+        String signature = signer.sign(sigData);
+        httpReq = httpReq
+                .header("api-expires", expires)
+                .header("api-key", apiKey)
+                .header("api-signature", signature);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Making API request: %s", uri.toString()));
+            logger.debug(String.format("API Request data: %s", body));
+        }
+        return httpReq;
+    }
+
+    /**
+     * Sends a cheap request that opens or keeps alive a connection, only with spare rate limit budget
+     */
+    private void ping() {
+        if (governor.tryAcquire(RateGovernor.Priority.READ, 1) > 0L)
+            return;
+        try {
+            Response r = client.target(url).path(Rest.API_PATH).request().get();
+            update_budget(r);
+            // reads the body so the connection goes back to the keep-alive cache
+            r.readEntity(String.class);
+        } catch (Exception e) {
+            logger.debug(String.format("Ping to %s failed: %s", url, e.getMessage()));
+        }
+    }
+
+    /**
+     * @return connection pool of the client
+     */
+    public HttpConnectionPool getConnectionPool() {
+        return this.pool;
+    }
+
+    /**
+     * Build and configures a Jersey client
+     *
+     * @return the entry point to the API to execute client requests
+     */
+    private Client client_configuration() {
+        ClientConfig config = new ClientConfig();
+        // opens keep-alive connections with TCP_NODELAY through the pool
+        config.connectorProvider(pool.getConnectorProvider());
+        //How much time until timeout on opening the TCP connection to the server
+        config.property(ClientProperties.CONNECT_TIMEOUT, Rest.CONNECTION_TIMEOUT);
+        //How much time to wait for the reply of the server after sending the request
+        config.property(ClientProperties.READ_TIMEOUT, Rest.REPLY_TIMEOUT);
+        //Property to allow to post body data in a 'DELETE' request, otherwise an exception is thrown
+        config.property(ClientProperties.SUPPRESS_HTTP_COMPLIANCE_VALIDATION, true);
+        //Suppress warnings for payloads with DELETE calls:
+        java.util.logging.Logger.getLogger("org.glassfish.jersey.client").setLevel(java.util.logging.Level.SEVERE);
+        //Allow changing http headers, before a request
+        System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+        // executor of the requests made through rx()
+        return ClientBuilder.newBuilder().withConfig(config).executorService(ASYNC_POOL).build();
+    }
+
+    /**
+     * Writes the bulk body of order intents, adding a clOrdID to new orders that have none. The list is not modified.
+     *
+     * @param orders - order intents
+     * @return body
+     */
+    private String orders_body(List<OrderIntent> orders) {
+        List<OrderIntent> sent = orders;
+        for (int i = 0; i < orders.size(); i++) {
+            OrderIntent order = orders.get(i);
+            if (order.getOrderID() == null && order.getClOrdID() == null) {
+                if (sent == orders)
+                    sent = new ArrayList<>(orders);
+                sent.set(i, order.withClOrdID(setNewOrderID()));
+            }
+        }
+        StringBuilder body = ORDERS_BODY.get();
+        body.setLength(0);
+        OrderIntent.write_bulk(sent, body);
+        return body.toString();
+    }
+
+    /**
+     * Returns a copy of a new order intent with a clOrdID, for callers that match the response by clOrdID
+     *
+     * @param order - new order intent
+     * @return copy with a new clOrdID
+     */
+    OrderIntent with_new_clOrdID(OrderIntent order) {
+        return order.withClOrdID(setNewOrderID());
+    }
+
     /**
      * Returns new order ID with the given prefix
      *
@@ -360,4 +629,135 @@ public class RestImp implements Rest {
             return null;
         }
     }
+
+    /**
+     * Parses the response of an async api call, with the same fallback values as the blocking methods
+     *
+     * @param response - future of the response
+     * @param parser   - parses the response
+     * @param fallback - value if the response can not be parsed
+     * @return future of the parsed response, cancelling it cancels the request and its retries
+     */
+    private <T> CompletableFuture<T> parse_async(CompletableFuture<String> response, Function<String, T> parser, T fallback) {
+        CompletableFuture<T> parsed = response.thenApply(res -> {
+            try {
+                T value = parser.apply(res);
+                return value != null ? value : fallback;
+            } catch (Exception e) {
+                return fallback;
+            }
+        });
+        // retries stop once the request future is done
+        parsed.whenComplete((v, t) -> {
+            if (parsed.isCancelled())
+                response.cancel(false);
+        });
+        return parsed;
+    }
+
+    @Override
+    public CompletableFuture<Instrument> get_instrument_async(String symbol) {
+        JsonObject params = new JsonObject();
+        params.addProperty("symbol", symbol);
+        return parse_async(api_call_async("GET", "/instrument", params), res -> g.fromJson(res, Instrument[].class)[0], null);
+    }
+
+    @Override
+    public CompletableFuture<Order[]> get_order_async(JsonObject data) {
+        return parse_async(api_call_async("GET", "/order", data), res -> {
+            Order[] response = g.fromJson(res, Order[].class);
+            // only returns orders that start with the orderIDPrefix
+            List<Order> toRet = new ArrayList<>(response.length);
+            for (Order v : response) {
+                if (v.getClOrdID() != null && v.getClOrdID().startsWith(this.orderIDPrefix))
+                    toRet.add(v);
+            }
+            return toRet.toArray(new Order[0]);
+        }, new Order[0]);
+    }
+
+    @Override
+    public CompletableFuture<Order> put_order_async(JsonObject data) {
+        return parse_async(api_call_async("PUT", "/order", data), res -> g.fromJson(res, Order.class), null);
+    }
+
+    @Override
+    public CompletableFuture<Order> post_order_async(JsonObject data) {
+        //Adds cl0rdID
+        data.addProperty("clOrdID", setNewOrderID());
+        return parse_async(api_call_async("POST", "/order", data), res -> g.fromJson(res, Order.class), null);
+    }
+
+    @Override
+    public CompletableFuture<Order[]> del_order_async(JsonObject data) {
+        return parse_async(api_call_async("DELETE", "/order", data), res -> g.fromJson(res, Order[].class), new Order[0]);
+    }
+
+    @Override
+    public CompletableFuture<Order[]> del_order_all_async(JsonObject data) {
+        return parse_async(api_call_async("DELETE", "/order/all", data), res -> g.fromJson(res, Order[].class), new Order[0]);
+    }
+
+    @Override
+    public CompletableFuture<Order[]> put_order_bulk_async(JsonObject data) {
+        return parse_async(api_call_async("PUT", "/order/bulk", data), res -> g.fromJson(res, Order[].class), new Order[0]);
+    }
+
+    @Override
+    public CompletableFuture<Order[]> post_order_bulk_async(JsonObject data) {
+        //Adds cl0rdID
+        for (JsonElement e : data.get("orders").getAsJsonArray())
+            e.getAsJsonObject().addProperty("clOrdID", setNewOrderID());
+        return parse_async(api_call_async("POST", "/order/bulk", data), res -> g.fromJson(res, Order[].class), new Order[0]);
+    }
+
+    @Override
+    public CompletableFuture<Order> post_order_cancelAllAfter_async(JsonObject data) {
+        return parse_async(api_call_async("POST", "/order/cancelAllAfter", data), res -> g.fromJson(res, Order.class), null);
+    }
+
+    @Override
+    public CompletableFuture<Position> get_position_async(JsonObject data) {
+        return parse_async(api_call_async("GET", "/position", data), res -> g.fromJson(res, Position.class), null);
+    }
+
+    @Override
+    public CompletableFuture<TradeBin[]> get_trade_bucketed_async(JsonObject data) {
+        return parse_async(api_call_async("GET", "/trade/bucketed", data), res -> g.fromJson(res, TradeBin[].class), new TradeBin[0]);
+    }
+
+    @Override
+    public CompletableFuture<UserMargin> get_user_margin_async() {
+        // XBt only collateral
+        JsonObject data = g.fromJson("{'currency': 'XBt'}", JsonObject.class);
+        return parse_async(api_call_async("GET", "/user/margin", data), res -> g.fromJson(res, UserMargin.class), null);
+    }
+
+    @Override
+    public Order[] put_order_bulk(List<OrderIntent> orders) {
+        try {
+            return g.fromJson(api_call("PUT", "/order/bulk", orders_body(orders)), Order[].class);
+        } catch (Exception e) {
+            return new Order[0];
+        }
+    }
+
+    @Override
+    public Order[] post_order_bulk(List<OrderIntent> orders) {
+        try {
+            return g.fromJson(api_call("POST", "/order/bulk", orders_body(orders)), Order[].class);
+        } catch (Exception e) {
+            return new Order[0];
+        }
+    }
+
+    @Override
+    public CompletableFuture<Order[]> put_order_bulk_async(List<OrderIntent> orders) {
+        return parse_async(api_call_async("PUT", "/order/bulk", orders_body(orders)), res -> g.fromJson(res, Order[].class), new Order[0]);
+    }
+
+    @Override
+    public CompletableFuture<Order[]> post_order_bulk_async(List<OrderIntent> orders) {
+        return parse_async(api_call_async("POST", "/order/bulk", orders_body(orders)), res -> g.fromJson(res, Order[].class), new Order[0]);
+    }
 }
@@ -0,0 +1,285 @@
+package bitmex.ws;
+
+import bitmex.data.OrderBookL2;
+import utils.LongIntHashMap;
+import utils.PriceLevelBook;
+
+import java.util.Arrays;
+
+/**
+ * Order book built from the BitMex 'orderBookL2' table. Deltas are applied in place, price levels are stored in primitive
+ * arrays indexed by price tick, and rows are indexed by their id so updates and deletes (that may not carry a price) are
+ * applied in O(1). Only the writer (the orderBookL2 worker) modifies the book, reads are safe from any thread and do
+ * not allocate memory.
+ */
+public class OrderBook {
+    private static final int NO_ROW = -1;
+
+    private final PriceLevelBook levels;
+    // row id -> index of the row in the arrays below
+    private final LongIntHashMap rowIndex;
+    private long[] rowTick;
+    private long[] rowSize;
+    private boolean[] rowBid;
+    private boolean[] rowUsed;
+    private int[] freeRows;
+    private int freeCount;
+    private boolean ready;
+
+    /**
+     * @param tickSize - tick size of the instrument
+     * @param capacity - number of price ticks around the top of the book kept in memory
+     */
+    public OrderBook(float tickSize, int capacity) {
+        this.levels = new PriceLevelBook(tickSize, capacity);
+        this.rowIndex = new LongIntHashMap(capacity, NO_ROW);
+        this.rowTick = new long[0];
+        this.rowSize = new long[0];
+        this.rowBid = new boolean[0];
+        this.rowUsed = new boolean[0];
+        this.freeRows = new int[0];
+        this.freeCount = 0;
+        this.ready = false;
+        growRows(1024);
+    }
+
+    /**
+     * Applies an orderBookL2 message to the book
+     *
+     * @param action - 'partial', 'insert', 'update' or 'delete'
+     * @param data   - rows received
+     */
+    public synchronized void apply(String action, OrderBookL2[] data) {
+        switch (action) {
+            case "partial":
+                partial(data);
+                break;
+            case "insert":
+            case "update":
+                for (OrderBookL2 elem : data)
+                    upsert(elem);
+                break;
+            case "delete":
+                for (OrderBookL2 elem : data)
+                    delete(elem.getId());
+                break;
+        }
+    }
+
+    /**
+     * @return true after the first partial was applied
+     */
+    public synchronized boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * @return best bid price, NaN if there are no bids
+     */
+    public synchronized float getBestBid() {
+        return this.levels.hasBid() ? (float) this.levels.toPrice(this.levels.getBestBidTick()) : Float.NaN;
+    }
+
+    /**
+     * @return best ask price, NaN if there are no asks
+     */
+    public synchronized float getBestAsk() {
+        return this.levels.hasAsk() ? (float) this.levels.toPrice(this.levels.getBestAskTick()) : Float.NaN;
+    }
+
+    /**
+     * @return size at best bid, 0 if there are no bids
+     */
+    public synchronized long getBestBidSize() {
+        return (long) this.levels.getBestBidSize();
+    }
+
+    /**
+     * @return size at best ask, 0 if there are no asks
+     */
+    public synchronized long getBestAskSize() {
+        return (long) this.levels.getBestAskSize();
+    }
+
+    /**
+     * Returns size of the order book level with a given price, on any side
+     *
+     * @param price - price of level
+     * @return size of the level, 0 if empty or too far from the top of the book
+     */
+    public synchronized long getSize(float price) {
+        long tick = this.levels.toTick(price);
+        return (long) (this.levels.getSize(true, tick) + this.levels.getSize(false, tick));
+    }
+
+    /**
+     * Copies the first n levels of a side of the book, starting at the top
+     *
+     * @param bids   - true for bids, false for asks
+     * @param n      - maximum number of levels
+     * @param prices - array where prices are copied to
+     * @param sizes  - array where sizes are copied to
+     * @return number of levels copied
+     */
+    public synchronized int getTopN(boolean bids, int n, float[] prices, long[] sizes) {
+        int count = 0;
+        n = Math.min(n, Math.min(prices.length, sizes.length));
+        long tick = bids ? this.levels.getBestBidTick() : this.levels.getBestAskTick();
+        if (!this.levels.inWindow(tick))
+            return 0;
+        while (count < n && this.levels.inWindow(tick)) {
+            double size = this.levels.getSize(bids, tick);
+            if (size > 0d) {
+                prices[count] = (float) this.levels.toPrice(tick);
+                sizes[count++] = (long) size;
+            }
+            tick = bids ? tick - 1 : tick + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of sizes from the top of the book up to (and including) a given price
+     *
+     * @param bids  - true for bids, false for asks
+     * @param price - last price to include
+     * @return cumulative size
+     */
+    public synchronized long getCumulativeDepth(boolean bids, float price) {
+        return (long) this.levels.getCumulativeDepth(bids, this.levels.toTick(price));
+    }
+
+    private void partial(OrderBookL2[] data) {
+        this.levels.clear();
+        this.rowIndex.clear();
+        Arrays.fill(this.rowUsed, false);
+        this.freeCount = 0;
+        for (int i = this.rowUsed.length - 1; i >= 0; i--)
+            this.freeRows[this.freeCount++] = i;
+
+        // centers price window on the top of the book received
+        long bestBid = Long.MIN_VALUE, bestAsk = Long.MAX_VALUE;
+        for (OrderBookL2 elem : data) {
+            long tick = this.levels.toTick(elem.getPrice());
+            if (isBid(elem))
+                bestBid = Math.max(bestBid, tick);
+            else
+                bestAsk = Math.min(bestAsk, tick);
+        }
+        if (bestBid != Long.MIN_VALUE || bestAsk != Long.MAX_VALUE)
+            this.levels.recenter(midTick(bestBid, bestAsk));
+
+        for (OrderBookL2 elem : data)
+            upsert(elem);
+        this.ready = true;
+    }
+
+    private void upsert(OrderBookL2 elem) {
+        int row = this.rowIndex.get(elem.getId());
+        if (row == NO_ROW) {
+            // new level, price is always sent on inserts
+            if (elem.getPrice() == null)
+                return;
+            row = allocateRow();
+            this.rowIndex.put(elem.getId(), row);
+            this.rowTick[row] = this.levels.toTick(elem.getPrice());
+            this.rowSize[row] = 0L;
+            this.rowBid[row] = isBid(elem);
+        } else if (elem.getSide() != null && isBid(elem) != this.rowBid[row]) {
+            // level changed side, removes it from the previous side
+            this.levels.set(this.rowBid[row], this.rowTick[row], 0d);
+        }
+        if (elem.getSide() != null)
+            this.rowBid[row] = isBid(elem);
+        if (elem.getSize() != null)
+            this.rowSize[row] = elem.getSize();
+
+        if (!this.levels.set(this.rowBid[row], this.rowTick[row], this.rowSize[row]))
+            moveWindow(this.rowTick[row]);
+    }
+
+    private void delete(long id) {
+        int row = this.rowIndex.remove(id);
+        if (row == NO_ROW)
+            return;
+        this.levels.set(this.rowBid[row], this.rowTick[row], 0d);
+        this.rowUsed[row] = false;
+        this.freeRows[this.freeCount++] = row;
+    }
+
+    /**
+     * Called when a level falls outside the price window, recenters the window if the top of the book drifted away
+     * from its center and rebuilds levels from the rows in memory. When the window holds no level (eg: the whole book
+     * moved out of it), the top of the book is taken from the rows, or from the rejected level.
+     *
+     * @param rejectedTick - tick of the level that fell outside the window
+     */
+    private void moveWindow(long rejectedTick) {
+        long mid = midTick(this.levels.getBestBidTick(), this.levels.getBestAskTick());
+        if (mid == Long.MIN_VALUE)
+            mid = rowsMidTick();
+        if (mid == Long.MIN_VALUE)
+            mid = rejectedTick;
+        long quarter = this.levels.getCapacity() / 4;
+        if (this.levels.inWindow(mid - quarter) && this.levels.inWindow(mid + quarter))
+            return;
+        this.levels.clear();
+        this.levels.recenter(mid);
+        for (int row = 0; row < this.rowUsed.length; row++) {
+            if (this.rowUsed[row])
+                this.levels.set(this.rowBid[row], this.rowTick[row], this.rowSize[row]);
+        }
+    }
+
+    /**
+     * @return tick between best bid and best ask of the rows in memory, Long.MIN_VALUE if there are none
+     */
+    private long rowsMidTick() {
+        long bestBid = Long.MIN_VALUE, bestAsk = Long.MAX_VALUE;
+        for (int row = 0; row < this.rowUsed.length; row++) {
+            if (!this.rowUsed[row] || this.rowSize[row] <= 0L)
+                continue;
+            if (this.rowBid[row])
+                bestBid = Math.max(bestBid, this.rowTick[row]);
+            else
+                bestAsk = Math.min(bestAsk, this.rowTick[row]);
+        }
+        return midTick(bestBid, bestAsk);
+    }
+
+    private int allocateRow() {
+        if (this.freeCount == 0)
+            growRows(this.rowUsed.length * 2);
+        int row = this.freeRows[--this.freeCount];
+        this.rowUsed[row] = true;
+        return row;
+    }
+
+    private void growRows(int newLength) {
+        int oldLength = this.rowUsed.length;
+        this.rowTick = Arrays.copyOf(this.rowTick, newLength);
+        this.rowSize = Arrays.copyOf(this.rowSize, newLength);
+        this.rowBid = Arrays.copyOf(this.rowBid, newLength);
+        this.rowUsed = Arrays.copyOf(this.rowUsed, newLength);
+        this.freeRows = Arrays.copyOf(this.freeRows, newLength);
+        for (int i = newLength - 1; i >= oldLength; i--)
+            this.freeRows[this.freeCount++] = i;
+    }
+
+    private static boolean isBid(OrderBookL2 elem) {
+        return "Buy".equals(elem.getSide());
+    }
+
+    /**
+     * Returns tick between best bid and best ask, or the tick of the only side present
+     */
+    private static long midTick(long bestBid, long bestAsk) {
+        if (bestBid == Long.MIN_VALUE && bestAsk == Long.MAX_VALUE)
+            return Long.MIN_VALUE;
+        if (bestBid == Long.MIN_VALUE)
+            return bestAsk;
+        if (bestAsk == Long.MAX_VALUE)
+            return bestBid;
+        return (bestBid + bestAsk) / 2;
+    }
+}
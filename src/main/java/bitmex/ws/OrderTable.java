@@ -0,0 +1,258 @@
+package bitmex.ws;
+
+import bitmex.data.Order;
+
+import java.util.*;
+
+/**
+ * Store of the last orders received from the 'order' table, indexed by orderID. Inserts and updates are O(1), and the
+ * oldest order is evicted when the table is full. Readers get a snapshot array that is only rebuilt after the table
+ * changed.
+ * Orders are also indexed by clOrdID prefix, side and status (open / filled). Indexes are maintained incrementally as
+ * orders are applied, and their views are cached until the index changes, so repeated queries do not allocate memory.
+ */
+public class OrderTable {
+    // index categories
+    private static final int OPEN_BUY = 0;
+    private static final int OPEN_SELL = 1;
+    private static final int FILLED_BUY = 2;
+    private static final int FILLED_SELL = 3;
+    private static final int NONE = -1;
+    private static final Order[] EMPTY = new Order[0];
+
+    private final int capacity;
+    // orderID -> order, in insertion order
+    private final LinkedHashMap<String, Order> orders;
+    // clOrdID prefix -> index of orders with that prefix
+    private final Map<String, PrefixIndex> prefixes;
+    // incremented on every change
+    private long version;
+    private Order[] snapshot;
+    private long snapshotVersion;
+
+    /**
+     * @param capacity - maximum number of orders kept
+     */
+    public OrderTable(int capacity) {
+        this.capacity = capacity;
+        this.orders = new LinkedHashMap<>(capacity * 2);
+        this.prefixes = new HashMap<>();
+        this.version = 0L;
+        this.snapshot = EMPTY;
+        this.snapshotVersion = 0L;
+    }
+
+    /**
+     * Inserts new orders and updates the ones already in the table
+     *
+     * @param rows - orders received
+     */
+    public synchronized void apply(Order[] rows) {
+        for (Order row : rows) {
+            if (row == null || row.getOrderID() == null)
+                continue;
+            Order order = this.orders.get(row.getOrderID());
+            if (order != null) {
+                int oldCategory = category(order);
+                order.update(row);
+                int newCategory = category(order);
+                if (oldCategory != newCategory)
+                    reindex(order, oldCategory, newCategory);
+            } else {
+                if (this.orders.size() == this.capacity) {
+                    Iterator<Order> oldest = this.orders.values().iterator();
+                    Order evicted = oldest.next();
+                    oldest.remove();
+                    reindex(evicted, category(evicted), NONE);
+                }
+                this.orders.put(row.getOrderID(), row);
+                reindex(row, NONE, category(row));
+            }
+        }
+        this.version++;
+    }
+
+    /**
+     * Replaces the content of the table
+     *
+     * @param rows - orders, oldest first
+     */
+    public synchronized void replace(Order[] rows) {
+        this.orders.clear();
+        for (PrefixIndex index : this.prefixes.values())
+            index.clear();
+        apply(rows);
+    }
+
+    /**
+     * Returns order with a given orderID
+     *
+     * @param orderID - orderID
+     * @return order, null if not in table
+     */
+    public synchronized Order get(String orderID) {
+        return this.orders.get(orderID);
+    }
+
+    public synchronized int size() {
+        return this.orders.size();
+    }
+
+    /**
+     * @return number of changes applied to the table
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns orders in table, oldest first
+     *
+     * @return snapshot array, shared between readers until the table changes
+     */
+    public synchronized Order[] snapshot() {
+        if (this.snapshotVersion != this.version) {
+            this.snapshot = this.orders.values().toArray(EMPTY);
+            this.snapshotVersion = this.version;
+        }
+        return this.snapshot;
+    }
+
+    /**
+     * Returns open orders ('New' or 'PartiallyFilled') with a clOrdID prefix
+     *
+     * @param clOrdIDPrefix - clOrdID prefix
+     * @param side          - 'Buy', 'Sell' or null for both sides
+     * @return orders, shared between readers until the index changes
+     */
+    public synchronized Order[] getOpen(String clOrdIDPrefix, String side) {
+        return query(clOrdIDPrefix, side, OPEN_BUY, OPEN_SELL);
+    }
+
+    /**
+     * Returns filled orders with a clOrdID prefix
+     *
+     * @param clOrdIDPrefix - clOrdID prefix
+     * @param side          - 'Buy', 'Sell' or null for both sides
+     * @return orders, shared between readers until the index changes
+     */
+    public synchronized Order[] getFilled(String clOrdIDPrefix, String side) {
+        return query(clOrdIDPrefix, side, FILLED_BUY, FILLED_SELL);
+    }
+
+    private Order[] query(String clOrdIDPrefix, String side, int buyCategory, int sellCategory) {
+        PrefixIndex index = this.prefixes.get(clOrdIDPrefix);
+        if (index == null)
+            index = addPrefix(clOrdIDPrefix);
+        if ("Buy".equals(side))
+            return index.view(buyCategory);
+        if ("Sell".equals(side))
+            return index.view(sellCategory);
+        return index.view(buyCategory, sellCategory);
+    }
+
+    /**
+     * Starts indexing orders with a clOrdID prefix, indexes the orders already in the table
+     */
+    private PrefixIndex addPrefix(String clOrdIDPrefix) {
+        PrefixIndex index = new PrefixIndex(clOrdIDPrefix);
+        this.prefixes.put(clOrdIDPrefix, index);
+        for (Order order : this.orders.values()) {
+            int category = category(order);
+            if (category != NONE && index.matches(order))
+                index.add(order, category);
+        }
+        return index;
+    }
+
+    private void reindex(Order order, int oldCategory, int newCategory) {
+        for (PrefixIndex index : this.prefixes.values()) {
+            if (!index.matches(order))
+                continue;
+            if (oldCategory != NONE)
+                index.remove(order, oldCategory);
+            if (newCategory != NONE)
+                index.add(order, newCategory);
+        }
+    }
+
+    private static int category(Order order) {
+        String status = order.getOrdStatus(), side = order.getSide();
+        if (status == null || side == null)
+            return NONE;
+        boolean buy = side.equals("Buy");
+        if (status.equals("New") || status.equals("PartiallyFilled"))
+            return buy ? OPEN_BUY : OPEN_SELL;
+        if (status.equals("Filled"))
+            return buy ? FILLED_BUY : FILLED_SELL;
+        return NONE;
+    }
+
+    /**
+     * Orders with a clOrdID prefix, by category
+     */
+    private static class PrefixIndex {
+        private final String prefix;
+        private final LinkedHashMap<String, Order>[] categories;
+        // incremented on every change of a category
+        private final long[] versions;
+        // cached views, single category [0..3] and both sides of open [4] / filled [5]
+        private final Order[][] views;
+        private final long[] viewVersions;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private PrefixIndex(String prefix) {
+            this.prefix = prefix;
+            this.categories = new LinkedHashMap[4];
+            for (int i = 0; i < this.categories.length; i++)
+                this.categories[i] = new LinkedHashMap<>();
+            this.versions = new long[4];
+            this.views = new Order[6][];
+            this.viewVersions = new long[6];
+            Arrays.fill(this.views, EMPTY);
+        }
+
+        private boolean matches(Order order) {
+            return order.getClOrdID() != null && order.getClOrdID().startsWith(this.prefix);
+        }
+
+        private void add(Order order, int category) {
+            this.categories[category].put(order.getOrderID(), order);
+            this.versions[category]++;
+        }
+
+        private void remove(Order order, int category) {
+            if (this.categories[category].remove(order.getOrderID()) != null)
+                this.versions[category]++;
+        }
+
+        private void clear() {
+            for (int i = 0; i < this.categories.length; i++) {
+                this.categories[i].clear();
+                this.versions[i]++;
+            }
+        }
+
+        private Order[] view(int category) {
+            if (this.viewVersions[category] != this.versions[category]) {
+                this.views[category] = this.categories[category].values().toArray(EMPTY);
+                this.viewVersions[category] = this.versions[category];
+            }
+            return this.views[category];
+        }
+
+        private Order[] view(int buyCategory, int sellCategory) {
+            int v = buyCategory == OPEN_BUY ? 4 : 5;
+            // versions only increase, so their sum identifies the state of both categories
+            long version = this.versions[buyCategory] + this.versions[sellCategory];
+            if (this.viewVersions[v] != version) {
+                Order[] buys = view(buyCategory), sells = view(sellCategory);
+                Order[] both = Arrays.copyOf(buys, buys.length + sells.length);
+                System.arraycopy(sells, 0, both, buys.length, sells.length);
+                this.views[v] = both;
+                this.viewVersions[v] = version;
+            }
+            return this.views[v];
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package bitmex.ws;
+
+/**
+ * Best bid and ask of a symbol, published when any of them changes. Taken from the order book when the orderBookL2
+ * table is subscribed, from the instrument quote otherwise (sizes are then 0).
+ */
+public final class TopOfBook {
+    private final String symbol;
+    private final float bidPrice;
+    private final long bidSize;
+    private final float askPrice;
+    private final long askSize;
+    private final long receivedMillis;
+
+    public TopOfBook(String symbol, float bidPrice, long bidSize, float askPrice, long askSize, long receivedMillis) {
+        this.symbol = symbol;
+        this.bidPrice = bidPrice;
+        this.bidSize = bidSize;
+        this.askPrice = askPrice;
+        this.askSize = askSize;
+        this.receivedMillis = receivedMillis;
+    }
+
+    /**
+     * @param other - top of book to compare, may be null
+     * @return true if prices or sizes differ from other
+     */
+    boolean differs(TopOfBook other) {
+        return other == null || Float.compare(this.bidPrice, other.bidPrice) != 0 || this.bidSize != other.bidSize
+                || Float.compare(this.askPrice, other.askPrice) != 0 || this.askSize != other.askSize;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return best bid price, NaN if there are no bids
+     */
+    public float getBidPrice() {
+        return bidPrice;
+    }
+
+    public long getBidSize() {
+        return bidSize;
+    }
+
+    /**
+     * @return best ask price, NaN if there are no asks
+     */
+    public float getAskPrice() {
+        return askPrice;
+    }
+
+    public long getAskSize() {
+        return askSize;
+    }
+
+    /**
+     * @return time the message that changed the top of book was received, in epoch ms
+     */
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d@%s / %d@%s", symbol, bidSize, bidPrice, askSize, askPrice);
+    }
+}
@@ -0,0 +1,288 @@
+package bitmex.ws;
+
+import bitmex.data.TradeBin;
+import utils.VolatilityEstimator;
+
+/**
+ * Fixed capacity store of the last tradeBin1m candles, kept in primitive columns. Inserting a candle overwrites the
+ * oldest one when full and does not allocate memory. Missing prices are stored as NaN.
+ * The volatility estimators of VolatilityEstimator are maintained over the candles in the table, in O(1) per insert:
+ * the per candle terms are stored with the candle and removed from the running sums when the candle is overwritten.
+ */
+public class TradeBinTable {
+    private static final double LN2 = Math.log(2d);
+    private static final double GK_FACTOR = 2d * LN2 - 1d;
+
+    private final int capacity;
+    private final long[] timestamp;
+    private final float[] open, high, low, close;
+    // per candle terms of the estimators, NaN if the candle has no valid term
+    private final double[] logReturn, parkinsonTerm, garmanKlassTerm;
+    // close of the last candle inserted, to compute the return of the next one
+    private float lastClose;
+    // rolling Welford of the log returns
+    private int returnCount;
+    private double returnMean, returnM2;
+    // running sums of the range terms
+    private int parkinsonCount, garmanKlassCount;
+    private double parkinsonSum, garmanKlassSum;
+    // index where next candle is written
+    private int head;
+    private int size;
+    // incremented on every change
+    private long version;
+    private TradeBin[] snapshot;
+    private long snapshotVersion;
+
+    /**
+     * @param capacity - maximum number of candles kept
+     */
+    public TradeBinTable(int capacity) {
+        this.capacity = capacity;
+        this.timestamp = new long[capacity];
+        this.open = new float[capacity];
+        this.high = new float[capacity];
+        this.low = new float[capacity];
+        this.close = new float[capacity];
+        this.logReturn = new double[capacity];
+        this.parkinsonTerm = new double[capacity];
+        this.garmanKlassTerm = new double[capacity];
+        resetEstimators();
+        this.head = 0;
+        this.size = 0;
+        this.version = 0L;
+        this.snapshot = new TradeBin[0];
+        this.snapshotVersion = 0L;
+    }
+
+    /**
+     * Inserts a candle, overwriting the oldest candle if table is full
+     *
+     * @param bin - candle to insert
+     */
+    public synchronized void insert(TradeBin bin) {
+        if (this.size == this.capacity)
+            removeTerms(this.head);
+        this.timestamp[this.head] = bin.getTimestamp();
+        this.open[this.head] = toFloat(bin.getOpen());
+        this.high[this.head] = toFloat(bin.getHigh());
+        this.low[this.head] = toFloat(bin.getLow());
+        this.close[this.head] = toFloat(bin.getClose());
+        addTerms(this.head);
+        this.head = (this.head + 1) % this.capacity;
+        if (this.size < this.capacity)
+            this.size++;
+        this.version++;
+    }
+
+    /**
+     * Replaces the content of the table
+     *
+     * @param bins - new candles, oldest first, only the last 'capacity' candles are kept
+     */
+    public synchronized void replace(TradeBin[] bins) {
+        this.head = 0;
+        this.size = 0;
+        resetEstimators();
+        for (TradeBin bin : bins)
+            insert(bin);
+        this.version++;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return number of changes applied to the table
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns timestamp of a candle
+     *
+     * @param i - index, 0 is the oldest candle
+     * @return timestamp in epoch ms
+     */
+    public synchronized long getTimestamp(int i) {
+        return this.timestamp[physicalIndex(checkIndex(i))];
+    }
+
+    /**
+     * Returns index of the oldest candle with timestamp at or after a given time
+     *
+     * @param fromMillis - time in epoch ms
+     * @return index of candle, size() if all candles are older
+     */
+    public synchronized int indexFrom(long fromMillis) {
+        // candles are inserted in time order, binary search over the logical indexes
+        int lo = 0, hi = this.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.timestamp[physicalIndex(mid)] < fromMillis)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns close price of a candle
+     *
+     * @param i - index, 0 is the oldest candle
+     * @return close price
+     */
+    public synchronized float getClose(int i) {
+        return this.close[physicalIndex(checkIndex(i))];
+    }
+
+    /**
+     * Copies close prices to an array, oldest first
+     *
+     * @param dst - destination array
+     * @return number of prices copied
+     */
+    public synchronized int copyCloses(float[] dst) {
+        int n = Math.min(dst.length, this.size);
+        for (int i = 0; i < n; i++)
+            dst[i] = this.close[physicalIndex(i)];
+        return n;
+    }
+
+    /**
+     * Returns volatility of the candles in the table, per candle (1m), not annualized
+     *
+     * @param estimator - estimator to use
+     * @return standard deviation of log prices per candle, NaN if there are less than 2 valid candles
+     */
+    public synchronized double getVolatility(VolatilityEstimator estimator) {
+        switch (estimator) {
+            case CLOSE_TO_CLOSE:
+                return this.returnCount < 2 ? Double.NaN : Math.sqrt(Math.max(0d, this.returnM2 / (this.returnCount - 1)));
+            case PARKINSON:
+                return this.parkinsonCount < 2 ? Double.NaN : Math.sqrt(Math.max(0d, this.parkinsonSum / (4d * LN2 * this.parkinsonCount)));
+            case GARMAN_KLASS:
+                return this.garmanKlassCount < 2 ? Double.NaN : Math.sqrt(Math.max(0d, this.garmanKlassSum / this.garmanKlassCount));
+            default:
+                return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns candles in table, oldest first
+     *
+     * @return snapshot array, shared between readers until the table changes
+     */
+    public synchronized TradeBin[] snapshot() {
+        if (this.snapshotVersion != this.version) {
+            TradeBin[] copy = new TradeBin[this.size];
+            for (int i = 0; i < this.size; i++) {
+                int j = physicalIndex(i);
+                TradeBin bin = new TradeBin();
+                bin.setTimestamp(this.timestamp[j]);
+                bin.setOpen(this.open[j]);
+                bin.setHigh(this.high[j]);
+                bin.setLow(this.low[j]);
+                bin.setClose(this.close[j]);
+                copy[i] = bin;
+            }
+            this.snapshot = copy;
+            this.snapshotVersion = this.version;
+        }
+        return this.snapshot;
+    }
+
+    private void resetEstimators() {
+        this.lastClose = Float.NaN;
+        this.returnCount = 0;
+        this.returnMean = 0d;
+        this.returnM2 = 0d;
+        this.parkinsonCount = 0;
+        this.garmanKlassCount = 0;
+        this.parkinsonSum = 0d;
+        this.garmanKlassSum = 0d;
+    }
+
+    /**
+     * Computes the terms of the candle at a physical index and adds them to the estimators
+     */
+    private void addTerms(int j) {
+        double r = Math.log((double) this.close[j] / this.lastClose);
+        this.lastClose = this.close[j];
+        this.logReturn[j] = r;
+        if (isValid(r)) {
+            this.returnCount++;
+            double delta = r - this.returnMean;
+            this.returnMean += delta / this.returnCount;
+            this.returnM2 += delta * (r - this.returnMean);
+        }
+
+        double hl = Math.log((double) this.high[j] / this.low[j]);
+        double co = Math.log((double) this.close[j] / this.open[j]);
+        this.parkinsonTerm[j] = hl * hl;
+        this.garmanKlassTerm[j] = 0.5d * hl * hl - GK_FACTOR * co * co;
+        if (isValid(this.parkinsonTerm[j])) {
+            this.parkinsonCount++;
+            this.parkinsonSum += this.parkinsonTerm[j];
+        }
+        if (isValid(this.garmanKlassTerm[j])) {
+            this.garmanKlassCount++;
+            this.garmanKlassSum += this.garmanKlassTerm[j];
+        }
+    }
+
+    /**
+     * Removes the terms of the candle at a physical index from the estimators, before it is overwritten
+     */
+    private void removeTerms(int j) {
+        double r = this.logReturn[j];
+        if (isValid(r)) {
+            if (this.returnCount == 1) {
+                this.returnCount = 0;
+                this.returnMean = 0d;
+                this.returnM2 = 0d;
+            } else {
+                double delta = r - this.returnMean;
+                this.returnMean -= delta / (this.returnCount - 1);
+                this.returnM2 -= delta * (r - this.returnMean);
+                this.returnCount--;
+            }
+        }
+        if (isValid(this.parkinsonTerm[j])) {
+            this.parkinsonCount--;
+            this.parkinsonSum -= this.parkinsonTerm[j];
+        }
+        if (isValid(this.garmanKlassTerm[j])) {
+            this.garmanKlassCount--;
+            this.garmanKlassSum -= this.garmanKlassTerm[j];
+        }
+    }
+
+    private static boolean isValid(double term) {
+        return !Double.isNaN(term) && !Double.isInfinite(term);
+    }
+
+    private int checkIndex(int i) {
+        if (i < 0 || i >= this.size)
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", i, this.size));
+        return i;
+    }
+
+    private int physicalIndex(int i) {
+        int first = this.head - this.size;
+        if (first < 0)
+            first += this.capacity;
+        return (first + i) % this.capacity;
+    }
+
+    private static float toFloat(Float value) {
+        return value != null ? value : Float.NaN;
+    }
+}
@@ -1,6 +1,9 @@
 package bitmex.ws;
 
 import bitmex.data.*;
+import utils.EventPublisher;
+import utils.LatencyHistogram;
+import utils.VolatilityEstimator;
 
 import javax.websocket.ClientEndpoint;
 
@@ -23,11 +26,22 @@ public interface Ws {
     int TRADE_BIN_MAX_LEN = 100;
     int EXEC_MAX_LEN = 100;
     int ORDER_MAX_LEN = 100;
+    int TABLE_QUEUE_CAPACITY = 1024;
+    int ORDER_BOOK_TICKS = 65536;
+    int ORDER_BOOK_BUFFER_CAPACITY = 1024;
 
     //Server configuration
-    int RETRY_PERIOD = 5000;
-    int MAX_LATENCY = 15000;
+    int RECONNECT_MIN_DELAY = 500; // reconnect delay after the first failed attempt, doubled after each failed attempt
+    int RECONNECT_MAX_DELAY = 30000;
+    int MAX_LATENCY = 15000; // reconnects if the tail percentile of the instrument latency is above it
+    int MAX_LATENCY_P50 = 5000; // reconnects if the median of the instrument latency is above it
+    int LATENCY_WINDOW = 30000; // latency percentiles cover the last one to two windows
+    int LATENCY_TAIL_PERCENTILE = 99;
+    int LATENCY_MIN_SAMPLES = 100; // minimum number of samples in the window to reconnect due to latency
+    int LATENCY_CHECK_INTERVAL = 1000;
     int FORCE_RECONNECT_INTERVAL = 60000;
+    int PING_INTERVAL = 5000; // ping is sent after this time without messages
+    int PING_TIMEOUT = 5000; // connection is closed if there is no reply to ping after this time
 
     /**
      * Returns true if websocket connection is open, false otherwise
@@ -41,6 +55,55 @@ public interface Ws {
      */
     boolean closeSession();
 
+    /**
+     * Returns number of changes applied to a table, to cache values derived from it until it changes
+     * @param table - table name (instrument, position, order, execution or tradeBin1m)
+     * @return version of table, -1 for other tables
+     */
+    long getVersion(String table);
+
+    /**
+     * Returns number of messages waiting to be applied for a table
+     * @param table - table name
+     * @return queue depth, -1 if table messages are not dispatched trough a queue
+     */
+    int getQueueDepth(String table);
+
+    /**
+     * Returns highest number of messages that were waiting to be applied for a table
+     * @param table - table name
+     * @return maximum queue depth, -1 if table messages are not dispatched trough a queue
+     */
+    int getMaxQueueDepth(String table);
+
+    /**
+     * Returns number of messages of a table discarded due to a full queue
+     * @param table - table name
+     * @return number of discarded messages, -1 if table messages are not dispatched trough a queue
+     */
+    long getDroppedMessages(String table);
+
+    /**
+     * Returns average time between a message being queued and an idle worker picking it up
+     * @param table - table name
+     * @return average wakeup latency in ns, -1 if not measured for this table
+     */
+    long getWakeupLatency(String table);
+
+    /**
+     * Returns histogram of the time between the exchange timestamp of the messages of a table and their reception
+     * @param table - table name
+     * @return histogram in ms, shared by the tables of all symbols of the connection
+     */
+    LatencyHistogram getExchangeLatency(String table);
+
+    /**
+     * Returns histogram of the time between the reception of the messages of a table and the moment they are applied
+     * @param table - table name
+     * @return histogram in us, shared by the tables of all symbols of the connection
+     */
+    LatencyHistogram getApplyLatency(String table);
+
     /**
      * Returns instrument data
      * @return Instrument data
@@ -48,16 +111,24 @@ public interface Ws {
     Instrument get_instrument();
 
     /**
-     * Returns tradeBin1m data
+     * Returns tradeBin1m data, oldest first. The array is shared between callers until a new candle is received, and
+     * must not be modified
      * @return TradeBin data
      */
     TradeBin[] get_trabeBin1m();
 
     /**
-     * Return orderBookL2 data
-     * @return OrderBookL2 data
+     * Returns volatility of the tradeBin1m candles in memory, maintained on every insert (no computation on call)
+     * @param estimator - estimator to use
+     * @return standard deviation of log prices per 1m candle, NaN if there are less than 2 candles
+     */
+    double get_volatility(VolatilityEstimator estimator);
+
+    /**
+     * Return order book built from orderBookL2 data
+     * @return OrderBook, null if no orderBookL2 partial was received yet
      */
-    OrderBookL2[] get_orderBookL2();
+    OrderBook get_orderBook();
 
     /**
      * Returns size of orderbook level with price == 'price'
@@ -73,7 +144,8 @@ public interface Ws {
     UserMargin get_margin();
 
     /**
-     * Returns execution data
+     * Returns execution data, oldest first. The array is shared between callers until a new execution is received, and
+     * must not be modified
      * @return Execution[] data
      */
     Execution[] get_execution();
@@ -85,7 +157,15 @@ public interface Ws {
     Position get_position();
 
     /**
-     * Returns open orders
+     * Returns order with a given orderID
+     *
+     * @param orderID - orderID
+     * @return Order data, null if order is not in memory
+     */
+    Order get_order(String orderID);
+
+    /**
+     * Returns open orders, the array is shared between callers until an order changes, and must not be modified
      *
      * @param orderIDPrefix - orderID prefix
      * @return Order[] data
@@ -93,10 +173,72 @@ public interface Ws {
     Order[] get_openOrders(String orderIDPrefix);
 
     /**
-     * Returns filled orders
+     * Returns open orders of one side, the array is shared between callers until an order changes, and must not be
+     * modified
+     *
+     * @param orderIDPrefix - orderID prefix
+     * @param side          - 'Buy' or 'Sell'
+     * @return Order[] data
+     */
+    Order[] get_openOrders(String orderIDPrefix, String side);
+
+    /**
+     * Returns filled orders, the array is shared between callers until an order changes, and must not be modified
      *
      * @param orderIDPrefix - orderID prefix
      * @return Order[] data
      */
     Order[] get_filledOrders(String orderIDPrefix);
+
+    /**
+     * Returns filled orders of one side, the array is shared between callers until an order changes, and must not be
+     * modified
+     *
+     * @param orderIDPrefix - orderID prefix
+     * @param side          - 'Buy' or 'Sell'
+     * @return Order[] data
+     */
+    Order[] get_filledOrders(String orderIDPrefix, String side);
+
+    /**
+     * Publisher of the instrument, the live instrument object is published after every instrument message
+     * @return publisher, subscribe with EventPublisher.Mode.CONFLATE to receive only the latest state
+     */
+    EventPublisher<Instrument> get_instrument_events();
+
+    /**
+     * Publisher of the best bid and ask, published when any of them changes
+     * @return publisher
+     */
+    EventPublisher<TopOfBook> get_topBook_events();
+
+    /**
+     * Publisher of executions, each execution received is published
+     * @return publisher
+     */
+    EventPublisher<Execution> get_execution_events();
+
+    /**
+     * Publisher of orders, the order in memory is published after each change
+     * @return publisher
+     */
+    EventPublisher<Order> get_order_events();
+
+    /**
+     * Publisher of the position, the live position object is published after every position message
+     * @return publisher
+     */
+    EventPublisher<Position> get_position_events();
+
+    /**
+     * Publisher of tradeBin1m candles, each candle inserted is published
+     * @return publisher
+     */
+    EventPublisher<TradeBin> get_tradeBin_events();
+
+    /**
+     * Publisher of margin, the live margin object is published after every margin message
+     * @return publisher, shared by the symbols of the connection
+     */
+    EventPublisher<UserMargin> get_margin_events();
 }
@@ -0,0 +1,419 @@
+package bitmex.ws;
+
+import bitmex.data.*;
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import utils.Auth;
+import utils.EventPublisher;
+import utils.HmacSigner;
+import utils.LatencyMonitor;
+import utils.OrderedDispatcher;
+import utils.ReconnectManager;
+import utils.TimerWheel;
+
+import javax.websocket.*;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Authenticated BitMex web socket connection shared by the clients (WsImp) of many symbols. Owns the session, the
+ * heartbeat and the reconnection, subscribes to the topics of every registered symbol and routes table rows to the
+ * client of their symbol. Account level tables (margin) are subscribed once and shared by all clients.
+ */
+@ClientEndpoint
+public class WsConnection {
+    private static final Logger logger = LogManager.getLogger(WsConnection.class.getName());
+    private static final String ROUTING_KEY = "bitmex-ws";
+
+    private final WebSocketContainer container;
+    private final WsFrameDecoder decoder;
+    private volatile Session userSession;
+    private final String url;
+    private final String apiKey;
+    private final HmacSigner signer;
+    // reconnects with backoff when the session drops
+    private final ReconnectManager reconnect;
+
+    // symbol -> client of symbol
+    private final Map<String, WsImp> clients;
+    // held while clients are added and while a new session subscribes the topics of every client
+    private final Object subscriptionLock = new Object();
+    // table -> symbol of a row of the table
+    private final Map<String, Function<Object, String>> rowSymbol;
+    // ordered worker for account level tables
+    private final OrderedDispatcher<WsFrame> dispatcher;
+    private volatile UserMargin margin;
+    private final EventPublisher<UserMargin> marginEvents;
+    // timeout that sends a ping / closes the connection when no message is received for a while
+    private TimerWheel.Timeout heartbeat;
+    // true if a ping was sent and no message was received since
+    private volatile boolean pingSent;
+    // latency histograms per table
+    private final LatencyMonitor latency;
+    // minimum timestamp to reconnect again due to latency
+    private long minReconnectTimeStamp;
+
+    /**
+     * BitMex web socket connection, clients of each symbol are added with WsImp
+     *
+     * @param testnet   - true if we want to connect to testnet, false otherwise
+     * @param apiKey    - apiKey
+     * @param apiSecret - apiSecret
+     */
+    public WsConnection(boolean testnet, String apiKey, String apiSecret) {
+        this(testnet, apiKey, apiSecret, Ws.TABLE_QUEUE_CAPACITY, OrderedDispatcher.OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * BitMex web socket connection, clients of each symbol are added with WsImp
+     *
+     * @param testnet        - true if we want to connect to testnet, false otherwise
+     * @param apiKey         - apiKey
+     * @param apiSecret      - apiSecret
+     * @param queueCapacity  - maximum number of messages waiting to be applied per account level table
+     * @param overflowPolicy - what to do with new messages when the queue of a snapshot-style table is full, delta
+     *                       tables (margin) always block
+     */
+    public WsConnection(boolean testnet, String apiKey, String apiSecret, int queueCapacity,
+                        OrderedDispatcher.OverflowPolicy overflowPolicy) {
+        this.container = ContainerProvider.getWebSocketContainer();
+        this.decoder = new WsFrameDecoder(new Gson());
+        this.url = testnet ? Ws.WS_TESTNET : Ws.WS_MAINNET;
+        this.apiKey = apiKey;
+        this.signer = new HmacSigner(apiSecret);
+        this.userSession = null;
+        this.heartbeat = null;
+        this.pingSent = false;
+        this.minReconnectTimeStamp = 0L;
+        this.clients = new ConcurrentHashMap<>();
+        this.margin = new UserMargin();
+        this.marginEvents = new EventPublisher<>(Ws.MARGIN);
+        this.dispatcher = new OrderedDispatcher<>("ws-account", ROUTING_KEY, queueCapacity, overflowPolicy);
+        this.dispatcher.register(Ws.MARGIN, this::update_margin, OrderedDispatcher.OverflowPolicy.BLOCK);
+        this.latency = new LatencyMonitor(Ws.LATENCY_WINDOW);
+        this.reconnect = new ReconnectManager(ROUTING_KEY, () -> this.container.connectToServer(this, URI.create(this.url)),
+                Ws.RECONNECT_MIN_DELAY, Ws.RECONNECT_MAX_DELAY);
+
+        this.rowSymbol = new HashMap<>();
+        this.rowSymbol.put(Ws.INSTRUMENT, row -> ((Instrument) row).getSymbol());
+        this.rowSymbol.put(Ws.ORDER_BOOK_L2, row -> ((OrderBookL2) row).getSymbol());
+        this.rowSymbol.put(Ws.POSITION, row -> ((Position) row).getSymbol());
+        this.rowSymbol.put(Ws.TRADE_BIN, row -> ((TradeBin) row).getSymbol());
+        this.rowSymbol.put(Ws.EXECUTION, row -> ((Execution) row).getSymbol());
+        this.rowSymbol.put(Ws.ORDER, row -> ((Order) row).getSymbol());
+
+        this.connect();
+        TimerWheel.shared().schedulePeriodic(this::check_latency, Ws.LATENCY_CHECK_INTERVAL);
+    }
+
+    /**
+     * Registers the client of a symbol and subscribes to its topics. If the session is not open yet, its topics are
+     * subscribed by onOpen.
+     *
+     * @param client - client of symbol
+     */
+    void register(WsImp client) {
+        synchronized (this.subscriptionLock) {
+            this.clients.put(client.getSymbol(), client);
+            if (!isSessionOpen())
+                return;
+            client.on_connect();
+            sendMessage(String.format("{\"op\": \"subscribe\", \"args\": [%s]}", client.getSubscriptions()));
+        }
+    }
+
+    /**
+     * Connects to BitMex web socket server, blocking until the connection is open
+     */
+    void connect() {
+        try {
+            this.reconnect.connect();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Callback hook for Connection open events.
+     *
+     * @param userSession the userSession which is opened.
+     */
+    @OnOpen
+    public void onOpen(Session userSession) {
+        ThreadContext.put("ROUTINGKEY", ROUTING_KEY);
+        logger.info(String.format("Connected to: %s", this.url));
+        this.pingSent = false;
+        if (this.heartbeat == null)
+            this.heartbeat = TimerWheel.shared().schedule(this::on_heartbeat_timeout, Ws.PING_INTERVAL);
+        else
+            this.heartbeat.reschedule(Ws.PING_INTERVAL);
+
+        // clients registered from now on subscribe by themselves, the ones registered before are subscribed here
+        synchronized (this.subscriptionLock) {
+            this.userSession = userSession;
+            long expires = Auth.generate_expires();
+            String signature = signer.sign(signer.payload().append("GET/realtime").append(expires));
+            sendMessage(String.format("{\"op\": \"authKeyExpires\", \"args\": [\"%s\", %d, \"%s\"]}", apiKey, expires, signature));
+            // account level tables and the topics of every symbol, on a single subscription
+            StringBuilder subscriptions = new StringBuilder("\"margin:*\"");
+            for (WsImp client : this.clients.values()) {
+                // rest snapshots are loaded while the server confirms the subscriptions
+                client.on_connect();
+                subscriptions.append(',').append(client.getSubscriptions());
+            }
+            sendMessage(String.format("{\"op\": \"subscribe\", \"args\": [%s]}", subscriptions));
+        }
+    }
+
+    /**
+     * Callback hook for Connection close events.
+     *
+     * @param reason the reason for connection close
+     */
+    @OnClose
+    public void onClose(CloseReason reason) {
+        ThreadContext.put("ROUTINGKEY", ROUTING_KEY);
+        if (this.heartbeat != null)
+            this.heartbeat.cancel();
+        logger.info(String.format("Websocket closed with code: %d", reason.getCloseCode().getCode()));
+        this.userSession = null;
+        this.reconnect.reconnect();
+    }
+
+    /**
+     * Callback hook for Error Events. This method will be invoked when a client receives a error.
+     *
+     * @param throwable - Error thrown
+     */
+    @OnError
+    public void onError(Throwable throwable) {
+        ThreadContext.put("ROUTINGKEY", ROUTING_KEY);
+        logger.error("Websocket error: ", throwable);
+        this.closeSession();
+    }
+
+    /**
+     * Closes current user session if one is open
+     *
+     * @return true if session closed with success, false otherwise
+     */
+    public boolean closeSession() {
+        Session session = this.userSession;
+        if (session != null) {
+            try {
+                session.close();
+                return true;
+            } catch (IOException e) {
+                ThreadContext.put("ROUTINGKEY", ROUTING_KEY);
+                logger.error("Could not close user session.");
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if websocket connection is open, false otherwise
+     */
+    public boolean isSessionOpen() {
+        return this.userSession != null;
+    }
+
+    /**
+     * Callback hook for Message Events. This method will be invoked when a client send a message.
+     *
+     * @param message The text message
+     */
+    @OnMessage
+    public void onMessage(String message) throws InterruptedException, IOException {
+        long receivedMillis = System.currentTimeMillis(), receivedNanos = System.nanoTime();
+        ThreadContext.put("ROUTINGKEY", ROUTING_KEY);
+        if (!isSessionOpen())
+            return;
+        // any message received resets the heartbeat
+        this.pingSent = false;
+        this.heartbeat.reschedule(Ws.PING_INTERVAL);
+
+        //if it was an heartbeat message
+        if (message.equalsIgnoreCase("pong"))
+            return;
+
+        WsFrame frame = this.decoder.decode(message, receivedMillis, receivedNanos);
+        if (frame.isSubscribe()) {
+            String subscription = frame.getSubscribe();
+            logger.debug("Subscribed successfully to " + subscription);
+            // subscription is 'table:symbol'
+            int separator = subscription.indexOf(':');
+            WsImp client = separator > 0 ? this.clients.get(subscription.substring(separator + 1)) : null;
+            if (client != null)
+                client.on_subscribed(subscription.substring(0, separator));
+        } else if (frame.isStatus()) {
+            logger.error(frame.getError());
+            // Rate limited, server closes the connection and the next attempt waits
+            if (frame.getStatus() == 429 && frame.getRetryAfter() > 0) {
+                long waitTime = frame.getRetryAfter();
+                logger.warn(String.format("Rate-limited, retrying on %d seconds.", waitTime));
+                this.reconnect.holdOff(waitTime * 1000);
+            }
+        } else if (frame.isTable() && frame.getAction() != null && frame.getData() != null) {
+            if (frame.getTable().equals(Ws.MARGIN))
+                this.dispatcher.dispatch(Ws.MARGIN, frame);
+            else
+                route(frame);
+        }
+    }
+
+    /**
+     * Hands the rows of a table message to the clients of their symbols, splitting the message if it carries rows of
+     * more than one symbol
+     *
+     * @param frame - table message
+     */
+    private void route(WsFrame frame) throws InterruptedException {
+        Function<Object, String> symbolOf = this.rowSymbol.get(frame.getTable());
+        if (symbolOf == null)
+            return;
+        Object[] rows = frame.getData();
+        if (rows.length == 0) {
+            // empty partials carry the symbol on the subscription filter
+            WsImp client = frame.getFilterSymbol() != null ? this.clients.get(frame.getFilterSymbol()) : null;
+            if (client != null)
+                client.on_frame(frame);
+            return;
+        }
+
+        String first = symbolOf.apply(rows[0]);
+        boolean single = true;
+        for (int i = 1; i < rows.length && single; i++)
+            single = Objects.equals(first, symbolOf.apply(rows[i]));
+        if (single) {
+            WsImp client = first != null ? this.clients.get(first) : null;
+            if (client != null)
+                client.on_frame(frame);
+            return;
+        }
+
+        Map<String, List<Object>> bySymbol = new LinkedHashMap<>();
+        for (Object row : rows)
+            bySymbol.computeIfAbsent(symbolOf.apply(row), k -> new ArrayList<>()).add(row);
+        for (Map.Entry<String, List<Object>> entry : bySymbol.entrySet()) {
+            WsImp client = entry.getKey() != null ? this.clients.get(entry.getKey()) : null;
+            if (client == null)
+                continue;
+            Object[] symbolRows = (Object[]) Array.newInstance(rows.getClass().getComponentType(), entry.getValue().size());
+            client.on_frame(frame.withData(entry.getValue().toArray(symbolRows)));
+        }
+    }
+
+    /**
+     * Called when no message was received for a while, sends a ping on the first timeout and closes the session if
+     * there is no reply to it
+     */
+    private void on_heartbeat_timeout() {
+        if (!isSessionOpen())
+            return;
+        if (!this.pingSent) {
+            this.pingSent = true;
+            this.sendMessage("ping");
+            this.heartbeat.reschedule(Ws.PING_TIMEOUT);
+        } else {
+            ThreadContext.put("ROUTINGKEY", ROUTING_KEY);
+            logger.warn("No reply to ping, closing websocket session.");
+            this.closeSession();
+        }
+    }
+
+    /**
+     * Called periodically by the timer, reconnects if the rolling percentiles of the instrument latency are too high.
+     * A single late update does not trigger a reconnect.
+     */
+    private void check_latency() {
+        long now = System.currentTimeMillis();
+        if (!isSessionOpen() || now <= this.minReconnectTimeStamp)
+            return;
+        if (this.latency.isDegraded(Ws.INSTRUMENT, Ws.MAX_LATENCY_P50, Ws.LATENCY_TAIL_PERCENTILE, Ws.MAX_LATENCY, Ws.LATENCY_MIN_SAMPLES)) {
+            this.minReconnectTimeStamp = now + Ws.FORCE_RECONNECT_INTERVAL;
+            ThreadContext.put("ROUTINGKEY", ROUTING_KEY);
+            logger.warn(String.format("Reconnecting to websocket due to high latency: %s Next reconnect: %d",
+                    this.latency.getExchangeLatency(Ws.INSTRUMENT), this.minReconnectTimeStamp));
+            // samples of the old session must not trigger another reconnect
+            this.latency.getExchangeLatency(Ws.INSTRUMENT).reset();
+            this.closeSession();
+        }
+    }
+
+    /**
+     * @return latency histograms of this connection
+     */
+    LatencyMonitor getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * Updates data in memory after receiving an ws message with table = 'margin'
+     *
+     * @param frame - message received from ws
+     */
+    private void update_margin(WsFrame frame) {
+        String action = frame.getAction();
+        UserMargin[] dataRec = frame.getData();
+
+        if (dataRec.length > 0 && (action.equals("update") || action.equals("partial"))) {
+            this.margin.update(dataRec[0]);
+            this.marginEvents.publish(this.margin);
+        }
+        this.latency.recordApply(Ws.MARGIN, frame.getReceivedNanos());
+    }
+
+    /**
+     * @return publisher of the margin of the account
+     */
+    public EventPublisher<UserMargin> get_margin_events() {
+        return this.marginEvents;
+    }
+
+    /**
+     * @return margin data of the account
+     */
+    public UserMargin get_margin() {
+        return this.margin;
+    }
+
+    /**
+     * @see Ws#getQueueDepth(String)
+     */
+    int getQueueDepth(String table) {
+        return this.dispatcher.getQueueDepth(table);
+    }
+
+    /**
+     * @see Ws#getMaxQueueDepth(String)
+     */
+    int getMaxQueueDepth(String table) {
+        return this.dispatcher.getMaxQueueDepth(table);
+    }
+
+    /**
+     * @see Ws#getDroppedMessages(String)
+     */
+    long getDroppedMessages(String table) {
+        return this.dispatcher.getDroppedMessages(table);
+    }
+
+    /**
+     * Send a message.
+     *
+     * @param message - message to be sent
+     */
+    protected void sendMessage(String message) {
+        Session session = this.userSession;
+        if (session != null)
+            session.getAsyncRemote().sendText(message);
+    }
+}
@@ -0,0 +1,145 @@
+package bitmex.ws;
+
+/**
+ * BitMex web socket message, decoded in a single pass by WsFrameDecoder. Table messages carry the rows already decoded
+ * into the data class of the table, other messages (subscription replies, errors, welcome message) only fill the fields
+ * they use.
+ */
+public final class WsFrame {
+    // action of the frames queued by a client to apply a rest snapshot in order with the messages of its table
+    static final String BOOTSTRAP = "bootstrap";
+
+    private final String table;
+    private final String action;
+    private final String filterSymbol;
+    private final Object[] data;
+    private final String subscribe;
+    private final int status;
+    private final String error;
+    private final long retryAfter;
+    private final long receivedMillis;
+    private final long receivedNanos;
+
+    WsFrame(String table, String action, String filterSymbol, Object[] data, String subscribe, int status, String error,
+            long retryAfter, long receivedMillis, long receivedNanos) {
+        this.table = table;
+        this.action = action;
+        this.filterSymbol = filterSymbol;
+        this.data = data;
+        this.subscribe = subscribe;
+        this.status = status;
+        this.error = error;
+        this.retryAfter = retryAfter;
+        this.receivedMillis = receivedMillis;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * @return true if this is a table message ('partial', 'insert', 'update' or 'delete')
+     */
+    public boolean isTable() {
+        return this.table != null;
+    }
+
+    /**
+     * @return true if this frame was queued by a client to apply the rest snapshot of its table
+     */
+    public boolean isBootstrap() {
+        return BOOTSTRAP.equals(this.action);
+    }
+
+    /**
+     * Creates the frame that applies the rest snapshot of a table, queued before the partial of the table
+     *
+     * @param table - table of snapshot
+     * @return bootstrap frame
+     */
+    static WsFrame bootstrap(String table) {
+        return new WsFrame(table, BOOTSTRAP, null, null, null, 0, null, -1L, System.currentTimeMillis(),
+                System.nanoTime());
+    }
+
+    /**
+     * @return true if this is the reply to a subscription
+     */
+    public boolean isSubscribe() {
+        return this.subscribe != null;
+    }
+
+    /**
+     * @return true if this is an error message
+     */
+    public boolean isStatus() {
+        return this.status != 0;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * @return symbol of the subscription filter sent with 'partial' messages, null if not present
+     */
+    public String getFilterSymbol() {
+        return filterSymbol;
+    }
+
+    /**
+     * Returns rows of a table message, the array type is the data class of the table (eg: Instrument[] for 'instrument')
+     *
+     * @param <T> - array type
+     * @return rows received
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getData() {
+        return (T) data;
+    }
+
+    /**
+     * Returns a copy of this table message carrying only some of its rows
+     *
+     * @param rows - rows of the new message, with the same array type as the rows of this message
+     * @return table message
+     */
+    WsFrame withData(Object[] rows) {
+        return new WsFrame(this.table, this.action, this.filterSymbol, rows, null, 0, null, -1L, this.receivedMillis,
+                this.receivedNanos);
+    }
+
+    /**
+     * @return time this message was received, in epoch ms
+     */
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+
+    /**
+     * @return time this message was received, from System.nanoTime()
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    public String getSubscribe() {
+        return subscribe;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return seconds to wait before sending new requests when rate-limited, -1 if not present
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
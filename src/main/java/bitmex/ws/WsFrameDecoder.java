@@ -0,0 +1,136 @@
+package bitmex.ws;
+
+import bitmex.data.*;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming decoder of BitMex web socket messages. Reads 'table' and 'action' and decodes 'data' straight into the data
+ * class of the table, without building an intermediate JsonObject tree. Fields the client does not use ('keys', 'types',
+ * 'filter', ...) are skipped.
+ */
+class WsFrameDecoder {
+    // table name -> adapter of the data array of the table
+    private final Map<String, TypeAdapter<? extends Object[]>> adapters;
+    private final TypeAdapter<JsonElement> elementAdapter;
+
+    /**
+     * @param g - gson instance, holds the adapters of the data classes
+     */
+    WsFrameDecoder(Gson g) {
+        this.adapters = new HashMap<>();
+        this.elementAdapter = g.getAdapter(JsonElement.class);
+        this.adapters.put(Ws.INSTRUMENT, g.getAdapter(Instrument[].class));
+        this.adapters.put(Ws.ORDER_BOOK_L2, g.getAdapter(OrderBookL2[].class));
+        this.adapters.put(Ws.MARGIN, g.getAdapter(UserMargin[].class));
+        this.adapters.put(Ws.POSITION, g.getAdapter(Position[].class));
+        this.adapters.put(Ws.TRADE_BIN, g.getAdapter(TradeBin[].class));
+        this.adapters.put(Ws.EXECUTION, g.getAdapter(Execution[].class));
+        this.adapters.put(Ws.ORDER, g.getAdapter(Order[].class));
+    }
+
+    /**
+     * Decodes a text message received from the web socket
+     *
+     * @param message        - message received
+     * @param receivedMillis - time message was received, in epoch ms
+     * @param receivedNanos  - time message was received, from System.nanoTime()
+     * @return decoded frame
+     * @throws IOException if message is not valid json
+     */
+    WsFrame decode(String message, long receivedMillis, long receivedNanos) throws IOException {
+        String table = null, action = null, filterSymbol = null, subscribe = null, error = null;
+        Object[] data = null;
+        // data is kept as a tree only if it arrives before the table name
+        JsonElement pendingData = null;
+        int status = 0;
+        long retryAfter = -1L;
+
+        JsonReader reader = new JsonReader(new StringReader(message));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "table":
+                    table = reader.nextString();
+                    break;
+                case "action":
+                    action = reader.nextString();
+                    break;
+                case "data":
+                    TypeAdapter<? extends Object[]> adapter = table != null ? this.adapters.get(table) : null;
+                    if (adapter != null)
+                        data = adapter.read(reader);
+                    else if (table == null)
+                        pendingData = this.elementAdapter.read(reader);
+                    else
+                        reader.skipValue();
+                    break;
+                case "filter":
+                    filterSymbol = readField(reader, "symbol");
+                    break;
+                case "subscribe":
+                    subscribe = reader.nextString();
+                    break;
+                case "status":
+                    status = reader.nextInt();
+                    break;
+                case "error":
+                    error = reader.nextString();
+                    break;
+                case "meta":
+                    retryAfter = readRetryAfter(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (pendingData != null && table != null && this.adapters.containsKey(table))
+            data = this.adapters.get(table).fromJsonTree(pendingData);
+        return new WsFrame(table, action, filterSymbol, data, subscribe, status, error, retryAfter, receivedMillis,
+                receivedNanos);
+    }
+
+    private static String readField(JsonReader reader, String name) throws IOException {
+        String value = null;
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(name) && reader.peek() == JsonToken.STRING)
+                value = reader.nextString();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        return value;
+    }
+
+    private static long readRetryAfter(JsonReader reader) throws IOException {
+        long retryAfter = -1L;
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return retryAfter;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("retryAfter") && reader.peek() == JsonToken.NUMBER)
+                retryAfter = reader.nextLong();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        return retryAfter;
+    }
+}
@@ -2,103 +2,106 @@ package bitmex.ws;
 
 import bitmex.data.*;
 import bitmex.rest.RestImp;
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
-import utils.Auth;
-import utils.BinarySearch;
-import utils.TimeStamp;
+import utils.EventPublisher;
+import utils.LatencyHistogram;
+import utils.OrderedDispatcher;
+import utils.RingStore;
+import utils.SpscRingBuffer;
+import utils.VolatilityEstimator;
+import utils.WaitStrategy;
 
-import javax.websocket.*;
-import java.io.IOException;
-import java.net.URI;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-
-/**
- * Heartbeat thread that sends ping messages to the websocket server
- */
-class HeartbeatThread extends Thread {
-    private final WsImp ws;
-
-    public HeartbeatThread(WsImp ws) {
-        this.ws = ws;
-        this.start();
-    }
-
-    @Override
-    public void run() {
-        long startTime = System.currentTimeMillis();
-        boolean sentPing = false;
-        while (!Thread.interrupted()) {
-            if (System.currentTimeMillis() - startTime > 5000 && !sentPing) {
-                sentPing = true;
-                this.ws.sendMessage("ping");
-            } else if (System.currentTimeMillis() - startTime > 10000) {
-                this.ws.closeSession();
-                this.interrupt();
-            }
-        }
-    }
-}
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 /**
  * Thread that deals with web socket messages with table = "order"
  */
 class OrderAsyncThread extends Thread {
     private final WsImp ws;
-    private final Deque<JsonObject> queue;
+    private final SpscRingBuffer<WsFrame> queue;
 
-    public OrderAsyncThread(WsImp ws) {
+    public OrderAsyncThread(WsImp ws, int capacity, WaitStrategy waitStrategy) {
         this.ws = ws;
-        this.queue = new ConcurrentLinkedDeque<>();
+        this.queue = new SpscRingBuffer<>(capacity, waitStrategy);
+        this.setDaemon(true);
         this.start();
     }
 
-    public void add(JsonObject obj) {
-        this.queue.addLast(obj); // blocks until there is free space in the optionally bounded queue
+    public void add(WsFrame frame) throws InterruptedException {
+        this.queue.put(frame); // waits until there is free space in the ring buffer
+    }
+
+    public SpscRingBuffer<WsFrame> getQueue() {
+        return this.queue;
     }
 
     @Override
     public void run() {
         while (!Thread.interrupted()) {
-            JsonObject element;
-            while ((element = queue.poll()) != null) { // does not block on empty list but returns null instead
-                this.ws.update_order(element);
+            try {
+                this.ws.update_order(this.queue.take()); // idles with the wait strategy while there are no messages
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                ThreadContext.put("ROUTINGKEY", this.ws.getSymbol());
+                LogManager.getLogger(OrderAsyncThread.class.getName()).error("Error applying order message: ", e);
             }
         }
     }
 }
 
-@ClientEndpoint
+/**
+ * BitMex web socket client of one symbol. Messages are received by a WsConnection, that can be shared by the clients of
+ * many symbols, and applied here by one ordered worker per table.
+ */
 public class WsImp implements Ws {
 
     private static final Logger logger = LogManager.getLogger(WsImp.class.getName());
-    private final WebSocketContainer container;
+    private final WsConnection connection;
     private final RestImp rest;
-    private final Gson g;
-    private Session userSession;
-    private final String url;
-    private final String apiKey;
-    private final String apiSecret;
     private final String subscriptions;
     private final String symbol;
     private final int tradeBinListSize;
+    // true if top of book is taken from the order book, false if from the instrument
+    private final boolean orderBookL2;
 
     // order messages from web socket need to be ordered and processed synchronously
     private final OrderAsyncThread orderQueue;
-    // data structure to store ws data
-    private final Map<String, Object> data;
-    // thread that deals with ws heartbeats
-    private HeartbeatThread heartbeatThread;
-    // minimum timestamp to check latency on instrument update
-    private long minReconnectTimeStamp;
-    // check latency sync lock
-    private final Object latencyLock = "Latency checking lock";
+    // one ordered worker per table for the remaining tables
+    private final OrderedDispatcher<WsFrame> dispatcher;
+    // data stored per table
+    private volatile Instrument instrument;
+    private volatile Position position;
+    private final RingStore<Execution> executions;
+    private final TradeBinTable tradeBins;
+    private final OrderTable orders;
+    // publishers of the changes of each table
+    private final EventPublisher<Instrument> instrumentEvents;
+    private final EventPublisher<TopOfBook> topBookEvents;
+    private final EventPublisher<Execution> executionEvents;
+    private final EventPublisher<Order> orderEvents;
+    private final EventPublisher<Position> positionEvents;
+    private final EventPublisher<TradeBin> tradeBinEvents;
+    // number of messages applied to the instrument and position tables
+    private volatile long instrumentVersion;
+    private volatile long positionVersion;
+    // last top of book published, written only by the worker of its source table
+    private TopOfBook topBook;
+    // order book of this symbol, created from the first orderBookL2 partial once the tick size is known
+    private volatile OrderBook orderBook;
+    // orderBookL2 messages received before the instrument partial gives the tick size, written only by its worker
+    private final ArrayDeque<WsFrame> pendingOrderBook;
+    // rest snapshots of the order and tradeBin1m tables, loaded while the subscriptions are confirmed
+    private volatile CompletableFuture<Order[]> ordersBootstrap;
+    private volatile CompletableFuture<TradeBin[]> tradeBinsBootstrap;
+    // true after the first instrument partial was received
+    private boolean instrumentReady;
     // wait / notification mechanism to wait for updates before allowing methods to be executed
     private final Object wsDataUpdate = "Web socket data update";
 
@@ -113,471 +116,590 @@ public class WsImp implements Ws {
      * @param tradeBinListSize - size of the list to store tradeBin data from websocket, -1 to use default values
      */
     public WsImp(RestImp rest, boolean testnet, String apiKey, String apiSecret, String symbol, int tradeBinListSize) throws InterruptedException {
-        this.container = ContainerProvider.getWebSocketContainer();
-        this.g = new Gson();
+        this(rest, testnet, apiKey, apiSecret, symbol, tradeBinListSize, false, TABLE_QUEUE_CAPACITY, OrderedDispatcher.OverflowPolicy.BLOCK,
+                WaitStrategy.PARK_BACKOFF);
+    }
+
+    /**
+     * BitMex web socket client implementation for one symbol, opens a connection used only by this symbol
+     *
+     * @param rest              - bitmex rest api object
+     * @param testnet           - true if we want to connect to testnet, false otherwise
+     * @param apiKey            - apiKey
+     * @param apiSecret         - apiSecret
+     * @param symbol            - symbol to subscribe
+     * @param tradeBinListSize  - size of the list to store tradeBin data from websocket, -1 to use default values
+     * @param orderBookL2       - true to subscribe to the full orderBookL2 table, false otherwise
+     * @param queueCapacity     - maximum number of messages waiting to be applied per table
+     * @param overflowPolicy    - what to do with new messages when the queue of a snapshot-style table (instrument,
+     *                          tradeBin1m) is full, delta tables always block
+     * @param orderWaitStrategy - how the order worker waits for new messages, trading latency for cpu usage
+     */
+    public WsImp(RestImp rest, boolean testnet, String apiKey, String apiSecret, String symbol, int tradeBinListSize,
+                 boolean orderBookL2, int queueCapacity, OrderedDispatcher.OverflowPolicy overflowPolicy,
+                 WaitStrategy orderWaitStrategy) throws InterruptedException {
+        this(new WsConnection(testnet, apiKey, apiSecret, queueCapacity, overflowPolicy), rest, symbol, tradeBinListSize,
+                orderBookL2, queueCapacity, overflowPolicy, orderWaitStrategy);
+    }
+
+    /**
+     * BitMex web socket client implementation for one symbol, on a connection shared with other symbols
+     *
+     * @param connection        - web socket connection
+     * @param rest              - bitmex rest api object
+     * @param symbol            - symbol to subscribe
+     * @param tradeBinListSize  - size of the list to store tradeBin data from websocket, -1 to use default values
+     * @param orderBookL2       - true to subscribe to the full orderBookL2 table, false otherwise
+     * @param queueCapacity     - maximum number of messages waiting to be applied per table
+     * @param overflowPolicy    - what to do with new messages when the queue of a snapshot-style table (instrument,
+     *                          tradeBin1m) is full, delta tables always block
+     * @param orderWaitStrategy - how the order worker waits for new messages, trading latency for cpu usage
+     */
+    public WsImp(WsConnection connection, RestImp rest, String symbol, int tradeBinListSize, boolean orderBookL2,
+                 int queueCapacity, OrderedDispatcher.OverflowPolicy overflowPolicy, WaitStrategy orderWaitStrategy) throws InterruptedException {
+        this.connection = connection;
         this.rest = rest;
-        this.url = testnet ? WS_TESTNET : WS_MAINNET;
-        this.apiKey = apiKey;
-        this.apiSecret = apiSecret;
-        this.userSession = null;
-        this.heartbeatThread = null;
-        this.data = new ConcurrentHashMap<>();
-        this.orderQueue = new OrderAsyncThread(this);
-        this.minReconnectTimeStamp = 0L;
+        this.orderQueue = new OrderAsyncThread(this, queueCapacity, orderWaitStrategy);
+        this.dispatcher = new OrderedDispatcher<>("ws-" + symbol, symbol, queueCapacity, overflowPolicy);
         this.symbol = symbol;
         this.tradeBinListSize = tradeBinListSize > 0 ? tradeBinListSize : TRADE_BIN_MAX_LEN;
         // subscriptions to send to ws server
-        this.subscriptions = "\"instrument:" + symbol + "\",\"order:" + symbol + "\",\"position:" + symbol + "\",\"execution:" + symbol + "\",\"tradeBin1m:" + symbol + "\",\"margin:*\"";
-
-        // creates data structures to store data received by ws
-        Order[] orderData = new Order[ORDER_MAX_LEN];
-        Execution[] executionData = new Execution[EXEC_MAX_LEN];
-        TradeBin[] tradeBinData = new TradeBin[tradeBinListSize];
+        this.subscriptions = "\"instrument:" + symbol + "\",\"order:" + symbol + "\",\"position:" + symbol + "\",\"execution:" + symbol + "\",\"tradeBin1m:" + symbol + "\""
+                + (orderBookL2 ? ",\"orderBookL2:" + symbol + "\"" : "");
+        this.orderBookL2 = orderBookL2;
+        this.orderBook = null;
+        this.pendingOrderBook = new ArrayDeque<>();
+        this.topBook = null;
+        this.instrumentVersion = 0L;
+        this.positionVersion = 0L;
+        this.instrumentReady = false;
+        this.instrumentEvents = new EventPublisher<>(INSTRUMENT + ":" + symbol);
+        this.topBookEvents = new EventPublisher<>("topBook:" + symbol);
+        this.executionEvents = new EventPublisher<>(EXECUTION + ":" + symbol);
+        this.orderEvents = new EventPublisher<>(ORDER + ":" + symbol);
+        this.positionEvents = new EventPublisher<>(POSITION + ":" + symbol);
+        this.tradeBinEvents = new EventPublisher<>(TRADE_BIN + ":" + symbol);
 
         // initializes data in memory
-        this.data.put(INSTRUMENT, new Instrument());
-        this.data.put(ORDER, orderData);
-        this.data.put(POSITION, new Position());
-        this.data.put(EXECUTION, executionData);
-        this.data.put(TRADE_BIN, tradeBinData);
-        this.data.put(MARGIN, new UserMargin());
-
-        this.connect();
+        this.instrument = new Instrument();
+        this.position = new Position();
+        this.executions = new RingStore<>(EXEC_MAX_LEN, Execution[]::new);
+        this.tradeBins = new TradeBinTable(this.tradeBinListSize);
+        this.orders = new OrderTable(ORDER_MAX_LEN);
+
+        // registers the workers that apply the messages of each table, a dropped message would corrupt a delta table
+        this.dispatcher.register(INSTRUMENT, measured(this::update_instrument));
+        this.dispatcher.register(ORDER_BOOK_L2, measured(this::update_orderBookL2), OrderedDispatcher.OverflowPolicy.BLOCK);
+        this.dispatcher.register(POSITION, measured(this::update_position), OrderedDispatcher.OverflowPolicy.BLOCK);
+        this.dispatcher.register(TRADE_BIN, measured(this::update_tradeBin1m));
+        this.dispatcher.register(EXECUTION, measured(this::update_execution), OrderedDispatcher.OverflowPolicy.BLOCK);
+
+        this.connection.register(this);
         this.waitForData();
     }
 
+    @Override
+    public boolean closeSession() {
+        return this.connection.closeSession();
+    }
+
+    @Override
+    public boolean isSessionOpen() {
+        return this.connection.isSessionOpen();
+    }
+
     /**
-     * Connects to BitMex web socket server
+     * Called by the connection before subscribing the topics of this symbol, starts loading the history of the order
+     * and tradeBin1m tables through async http requests, in parallel with the subscription
      */
-    void connect() {
-        try {
-            this.container.connectToServer(this, URI.create(this.url));
-        } catch (Exception e) {
-            ThreadContext.put("ROUTINGKEY", symbol);
-            logger.error("Failed to connect to web socket server.");
-            try {
-                Thread.sleep(RETRY_PERIOD);
-            } catch (InterruptedException e2) {
-                //Nothing to be done here, if this happens we will just retry sooner.
-            }
-            this.connect();
-        }
+    void on_connect() {
+        this.ordersBootstrap = get_rest_orders();
+        this.tradeBinsBootstrap = get_rest_last_1mCandles();
     }
 
     /**
-     * Callback hook for Connection open events.
+     * Called by the connection when a subscription of this symbol is confirmed, queues the history of the table to be
+     * applied by its worker before the partial that follows the confirmation
      *
-     * @param userSession the userSession which is opened.
+     * @param table - table subscribed
      */
-    @OnOpen
-    public void onOpen(Session userSession) {
-        ThreadContext.put("ROUTINGKEY", symbol);
-        logger.info(String.format("Connected to: %s", this.url));
-        this.heartbeatThread = new HeartbeatThread(this);
-        this.userSession = userSession;
-
-        long expires = Auth.generate_expires();
-        String signature = Auth.encode_hmac(apiSecret, String.format("%s%d", "GET/realtime", expires));
-        sendMessage(String.format("{\"op\": \"authKeyExpires\", \"args\": [\"%s\", %d, \"%s\"]}", apiKey, expires, signature));
-        sendMessage(String.format("{\"op\": \"subscribe\", \"args\": [%s]}",
-                this.subscriptions));
+    void on_subscribed(String table) throws InterruptedException {
+        if (table.equals(ORDER))
+            orderQueue.add(WsFrame.bootstrap(ORDER));
+        else if (table.equals(TRADE_BIN))
+            dispatcher.dispatch(TRADE_BIN, WsFrame.bootstrap(TRADE_BIN));
     }
 
     /**
-     * Callback hook for Connection close events.
+     * Waits for the rest snapshot of a table
      *
-     * @param reason the reason for connection close
+     * @param bootstrap - snapshot being loaded
+     * @param table     - table of snapshot
+     * @return snapshot, newest first, null if it could not be loaded
      */
-    @OnClose
-    public void onClose(CloseReason reason) {
-        ThreadContext.put("ROUTINGKEY", symbol);
-        if (!this.heartbeatThread.isInterrupted())
-            this.heartbeatThread.interrupt();
-        this.heartbeatThread = null;
-        logger.info(String.format("Websocket closed with code: %d", reason.getCloseCode().getCode()));
-        this.userSession = null;
-        this.connect();
+    private <T> T await_bootstrap(CompletableFuture<T> bootstrap, String table) {
+        if (bootstrap == null)
+            return null;
+        try {
+            return bootstrap.join();
+        } catch (CompletionException e) {
+            ThreadContext.put("ROUTINGKEY", symbol);
+            logger.error(String.format("Failed to load %s snapshot.", table), e.getCause());
+            return null;
+        }
     }
 
     /**
-     * Callback hook for Error Events. This method will be invoked when a client receives a error.
+     * Called by the connection with table messages of this symbol
      *
-     * @param throwable - Error thrown
+     * @param frame - table message
      */
-    @OnError
-    public void onError(Throwable throwable) {
-        ThreadContext.put("ROUTINGKEY", symbol);
-        logger.error("Websocket error: ", throwable);
-        this.closeSession();
-    }
-
-    @Override
-    public boolean closeSession() {
-        if (isSessionOpen()) {
-            try {
-                this.userSession.close();
-                return true;
-            } catch (IOException e) {
-                ThreadContext.put("ROUTINGKEY", symbol);
-                logger.error("Could not close user session.");
-                return false;
-            }
+    void on_frame(WsFrame frame) throws InterruptedException {
+        String table = frame.getTable();
+        switch (table) {
+            case INSTRUMENT:
+            case ORDER_BOOK_L2:
+            case POSITION:
+            case TRADE_BIN:
+            case EXECUTION:
+                // applied in order by the worker of the table
+                dispatcher.dispatch(table, frame);
+                break;
+            case ORDER:
+                // adds message to the queue that leads with order messages;
+                orderQueue.add(frame);
+                break;
         }
-        return false;
-    }
-
-    @Override
-    public boolean isSessionOpen() {
-        return this.userSession != null;
     }
 
     /**
-     * Callback hook for Message Events. This method will be invoked when a client send a message.
+     * Wraps the handler of a table, recording the apply latency of its messages
      *
-     * @param message The text message
+     * @param handler - handler of table
+     * @return handler that records latency
      */
-    @OnMessage
-    public void onMessage(String message) throws InterruptedException {
-        ThreadContext.put("ROUTINGKEY", symbol);
-        if (!this.heartbeatThread.isInterrupted())
-            this.heartbeatThread.interrupt();
-        if (!isSessionOpen())
-            return;
-        this.heartbeatThread = new HeartbeatThread(this);
-
-        //if it was an heartbeat message
-        if (message.equalsIgnoreCase("pong"))
-            return;
-
-        JsonObject obj = g.fromJson(message, JsonObject.class);
-        if (obj.has("subscribe")) {
-            String subscription = obj.get("subscribe").getAsString();
-            logger.debug("Subscribed successfully to " + obj.get("subscribe"));
-            if (subscription.contains("order")) {
-                // gets orders for this symbol, trough http request
-                Order[] restOrders = this.get_rest_orders();
-                Collections.reverse(Arrays.asList(restOrders));
-                this.data.put(ORDER, restOrders);
-            } else if (subscription.contains("tradeBin1m")) {
-                // gets tradeBin data for this symbol, trough http request
-                TradeBin[] tradeBinData = this.get_rest_last_1mCandles();
-                Collections.reverse(Arrays.asList(tradeBinData));
-                this.data.put(TRADE_BIN, tradeBinData);
-            }
-        } else if (obj.has("status")) {
-            logger.error(obj.get("error").getAsString());
-            // Rate limited
-            if (obj.get("status").getAsInt() == 429) {
-                long waitTime = obj.get("meta").getAsJsonObject().get("retryAfter").getAsLong();
-                logger.warn(String.format("Rate-limited, retrying on %d seconds.", waitTime));
-                Thread.sleep(waitTime * 1000);
-            }
-        } else if (obj.has("table")) {
-            String table = obj.get("table").getAsString();
-            switch (table) {
-                case "instrument":
-                    new Thread(() -> update_instrument(obj)).start();
-                    break;
-                case "orderBookL2":
-                    new Thread(() -> update_orderBookL2(obj)).start();
-                    break;
-                case "margin":
-                    new Thread(() -> update_margin(obj)).start();
-                    break;
-                case "position":
-                    new Thread(() -> update_position(obj)).start();
-                    break;
-                case "tradeBin1m":
-                    new Thread(() -> update_tradeBin1m(obj)).start();
-                    break;
-                case "execution":
-                    new Thread(() -> update_execution(obj)).start();
-                    break;
-                case "order":
-                    // adds message to the queue that leads with order messages;
-                    orderQueue.add(obj);
-                    break;
-            }
-        }
+    private Consumer<WsFrame> measured(Consumer<WsFrame> handler) {
+        return frame -> {
+            handler.accept(frame);
+            if (!frame.isBootstrap())
+                this.connection.getLatency().recordApply(frame.getTable(), frame.getReceivedNanos());
+        };
     }
 
     /**
      * Updates data in memory after receiving an ws message with table = 'instrument'
      *
-     * @param obj - obj received from web socket
+     * @param frame - message received from web socket
      */
-    private void update_instrument(JsonObject obj) {
-        String action = obj.get("action").getAsString();
-        Instrument[] instrumentNewData = g.fromJson(obj.get("data"), Instrument[].class);
+    private void update_instrument(WsFrame frame) {
+        String action = frame.getAction();
+        Instrument[] instrumentNewData = frame.getData();
 
+        if (instrumentNewData.length == 0)
+            return;
         if (action.equals("partial")) {
-            this.data.put(INSTRUMENT, instrumentNewData[0]);
+            this.instrument = instrumentNewData[0];
             synchronized (wsDataUpdate) {
-                wsDataUpdate.notify();
+                this.instrumentReady = true;
+                wsDataUpdate.notifyAll();
             }
+            // tick size is known, builds the order book buffered meanwhile
+            if (this.orderBookL2)
+                wake_orderBookL2();
         } else if (action.equals("update")) {
-            Instrument instrumentData = (Instrument) this.data.get(INSTRUMENT);
-            String timestamp = instrumentNewData[0].getTimestamp();
-            if (timestamp != null)
-                check_latency(timestamp);
-            instrumentData.update(instrumentNewData[0]);
-            this.data.put(INSTRUMENT, instrumentData);
+            long timestamp = instrumentNewData[0].getTimestamp();
+            if (timestamp != 0L)
+                this.connection.getLatency().recordExchange(INSTRUMENT, timestamp, frame.getReceivedMillis());
+            this.instrument.update(instrumentNewData[0]);
+        } else
+            return;
+        this.instrumentVersion++;
+        this.instrumentEvents.publish(this.instrument);
+        if (!this.orderBookL2) {
+            Float bid = this.instrument.getBidPrice(), ask = this.instrument.getAskPrice();
+            publish_topBook(bid != null ? bid : Float.NaN, 0L, ask != null ? ask : Float.NaN, 0L, frame.getReceivedMillis());
         }
     }
 
     /**
-     * Checks latency on a websocket instrument update
-     *
-     * @param timestamp - timestamp of last update
+     * Publishes top of book if it changed since last published
      */
-    private void check_latency(String timestamp) {
-        long updateTime = TimeStamp.getTimestamp(timestamp);
-        long latency = System.currentTimeMillis() - updateTime;
-        synchronized (latencyLock) {
-            if (latency > MAX_LATENCY && System.currentTimeMillis() > minReconnectTimeStamp) {
-                minReconnectTimeStamp = System.currentTimeMillis() + FORCE_RECONNECT_INTERVAL;
-                ThreadContext.put("ROUTINGKEY", symbol);
-                logger.warn(String.format("Reconnecting to websocket due to high latency of: %d Current timestamp: %d Next reconnect: %d", latency, System.currentTimeMillis(), minReconnectTimeStamp));
-                this.closeSession();
-            }
+    private void publish_topBook(float bidPrice, long bidSize, float askPrice, long askSize, long receivedMillis) {
+        if (!this.topBookEvents.hasSubscribers())
+            return;
+        TopOfBook newTop = new TopOfBook(this.symbol, bidPrice, bidSize, askPrice, askSize, receivedMillis);
+        if (newTop.differs(this.topBook)) {
+            this.topBook = newTop;
+            this.topBookEvents.publish(newTop);
         }
     }
 
     /**
      * Updates data in memory after receiving an ws message with table = 'orderBookL2'
      *
-     * @param obj - obj received from ws
+     * @param frame - message received from ws
      */
-    private void update_orderBookL2(JsonObject obj) {
-        String action = obj.get("action").getAsString();
-        OrderBookL2[] data = g.fromJson(obj.get("data"), OrderBookL2[].class);
-        if (action.equals("partial")) {
-            this.data.put(ORDER_BOOK_L2, data);
-        } else {
-            OrderBookL2[] orderbookData = (OrderBookL2[]) this.data.get(ORDER_BOOK_L2);
-            if (orderbookData == null)
+    private void update_orderBookL2(WsFrame frame) {
+        if (this.orderBook == null) {
+            // tick size is needed to index price levels, messages are buffered until the instrument partial
+            if (!frame.isBootstrap() && !buffer_orderBookL2(frame))
                 return;
-
-            orderbookData = Arrays.copyOf(orderbookData, orderbookData.length);
-            //checks every row on data array
-            for (OrderBookL2 elem : data) {
-                long id = elem.getId();
-                long[] ids = new long[orderbookData.length];
-                for (int i = 0; i < orderbookData.length; i++)
-                    ids[i] = orderbookData[i].getId();
-
-                int index = BinarySearch.binarySearchL(ids, 0, ids.length - 1, id);
-                if (index == -1) {
-                    orderbookData = (OrderBookL2[]) insert(BinarySearch.getIndexInSortedArray(ids, ids.length - 1, id), elem,
-                            orderbookData);
-                } else {
-                    OrderBookL2 bookline = orderbookData[index];
-                    if (action.equals("update"))
-                        bookline.setSize(elem.getSize());
-                    else if (action.equals("delete"))
-                        bookline.setSize(0L);
-                    bookline.setSide(elem.getSide());
-                }
+            Float tickSize = get_tick_size();
+            if (tickSize == null || this.pendingOrderBook.isEmpty())
+                return;
+            OrderBook newBook = new OrderBook(tickSize, ORDER_BOOK_TICKS);
+            while (!this.pendingOrderBook.isEmpty()) {
+                WsFrame pending = this.pendingOrderBook.poll();
+                OrderBookL2[] data = pending.getData();
+                newBook.apply(pending.getAction(), data);
             }
-            this.data.put(ORDER_BOOK_L2, orderbookData);
+            this.orderBook = newBook;
+        } else if (!frame.isBootstrap()) {
+            OrderBookL2[] data = frame.getData();
+            this.orderBook.apply(frame.getAction(), data);
         }
+        OrderBook book = this.orderBook;
+        if (book != null)
+            publish_topBook(book.getBestBid(), book.getBestBidSize(), book.getBestAsk(), book.getBestAskSize(),
+                    frame.getReceivedMillis());
     }
 
     /**
-     * Updates data in memory after receiving an ws message with table = 'margin'
+     * Buffers an orderBookL2 message received before the order book could be created. The partial starts the buffer,
+     * messages before it are ignored.
      *
-     * @param obj - obj received from ws
+     * @param frame - message received from ws
+     * @return false if the message was ignored
      */
-    private void update_margin(JsonObject obj) {
-        String action = obj.get("action").getAsString();
-        UserMargin[] dataRec = g.fromJson(obj.get("data"), UserMargin[].class);
-
-        if (dataRec.length > 0 && (action.equals("update") || action.equals("partial"))) {
-            UserMargin marginData = (UserMargin) this.data.get(MARGIN);
-            marginData.update(dataRec[0]);
-            this.data.put(MARGIN, marginData);
+    private boolean buffer_orderBookL2(WsFrame frame) {
+        if (frame.getAction().equals("partial"))
+            this.pendingOrderBook.clear();
+        else if (this.pendingOrderBook.isEmpty())
+            return false;
+        if (this.pendingOrderBook.size() == ORDER_BOOK_BUFFER_CAPACITY) {
+            // dropping an update would corrupt the book, waits for the partial of the next subscription instead
+            ThreadContext.put("ROUTINGKEY", symbol);
+            logger.error(String.format("Tick size still unknown after %d orderBookL2 messages, order book dropped.",
+                    ORDER_BOOK_BUFFER_CAPACITY));
+            this.pendingOrderBook.clear();
+            return false;
         }
+        this.pendingOrderBook.add(frame);
+        return true;
+    }
+
+    /**
+     * @return tick size of the symbol, null until the instrument partial is applied
+     */
+    private Float get_tick_size() {
+        synchronized (wsDataUpdate) {
+            return this.instrumentReady ? this.instrument.getTickSize() : null;
+        }
+    }
+
+    /**
+     * Queues a frame to the orderBookL2 worker so it creates the order book from the messages buffered
+     */
+    private void wake_orderBookL2() {
+        this.dispatcher.dispatch(ORDER_BOOK_L2, WsFrame.bootstrap(ORDER_BOOK_L2));
     }
 
     /**
      * Updates data in memory after receiving an ws message with table = 'position'
      *
-     * @param obj - obj received from ws
+     * @param frame - message received from ws
      */
-    private void update_position(JsonObject obj) {
-        String action = obj.get("action").getAsString();
-        Position[] positionRec = g.fromJson(obj.get("data"), Position[].class);
+    private void update_position(WsFrame frame) {
+        String action = frame.getAction();
+        Position[] positionRec = frame.getData();
 
         if (positionRec.length > 0 && (action.equals("update") || action.equals("partial"))) {
-            Position positionData = (Position) this.data.get(POSITION);
-            positionData.update(positionRec[0]);
-            this.data.put(POSITION, positionData);
+            this.position.update(positionRec[0]);
+            this.positionVersion++;
+            this.positionEvents.publish(this.position);
         }
     }
 
     /**
      * Updates data in memory after receiving an ws message with table = 'tradeBin1m'
      *
-     * @param obj - obj received from ws
+     * @param frame - message received from ws
      */
-    private void update_tradeBin1m(JsonObject obj) {
-        String action = obj.get("action").getAsString();
-        List<TradeBin> tradeBinRec = g.fromJson(obj.get("data"), new TypeToken<List<TradeBin>>() {
-        }.getType());
+    private void update_tradeBin1m(WsFrame frame) {
+        String action = frame.getAction();
+        TradeBin[] tradeBinRec = frame.getData();
 
-        if (tradeBinRec.size() > 0 && action.equals("insert")) {
-            List<TradeBin> tradeBinData = new ArrayList<>(Arrays.asList((TradeBin[]) this.data.get(TRADE_BIN)));
+        if (frame.isBootstrap()) {
+            TradeBin[] tradeBinData = await_bootstrap(this.tradeBinsBootstrap, TRADE_BIN);
+            if (tradeBinData != null) {
+                Collections.reverse(Arrays.asList(tradeBinData));
+                this.tradeBins.replace(tradeBinData);
+            }
+        } else if (action.equals("insert")) {
             for (TradeBin elem : tradeBinRec) {
-                if (tradeBinData.size() == this.tradeBinListSize)
-                    tradeBinData.remove(0);
-                tradeBinData.add(elem);
+                this.tradeBins.insert(elem);
+                this.tradeBinEvents.publish(elem);
             }
-            this.data.put(TRADE_BIN, tradeBinData.toArray(new TradeBin[0]));
         }
     }
 
     /**
      * Updates data in memory after receiving an ws message with table = 'execution'
      *
-     * @param obj - obj received from ws
+     * @param frame - message received from ws
      */
-    private void update_execution(JsonObject obj) {
-        String action = obj.get("action").getAsString();
-        List<Execution> executionRec = g.fromJson(obj.get("data"), new TypeToken<List<Execution>>() {
-        }.getType());
+    private void update_execution(WsFrame frame) {
+        String action = frame.getAction();
+        Execution[] executionRec = frame.getData();
 
-        if (executionRec.size() > 0 && action.equals("insert") || action.equals("partial")) {
-            List<Execution> executionData = new ArrayList<>(Arrays.asList((Execution[]) this.data.get(EXECUTION)));
+        if (action.equals("insert") || action.equals("partial")) {
             for (Execution elem : executionRec) {
-                if (executionData.size() == EXEC_MAX_LEN)
-                    executionData.remove(0);
-                executionData.add(elem);
+                this.executions.add(elem);
+                if (action.equals("insert")) {
+                    if (elem.getTimestamp() != 0L)
+                        this.connection.getLatency().recordExchange(EXECUTION, elem.getTimestamp(), frame.getReceivedMillis());
+                    this.executionEvents.publish(elem);
+                }
             }
-            this.data.put(EXECUTION, executionData.toArray(new Execution[0]));
         }
     }
 
     /**
      * Updates data in memory after receiving an ws message with table = 'order'
      *
-     * @param obj - obj received from ws
+     * @param frame - message received from ws
      */
-    protected void update_order(JsonObject obj) {
-        String action = obj.get("action").getAsString();
-        List<Order> orderData = new ArrayList<>(Arrays.asList((Order[]) this.data.get(ORDER)));
-        List<Order> orderRec = g.fromJson(obj.get("data"), new TypeToken<List<Order>>() {
-        }.getType());
-
-        if (orderRec.size() > 0 && action.equals("partial") || action.equals("insert") || action.equals("update")) {
-            boolean found;
-            // iterates over data received
-            for (Order elemRec : orderRec) {
-                found = false;
-                // iterates over orderData stored in memory/
-                for (Order elemData : orderData) {
-                    // if same order (same orderID)
-                    if (elemData != null && elemData.equals(elemRec)) {
-                        found = true;
-                        // updates data element
-                        elemData.update(elemRec);
-                        break;
-                    }
-                }
-                if (!found) {
-                    // adds data element to array
-                    if (orderData.size() == ORDER_MAX_LEN)
-                        orderData.remove(0);
-                    orderData.add(elemRec);
-                }
+    protected void update_order(WsFrame frame) {
+        String action = frame.getAction();
+        Order[] orderRec = frame.getData();
+
+        if (frame.isBootstrap()) {
+            Order[] restOrders = await_bootstrap(this.ordersBootstrap, ORDER);
+            if (restOrders != null) {
+                Collections.reverse(Arrays.asList(restOrders));
+                this.orders.replace(restOrders);
+            }
+            return;
+        }
+        if (action.equals("partial") || action.equals("insert") || action.equals("update")) {
+            this.orders.apply(orderRec);
+            boolean publish = this.orderEvents.hasSubscribers();
+            for (Order elem : orderRec) {
+                if (!action.equals("partial") && elem.getTimestamp() != 0L)
+                    this.connection.getLatency().recordExchange(ORDER, elem.getTimestamp(), frame.getReceivedMillis());
+                Order merged = publish ? this.orders.get(elem.getOrderID()) : null;
+                if (merged != null)
+                    this.orderEvents.publish(merged);
             }
-            this.data.put(ORDER, orderData.toArray(new Order[0]));
         }
+        this.connection.getLatency().recordApply(ORDER, frame.getReceivedNanos());
     }
 
     @Override
     public long getL2Size(float price) {
-        OrderBookL2[] orderbookData = (OrderBookL2[]) this.data.get(ORDER_BOOK_L2);
-        if (orderbookData == null)
+        OrderBook book = this.orderBook;
+        if (book == null)
             return -1L;
-        float[] ids = new float[orderbookData.length];
-        for (int i = 0; i < orderbookData.length; i++)
-            ids[i] = orderbookData[i].getPrice();
+        return book.getSize(price);
+    }
+
+    @Override
+    public double get_volatility(VolatilityEstimator estimator) {
+        return this.tradeBins.getVolatility(estimator);
+    }
+
+    @Override
+    public long getVersion(String table) {
+        switch (table) {
+            case INSTRUMENT:
+                return this.instrumentVersion;
+            case POSITION:
+                return this.positionVersion;
+            case ORDER:
+                return this.orders.getVersion();
+            case EXECUTION:
+                return this.executions.getVersion();
+            case TRADE_BIN:
+                return this.tradeBins.getVersion();
+            default:
+                return -1L;
+        }
+    }
+
+    @Override
+    public int getQueueDepth(String table) {
+        if (table.equals(ORDER))
+            return this.orderQueue.getQueue().size();
+        if (table.equals(MARGIN))
+            return this.connection.getQueueDepth(table);
+        return this.dispatcher.getQueueDepth(table);
+    }
+
+    @Override
+    public int getMaxQueueDepth(String table) {
+        if (table.equals(ORDER))
+            return this.orderQueue.getQueue().getMaxOccupancy();
+        if (table.equals(MARGIN))
+            return this.connection.getMaxQueueDepth(table);
+        return this.dispatcher.getMaxQueueDepth(table);
+    }
+
+    @Override
+    public long getDroppedMessages(String table) {
+        // order messages are never dropped, the producer waits for free space instead
+        if (table.equals(ORDER))
+            return 0L;
+        if (table.equals(MARGIN))
+            return this.connection.getDroppedMessages(table);
+        return this.dispatcher.getDroppedMessages(table);
+    }
+
+    @Override
+    public long getWakeupLatency(String table) {
+        if (table.equals(ORDER))
+            return this.orderQueue.getQueue().getAvgWakeupLatencyNanos();
+        return -1L;
+    }
+
+    @Override
+    public EventPublisher<Instrument> get_instrument_events() {
+        return this.instrumentEvents;
+    }
+
+    @Override
+    public EventPublisher<TopOfBook> get_topBook_events() {
+        return this.topBookEvents;
+    }
 
-        int index = BinarySearch.binarySearchF(ids, 0, ids.length - 1, price);
-        return orderbookData[index].getSize();
+    @Override
+    public EventPublisher<Execution> get_execution_events() {
+        return this.executionEvents;
+    }
+
+    @Override
+    public EventPublisher<Order> get_order_events() {
+        return this.orderEvents;
+    }
+
+    @Override
+    public EventPublisher<Position> get_position_events() {
+        return this.positionEvents;
+    }
+
+    @Override
+    public EventPublisher<TradeBin> get_tradeBin_events() {
+        return this.tradeBinEvents;
+    }
+
+    @Override
+    public EventPublisher<UserMargin> get_margin_events() {
+        return this.connection.get_margin_events();
+    }
+
+    @Override
+    public LatencyHistogram getExchangeLatency(String table) {
+        return this.connection.getLatency().getExchangeLatency(table);
+    }
+
+    @Override
+    public LatencyHistogram getApplyLatency(String table) {
+        return this.connection.getLatency().getApplyLatency(table);
+    }
+
+    /**
+     * @return symbol of this web socket client
+     */
+    String getSymbol() {
+        return this.symbol;
+    }
+
+    /**
+     * @return topics of this symbol, formatted as arguments of a subscribe request
+     */
+    String getSubscriptions() {
+        return this.subscriptions;
     }
 
     @Override
     public Instrument get_instrument() {
-        return (Instrument) this.data.get(INSTRUMENT);
+        return this.instrument;
     }
 
     @Override
     public TradeBin[] get_trabeBin1m() {
-        return (TradeBin[]) this.data.get(TRADE_BIN);
+        return this.tradeBins.snapshot();
     }
 
     @Override
-    public OrderBookL2[] get_orderBookL2() {
-        return (OrderBookL2[]) this.data.get(ORDER_BOOK_L2);
+    public OrderBook get_orderBook() {
+        return this.orderBook;
     }
 
     @Override
     public UserMargin get_margin() {
-        return (UserMargin) this.data.get(MARGIN);
+        return this.connection.get_margin();
     }
 
     @Override
     public Execution[] get_execution() {
-        return (Execution[]) this.data.get(EXECUTION);
+        return this.executions.snapshot();
     }
 
     @Override
     public Position get_position() {
-        return (Position) this.data.get(POSITION);
+        return this.position;
+    }
+
+    @Override
+    public Order get_order(String orderID) {
+        return this.orders.get(orderID);
     }
 
     @Override
     public Order[] get_openOrders(String orderIDPrefix) {
-        List<Order> allOrders = new ArrayList<>(Arrays.asList((Order[]) this.data.get(ORDER)));
-        return allOrders.stream()
-                .filter(o -> o.getClOrdID() != null && o.getOrdStatus() != null && o.getClOrdID().startsWith(orderIDPrefix) && (o.getOrdStatus().equals("New") || o.getOrdStatus().equals("PartiallyFilled")))
-                .toArray(Order[]::new);
+        return this.orders.getOpen(orderIDPrefix, null);
+    }
+
+    @Override
+    public Order[] get_openOrders(String orderIDPrefix, String side) {
+        return this.orders.getOpen(orderIDPrefix, side);
     }
 
     @Override
     public Order[] get_filledOrders(String orderIDPrefix) {
-        List<Order> allOrders = new ArrayList<>(Arrays.asList((Order[]) this.data.get(ORDER)));
-        return allOrders.stream()
-                .filter(o -> o.getClOrdID() != null && o.getOrdStatus() != null && o.getClOrdID().startsWith(orderIDPrefix) && o.getOrdStatus().equals("Filled"))
-                .toArray(Order[]::new);
+        return this.orders.getFilled(orderIDPrefix, null);
+    }
+
+    @Override
+    public Order[] get_filledOrders(String orderIDPrefix, String side) {
+        return this.orders.getFilled(orderIDPrefix, side);
     }
 
     /**
      * Makes api rest call to get open orders
      *
-     * @return Returns open orders for current symbol
+     * @return future of the open orders for current symbol
      */
-    private Order[] get_rest_orders() {
+    private CompletableFuture<Order[]> get_rest_orders() {
         JsonObject params = new JsonObject();
         params.addProperty("symbol", this.symbol);
         params.addProperty("count", ORDER_MAX_LEN);
         params.addProperty("reverse", true);
-        return this.rest.get_order(params);
+        return this.rest.get_order_async(params);
     }
 
     /**
      * Makes api rest call to get last trade bucketed data
      *
-     * @return Returns last candles data for current symbol
+     * @return future of the last candles data for current symbol
      */
-    private TradeBin[] get_rest_last_1mCandles() {
+    private CompletableFuture<TradeBin[]> get_rest_last_1mCandles() {
         JsonObject params = new JsonObject();
         params.addProperty("binSize", "1m");
         params.addProperty("symbol", this.symbol);
         params.addProperty("count", this.tradeBinListSize);
         params.addProperty("reverse", true);
-        return this.rest.get_trade_bucketed(params);
+        return this.rest.get_trade_bucketed_async(params);
     }
 
     /**
@@ -585,36 +707,8 @@ public class WsImp implements Ws {
      */
     private void waitForData() throws InterruptedException {
         synchronized (wsDataUpdate) {
-            wsDataUpdate.wait();
+            while (!this.instrumentReady)
+                wsDataUpdate.wait();
         }
     }
-
-    /**
-     * Adds an element to a array in a given index
-     *
-     * @param index - index on array to add element
-     * @param val   - element to be added
-     * @param arr   - array to be processed
-     * @return newArray - new array
-     */
-    public static Object insert(int index, Object val, Object[] arr) {
-        Object[] newArray = new Object[arr.length + 1];
-        if (index >= 0) System.arraycopy(arr, 0, newArray, 0, index);
-        newArray[index] = val;
-
-        if (newArray.length - index + 1 >= 0)
-            System.arraycopy(arr, index + 1 - 1, newArray, index + 1, newArray.length - index + 1);
-        return newArray;
-    }
-
-    /**
-     * Send a message.
-     *
-     * @param message - message to be sent
-     */
-    protected void sendMessage(String message) {
-        if (isSessionOpen())
-            this.userSession.getAsyncRemote().sendText(message);
-    }
-
-}
\ No newline at end of file
+}
@@ -2,37 +2,61 @@ package market_maker;
 
 import bitmex.data.Instrument;
 import bitmex.data.Order;
+import bitmex.data.Position;
 import bitmex.data.TradeBin;
 import bitmex.data.UserMargin;
+import bitmex.rest.OrderGateway;
+import bitmex.rest.OrderIntent;
 import bitmex.rest.RestImp;
+import bitmex.ws.Ws;
+import bitmex.ws.WsConnection;
 import bitmex.ws.WsImp;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import exceptions.NotImplementedException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
+import utils.DirtyFlags;
+import utils.EventPublisher;
+import utils.LatencyHistogram;
 import utils.MathCustom;
+import utils.TimerWheel;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 class ExchangeInterface {
 
     private final int i;
     private final RestImp mexRest;
     private final WsImp mexWs;
+    // batches order requests of the strategy
+    private final OrderGateway gateway;
     private final String orderIDPrefix;
     private final float tickSize;
-
-    public ExchangeInterface(int settingsIndex) throws InterruptedException {
+    // values derived from websocket tables, cached until the version of their table changes
+    private long openOrdersVersion;
+    private Order[] topBookOrders;
+    private int openBuyCount;
+    private int openSellCount;
+    private long fillCheckVersion;
+    private long spreadIndexVersion;
+    private float spreadIndex;
+
+    public ExchangeInterface(int settingsIndex, WsConnection mexWsConnection) throws InterruptedException {
         this.i = settingsIndex;
         this.orderIDPrefix = Settings.ORDER_ID_PREFIX;
         this.mexRest = new RestImp(Settings.TESTNET, Settings.API_KEY, Settings.API_SECRET, this.orderIDPrefix);
-        this.mexWs = new WsImp(mexRest, Settings.TESTNET, Settings.API_KEY, Settings.API_SECRET, Settings.SYMBOL[i], Settings.TRADE_BIN_SIZE[i]);
+        this.gateway = new OrderGateway(this.mexRest, Settings.ORDER_BATCH_WINDOW);
+        this.mexWs = new WsImp(mexWsConnection, mexRest, Settings.SYMBOL[i], Settings.TRADE_BIN_SIZE[i], Settings.ORDER_BOOK_L2[i],
+                Settings.TABLE_QUEUE_CAPACITY, Settings.TABLE_OVERFLOW_POLICY, Settings.ORDER_WAIT_STRATEGY);
 
         // http request to get instrument data
         Instrument instrument = get_instrument_contract();
         this.tickSize = instrument.getTickSize();
+        this.openOrdersVersion = -1L;
+        this.fillCheckVersion = -1L;
+        this.spreadIndexVersion = -1L;
     }
 
     /**
@@ -184,7 +208,8 @@ class ExchangeInterface {
      * @return List<List < Order>>[0] -> open buy orders / List<List<Order>>[1] -> open sell orders
      */
     protected List<List<Order>> get_open_orders() {
-        return getOrderLists(this.mexWs.get_openOrders(this.orderIDPrefix));
+        return Arrays.asList(Arrays.asList(this.mexWs.get_openOrders(this.orderIDPrefix, "Buy")),
+                Arrays.asList(this.mexWs.get_openOrders(this.orderIDPrefix, "Sell")));
     }
 
     /**
@@ -193,29 +218,21 @@ class ExchangeInterface {
      * @return List<List < Order>>[0] -> filled buy orders / List<List<Order>>[1] -> filled sell orders
      */
     protected List<List<Order>> get_filled_orders() {
-        return getOrderLists(this.mexWs.get_filledOrders(this.orderIDPrefix));
+        return Arrays.asList(Arrays.asList(this.mexWs.get_filledOrders(this.orderIDPrefix, "Buy")),
+                Arrays.asList(this.mexWs.get_filledOrders(this.orderIDPrefix, "Sell")));
     }
 
     /**
-     * Gets orders from websocket, and splits them into two arrays based on their side of the order book
+     * Returns true if orders changed since the last call, only then own orders may have been filled
      *
-     * @return List<List < Order>>[0] -> filled buy orders / List<List<Order>>[1] -> filled sell orders
+     * @return true if orders changed since last call, false otherwise
      */
-    private List<List<Order>> getOrderLists(Order[] orders) {
-        List<Order> buyOrd = new ArrayList<>(orders.length);
-        List<Order> sellOrd = new ArrayList<>(orders.length);
-        for (Order e : orders) {
-            if (e.getSide().equals("Buy"))
-                buyOrd.add(e);
-            else
-                sellOrd.add(e);
-        }
-
-        List<List<Order>> toRet = new ArrayList<>(2);
-        toRet.add(buyOrd);
-        toRet.add(sellOrd);
-
-        return toRet;
+    protected boolean orders_changed_since_fill_check() {
+        long version = this.mexWs.getVersion(Ws.ORDER);
+        if (version == this.fillCheckVersion)
+            return false;
+        this.fillCheckVersion = version;
+        return true;
     }
 
     /**
@@ -225,12 +242,7 @@ class ExchangeInterface {
      * @return true if buy order w/ orderID is filled, false otherwise
      */
     protected boolean is_buy_order_filled(String orderID) {
-        List<List<Order>> filledOrders = get_filled_orders();
-        for (Order elem : filledOrders.get(0)) {
-            if (elem.getOrderID().equals(orderID))
-                return true;
-        }
-        return false;
+        return is_order_filled(orderID, "Buy");
     }
 
     /**
@@ -240,30 +252,39 @@ class ExchangeInterface {
      * @return true if sell order w/ orderID is filled, false otherwise
      */
     protected boolean is_sell_order_filled(String orderID) {
-        List<List<Order>> filledOrders = get_filled_orders();
-        for (Order elem : filledOrders.get(1)) {
-            if (elem.getOrderID().equals(orderID))
-                return true;
-        }
-        return false;
+        return is_order_filled(orderID, "Sell");
     }
 
     /**
-     * Amends an order
+     * Returns true if order w/ orderID and side is filled, looked up by orderID
+     *
+     * @param orderID - orderID of order
+     * @param side    - 'Buy' or 'Sell'
+     * @return true if order is filled, false otherwise
+     */
+    private boolean is_order_filled(String orderID, String side) {
+        Order order = this.mexWs.get_order(orderID);
+        return order != null && side.equals(order.getSide()) && "Filled".equals(order.getOrdStatus())
+                && order.getClOrdID() != null && order.getClOrdID().startsWith(this.orderIDPrefix);
+    }
+
+    /**
+     * Amends an order, without waiting for the response
      *
      * @param order - order to be amended
      */
-    protected void amend_order(JsonObject order) {
-        this.mexRest.put_order(order);
+    protected void amend_order(OrderIntent order) {
+        this.gateway.amend(order);
     }
 
     /**
-     * Cancel orders passed on params
+     * Cancel orders, without waiting for the response
      *
-     * @param params - orders IDs to be canceled
+     * @param orderIDs - orders IDs to be canceled
      */
-    protected void cancel_orders(JsonObject params) {
-        this.mexRest.del_order(params);
+    protected void cancel_orders(List<String> orderIDs) {
+        for (String orderID : orderIDs)
+            this.gateway.cancel(orderID);
     }
 
     /**
@@ -295,24 +316,80 @@ class ExchangeInterface {
     }
 
     /**
-     * Returns top of the book orders (highest bid and lowest ask)
+     * Returns top of the book orders (highest bid and lowest ask), recomputed only after orders change
      *
-     * @return Order[0] -> highest open buy order  / Order[1] -> lowest open sell order
+     * @return Order[0] -> highest open buy order  / Order[1] -> lowest open sell order, must not be modified
      */
     protected Order[] get_topBook_orders() {
-        List<List<Order>> orders = this.get_open_orders();
+        refresh_open_orders();
+        return this.topBookOrders;
+    }
+
+    /**
+     * Returns number of open orders of a side, recomputed only after orders change
+     *
+     * @param side - 'Buy' or 'Sell'
+     * @return number of open orders
+     */
+    protected int get_open_count(String side) {
+        refresh_open_orders();
+        return side.equals("Buy") ? this.openBuyCount : this.openSellCount;
+    }
+
+    /**
+     * Recomputes values derived from open orders if orders changed since they were computed
+     */
+    private void refresh_open_orders() {
+        // version is read first, a change while reading the orders is picked up on next call
+        long version = this.mexWs.getVersion(Ws.ORDER);
+        if (version == this.openOrdersVersion)
+            return;
+        Order[] buys = this.mexWs.get_openOrders(this.orderIDPrefix, "Buy");
+        Order[] sells = this.mexWs.get_openOrders(this.orderIDPrefix, "Sell");
         Order highestBuy = null, lowestSell = null;
 
-        for (Order bid : orders.get(0)) {
+        for (Order bid : buys) {
             if (highestBuy == null || bid.getPrice() > highestBuy.getPrice())
                 highestBuy = bid;
         }
-        for (Order ask : orders.get(1)) {
+        for (Order ask : sells) {
             if (lowestSell == null || ask.getPrice() < lowestSell.getPrice())
                 lowestSell = ask;
         }
 
-        return new Order[]{highestBuy, lowestSell};
+        this.topBookOrders = new Order[]{highestBuy, lowestSell};
+        this.openBuyCount = buys.length;
+        this.openSellCount = sells.length;
+        this.openOrdersVersion = version;
+    }
+
+    /**
+     * Returns spread index, based on historical volatility and user settings, recomputed only after candles change
+     * Volatility per 1m candle is maintained by the websocket client, scaled to QUOTE_SPREAD minutes:
+     * spreadIndex = max(sigma1m * sqrt(QUOTE_SPREAD), QUOTE_MIN_SPREAD)
+     *
+     * @return spreadIndex
+     */
+    protected float get_spread_index() {
+        long version = this.mexWs.getVersion(Ws.TRADE_BIN);
+        if (version != this.spreadIndexVersion) {
+            this.spreadIndex = calc_spread_index();
+            this.spreadIndexVersion = version;
+        }
+        return this.spreadIndex;
+    }
+
+    /**
+     * Calculates spread index, based on historical volatility and user settings
+     *
+     * @return spreadIndex
+     */
+    private float calc_spread_index() {
+        double volatility = this.mexWs.get_volatility(Settings.VOLATILITY_ESTIMATOR[i]);
+        if (Double.isNaN(volatility))
+            return Settings.QUOTE_MIN_SPREAD[i];
+        float currVolIndex = (float) (volatility * Math.sqrt(Settings.QUOTE_SPREAD[i]));
+        return Math.max(currVolIndex, Settings.QUOTE_MIN_SPREAD[i]);
     }
 
     /**
@@ -321,21 +398,35 @@ class ExchangeInterface {
      * @param orders - orders to be placed
      * @return Order array - response of request
      */
-    protected Order[] place_order_bulk(JsonArray orders) {
-        JsonObject params = new JsonObject();
-        params.add("orders", orders);
-        return this.mexRest.post_order_bulk(params);
+    protected Order[] place_order_bulk(List<OrderIntent> orders) {
+        List<CompletableFuture<Order>> futures = new ArrayList<>(orders.size());
+        for (OrderIntent order : orders)
+            futures.add(this.gateway.place(order));
+        // sent together with the amends / cancels requested in the same window
+        List<Order> placed = new ArrayList<>(futures.size());
+        for (CompletableFuture<Order> future : futures) {
+            Order order = future.join();
+            if (order != null)
+                placed.add(order);
+        }
+        return placed.toArray(new Order[0]);
     }
 
     /**
-     * Amends multiple orders as bulk
+     * Amends multiple orders as bulk, without waiting for the response
      *
      * @param orders - orders to be amended
      */
-    protected void amend_order_bulk(JsonArray orders) {
-        JsonObject params = new JsonObject();
-        params.add("orders", orders);
-        this.mexRest.put_order_bulk(params);
+    protected void amend_order_bulk(List<OrderIntent> orders) {
+        for (OrderIntent order : orders)
+            this.gateway.amend(order);
+    }
+
+    /**
+     * @return order gateway and connection pool metrics
+     */
+    protected String get_gateway_stats() {
+        return String.format("%s (%s)", this.gateway, this.mexRest.getConnectionPool());
     }
 
     /**
@@ -346,25 +437,59 @@ class ExchangeInterface {
     protected TradeBin[] get_tradeBin1m() {
         return this.mexWs.get_trabeBin1m();
     }
+
+    /**
+     * @return publisher of instrument updates
+     */
+    protected EventPublisher<Instrument> instrument_events() {
+        return this.mexWs.get_instrument_events();
+    }
+
+    /**
+     * @return publisher of order changes
+     */
+    protected EventPublisher<Order> order_events() {
+        return this.mexWs.get_order_events();
+    }
+
+    /**
+     * @return publisher of position updates
+     */
+    protected EventPublisher<Position> position_events() {
+        return this.mexWs.get_position_events();
+    }
+
+    /**
+     * @return publisher of new tradeBin1m candles
+     */
+    protected EventPublisher<TradeBin> tradeBin_events() {
+        return this.mexWs.get_tradeBin_events();
+    }
 }
 
 class MarketMakerManager {
     private final static long DAY_TO_MILLISECONDS = 86400000L;
     private final static long MINUTE_TO_MILLISECONDS = 60000L;
     private final static long WEEK_TO_MILLISECONDS = 604800000L;
-    private final static int API_REST_INTERVAL = 2000;
+    // inputs of the strategy, flagged when they change
+    private final static int MARK_PRICE_CHANGED = 1;
+    private final static int ORDERS_CHANGED = 1 << 1;
+    private final static int POSITION_CHANGED = 1 << 2;
+    private final static int TRADE_BINS_CHANGED = 1 << 3;
+    private final static int TIMER_FIRED = 1 << 4;
+    private final static int ALL_CHANGED = (1 << 5) - 1;
 
     private static final Logger logger = LogManager.getLogger(MarketMakerManager.class.getName());
     // Settings file index
     private final int index;
     private final ExchangeInterface e;
     private long fillsCounter;
-    // sanity checks are made when this timestamp is hit
-    private long sanityCheckStamp;
+    // set by the timer when a sanity check is due
+    private volatile boolean sanityCheckDue;
     // timestamp of fills
     private final List<Long> fillsStamp;
-    // timestamp used to calculate order size
-    private long calcOrderSizeStamp;
+    // set by the timer when order size should be recalculated
+    private volatile boolean calcOrderSizeDue;
     // list w/ orderIDs of open buy orders made by the algorithm
     private final List<String> openBuyOrds;
     // list w/ orderIDs of open sell orders made by the algorithm
@@ -372,16 +497,42 @@ class MarketMakerManager {
     private long orderSize;
     private long maxPosition;
     private long minPosition;
-
-    public MarketMakerManager(int settingsIndex) throws InterruptedException, NotImplementedException {
+    // the strategy thread sleeps until an input changes or a timer fires
+    private final DirtyFlags inputs;
+    // quote prices, recomputed only after their inputs change, spread index and own orders are cached by
+    // ExchangeInterface per version of their table
+    private float[] quotePrices;
+    private boolean quotePricesDirty;
+    // last input values seen by the subscribers, to flag only real changes
+    private float lastMarkPrice;
+    private float lastBidPrice;
+    private float lastAskPrice;
+    private long lastPositionQty;
+    // decisions metrics
+    private long decisions;
+    private long decisionsReportTime;
+    private final LatencyHistogram wakeLatency;
+    private final LatencyHistogram decisionTime;
+
+    public MarketMakerManager(int settingsIndex, WsConnection mexWsConnection) throws InterruptedException, NotImplementedException {
         this.index = settingsIndex;
-        this.e = new ExchangeInterface(settingsIndex);
+        this.e = new ExchangeInterface(settingsIndex, mexWsConnection);
         this.fillsCounter = 0L;
         this.fillsStamp = new ArrayList<>();
-        this.sanityCheckStamp = System.currentTimeMillis() + MINUTE_TO_MILLISECONDS;
-        this.calcOrderSizeStamp = System.currentTimeMillis() + WEEK_TO_MILLISECONDS;
+        this.sanityCheckDue = false;
+        this.calcOrderSizeDue = false;
         this.openBuyOrds = new ArrayList<>(2);
         this.openSellOrds = new ArrayList<>(2);
+        this.inputs = new DirtyFlags();
+        this.quotePricesDirty = true;
+        this.lastMarkPrice = Float.NaN;
+        this.lastBidPrice = Float.NaN;
+        this.lastAskPrice = Float.NaN;
+        this.lastPositionQty = 0L;
+        this.decisions = 0L;
+        this.decisionsReportTime = System.currentTimeMillis();
+        this.wakeLatency = new LatencyHistogram(MINUTE_TO_MILLISECONDS);
+        this.decisionTime = new LatencyHistogram(MINUTE_TO_MILLISECONDS);
         List<List<Order>> openOrders = e.rest_get_open_orders();
         for (Order elem : openOrders.get(0))
             this.openBuyOrds.add(elem.getOrderID());
@@ -395,9 +546,53 @@ class MarketMakerManager {
         } else
             calc_pos_max_delta();
 
+        // periodic tasks only flag the work as due, it is done by the strategy thread
+        TimerWheel.shared().schedulePeriodic(() -> {
+            this.sanityCheckDue = true;
+            this.inputs.mark(TIMER_FIRED);
+        }, MINUTE_TO_MILLISECONDS);
+        if (Settings.FLEXIBLE_ORDER_SIZE[index])
+            TimerWheel.shared().schedulePeriodic(() -> {
+                this.calcOrderSizeDue = true;
+                this.inputs.mark(TIMER_FIRED);
+            }, WEEK_TO_MILLISECONDS);
+        subscribe_inputs();
+
         run_loop();
     }
 
+    /**
+     * Subscribes to the inputs of the strategy, flagging them when they change
+     */
+    private void subscribe_inputs() {
+        e.instrument_events().subscribe(instrument -> {
+            float markPrice = value(instrument.getMarkPrice());
+            float bidPrice = value(instrument.getBidPrice());
+            float askPrice = value(instrument.getAskPrice());
+            // bid / ask only change quotes of post only orders
+            if (Float.compare(markPrice, this.lastMarkPrice) != 0 || (Settings.POST_ONLY[index] &&
+                    (Float.compare(bidPrice, this.lastBidPrice) != 0 || Float.compare(askPrice, this.lastAskPrice) != 0))) {
+                this.lastMarkPrice = markPrice;
+                this.lastBidPrice = bidPrice;
+                this.lastAskPrice = askPrice;
+                this.inputs.mark(MARK_PRICE_CHANGED);
+            }
+        }, EventPublisher.Mode.CONFLATE, 1);
+        e.position_events().subscribe(position -> {
+            long currentQty = Objects.requireNonNullElse(position.getCurrentQty(), 0L);
+            if (currentQty != this.lastPositionQty) {
+                this.lastPositionQty = currentQty;
+                this.inputs.mark(POSITION_CHANGED);
+            }
+        }, EventPublisher.Mode.CONFLATE, 1);
+        e.order_events().subscribe(order -> this.inputs.mark(ORDERS_CHANGED), EventPublisher.Mode.CONFLATE, 1);
+        e.tradeBin_events().subscribe(tradeBin -> this.inputs.mark(TRADE_BINS_CHANGED), EventPublisher.Mode.CONFLATE, 1);
+    }
+
+    private static float value(Float f) {
+        return f != null ? f : Float.NaN;
+    }
+
     private void calc_pos_max_delta() throws NotImplementedException {
         // instrument of contract we are quoting
         Instrument instrument = e.get_instrument_contract();
@@ -417,6 +612,8 @@ class MarketMakerManager {
         this.orderSize = Math.abs(orderSize); // inverse contracts have negative multipliers
         this.maxPosition = Math.min(this.orderSize * (long) Settings.POSITION_FACTOR[index], Settings.MAX_POSITION[index]);
         this.minPosition = Math.max(-this.maxPosition, Settings.MIN_POSITION[index]);
+        // position skew depends on order size
+        this.quotePricesDirty = true;
     }
 
     /**
@@ -426,17 +623,9 @@ class MarketMakerManager {
      * @param price    - price to place the order
      * @return order
      */
-    private JsonObject prepare_limit_order(long orderQty, float price) {
-        JsonObject params = new JsonObject();
-        String execInst = Settings.POST_ONLY[index] ? "ParticipateDoNotInitiate" : "";
-
-        params.addProperty("symbol", Settings.SYMBOL[index]);
-        params.addProperty("orderQty", orderQty);
-        params.addProperty("price", price);
-        params.addProperty("ordType", "Limit");
-        params.addProperty("execInst", execInst);
-
-        return params;
+    private OrderIntent prepare_limit_order(long orderQty, float price) {
+        String execInst = Settings.POST_ONLY[index] ? "ParticipateDoNotInitiate" : null;
+        return OrderIntent.limit(Settings.SYMBOL[index], orderQty, price, e.get_tickSize(), execInst);
     }
 
     /*
@@ -475,24 +664,6 @@ class MarketMakerManager {
         return e.get_position_size() >= this.maxPosition;
     }
 
-    /**
-     * Returns spread index, based on historical volatility and user settings
-     *
-     * @return spreadIndex
-     */
-    private float get_spread_index() {
-        TradeBin[] tradeBinData = e.get_tradeBin1m();
-        float[] closeArr = new float[tradeBinData.length - 1];
-
-        for (int i = 1; i <= closeArr.length; i++)
-            closeArr[i - 1] = (float) Math.log(tradeBinData[i].getClose() / tradeBinData[i - 1].getClose());
-
-        float currVolIndex = (MathCustom.calculateSD(closeArr) * (float) Math.sqrt(closeArr.length));
-        currVolIndex = currVolIndex * (float) Math.sqrt(1f / ((float) closeArr.length / Settings.QUOTE_SPREAD[index]));
-
-        return Math.max(currVolIndex, Settings.QUOTE_MIN_SPREAD[index]);
-    }
-
     /**
      * Calculates skew depending on current position size
      *
@@ -512,14 +683,27 @@ class MarketMakerManager {
         return skew;
     }
 
+    /**
+     * Returns new order prices based on current skew, recomputed only after mark price, position or candles change
+     *
+     * @return [0] -> bid price / [1] -> ask price, must not be modified
+     */
+    private float[] get_new_order_prices() {
+        if (this.quotePricesDirty) {
+            this.quotePrices = calc_new_order_prices();
+            this.quotePricesDirty = false;
+        }
+        return this.quotePrices;
+    }
+
     /**
      * Returns new float array that contains new order prices based on current skew
      *
      * @return [0] -> bid price / [1] -> ask price
      */
-    private float[] get_new_order_prices() {
+    private float[] calc_new_order_prices() {
         float[] prices = new float[2];
-        float spreadIndex = get_spread_index();
+        float spreadIndex = e.get_spread_index();
         float tickSize = e.get_tickSize();
         float quoteMidPrice = e.get_mark_price() * (1f + get_position_skew(spreadIndex));
         prices[0] = MathCustom.roundToFraction(quoteMidPrice * (1f - spreadIndex), tickSize);
@@ -558,29 +742,21 @@ class MarketMakerManager {
      * @param newPrices - prices to place the orders using current skew and current position
      */
     private void amend_orders_prices(float[] newPrices) throws InterruptedException {
-        JsonArray orders = new JsonArray();
+        List<OrderIntent> orders = new ArrayList<>(2);
         Order[] topBookOrd = e.get_topBook_orders();
 
         if (this.openBuyOrds.size() > 0 && topBookOrd[0] != null && topBookOrd[0].getPrice() != newPrices[0]) {
-            JsonObject newBuy = new JsonObject();
-            newBuy.addProperty("orderID", topBookOrd[0].getOrderID());
-            newBuy.addProperty("price", newPrices[0]);
-            orders.add(newBuy);
+            orders.add(OrderIntent.amend_price(topBookOrd[0].getOrderID(), newPrices[0], e.get_tickSize()));
             logger.info(String.format("Amending %s order price from %f to %f", topBookOrd[0].getSide(), topBookOrd[0].getPrice(), newPrices[0]));
         }
         if (this.openSellOrds.size() > 0 && topBookOrd[1] != null && topBookOrd[1].getPrice() != newPrices[1]) {
-            JsonObject newSell = new JsonObject();
-            newSell.addProperty("orderID", topBookOrd[1].getOrderID());
-            newSell.addProperty("price", newPrices[1]);
-            orders.add(newSell);
+            orders.add(OrderIntent.amend_price(topBookOrd[1].getOrderID(), newPrices[1], e.get_tickSize()));
             logger.info(String.format("Amending %s order price from %f to %f", topBookOrd[1].getSide(), topBookOrd[1].getPrice(), newPrices[1]));
         }
 
         if (!Settings.DRY_RUN && orders.size() > 0) {
             print_status();
             e.amend_order_bulk(orders);
-            // interval after http request
-            Thread.sleep(API_REST_INTERVAL);
         }
     }
 
@@ -588,29 +764,21 @@ class MarketMakerManager {
      * Amends orders with current order quantity, if orders exist, otherwise does nothing
      */
     private void amend_orders_qty() throws InterruptedException {
-        JsonArray orders = new JsonArray();
+        List<OrderIntent> orders = new ArrayList<>(2);
         Order[] topBookOrd = e.get_topBook_orders();
 
         if (this.openBuyOrds.size() > 0 && topBookOrd[0] != null && topBookOrd[0].getOrderQty() != this.orderSize) {
-            JsonObject newBuy = new JsonObject();
-            newBuy.addProperty("orderID", topBookOrd[0].getOrderID());
-            newBuy.addProperty("orderQty", this.orderSize);
-            orders.add(newBuy);
+            orders.add(OrderIntent.amend_qty(topBookOrd[0].getOrderID(), this.orderSize));
             logger.info(String.format("Amending %s order quantity from %d to %d", topBookOrd[0].getSide(), topBookOrd[0].getOrderQty(), this.orderSize));
         }
         if (this.openSellOrds.size() > 0 && topBookOrd[1] != null && topBookOrd[1].getOrderQty() != this.orderSize) {
-            JsonObject newSell = new JsonObject();
-            newSell.addProperty("orderID", topBookOrd[1].getOrderID());
-            newSell.addProperty("orderQty", this.orderSize);
-            orders.add(newSell);
+            orders.add(OrderIntent.amend_qty(topBookOrd[1].getOrderID(), this.orderSize));
             logger.info(String.format("Amending %s order quantity from %d to %d", topBookOrd[1].getSide(), topBookOrd[1].getOrderQty(), this.orderSize));
         }
 
         if (!Settings.DRY_RUN && orders.size() > 0) {
             print_status();
             e.amend_order_bulk(orders);
-            // interval after http request
-            Thread.sleep(API_REST_INTERVAL);
         }
     }
 
@@ -641,34 +809,35 @@ class MarketMakerManager {
      */
     private void converge_orders() throws InterruptedException {
 
-        if (this.openBuyOrds.removeIf(e::is_buy_order_filled)) {
-            logger.info("Buy order filled.");
-            fillsCounter++;
-            fillsStamp.add(System.currentTimeMillis());
-        }
+        // own orders can only be filled after an order message
+        if (e.orders_changed_since_fill_check()) {
+            if (this.openBuyOrds.removeIf(e::is_buy_order_filled)) {
+                logger.info("Buy order filled.");
+                fillsCounter++;
+                fillsStamp.add(System.currentTimeMillis());
+            }
 
-        if (this.openSellOrds.removeIf(e::is_sell_order_filled)) {
-            logger.info("Sell order filled.");
-            fillsCounter++;
-            fillsStamp.add(System.currentTimeMillis());
+            if (this.openSellOrds.removeIf(e::is_sell_order_filled)) {
+                logger.info("Sell order filled.");
+                fillsCounter++;
+                fillsStamp.add(System.currentTimeMillis());
+            }
         }
 
-        JsonArray orders = new JsonArray();
+        List<OrderIntent> orders = new ArrayList<>(2);
         Order[] topBookOrd = e.get_topBook_orders();
 
         // place new buy order, if no buy order is opened
         if (this.openBuyOrds.size() < 1 && topBookOrd[0] == null && !long_position_limit_exceeded()) {
             float markPrice = e.get_mark_price();
             float[] newPrices = get_new_order_prices();
-            JsonObject newBuy = prepare_limit_order(this.orderSize, newPrices[0]);
+            OrderIntent newBuy = prepare_limit_order(this.orderSize, newPrices[0]);
             orders.add(newBuy);
-            logger.info(String.format("Creating buy order of %d contracts at %f (%f)", newBuy.get("orderQty").getAsLong(), newPrices[0], get_spread(newPrices[0], markPrice)));
+            logger.info(String.format("Creating buy order of %d contracts at %f (%f)", newBuy.getOrderQty(), newPrices[0], get_spread(newPrices[0], markPrice)));
 
             // amends current sell order if there is a sell order opened
             if (this.openSellOrds.size() > 0 && topBookOrd[1] != null && topBookOrd[1].getPrice() != newPrices[1]) {
-                JsonObject newSell = new JsonObject();
-                newSell.addProperty("orderID", topBookOrd[1].getOrderID());
-                newSell.addProperty("price", newPrices[1]);
+                OrderIntent newSell = OrderIntent.amend_price(topBookOrd[1].getOrderID(), newPrices[1], e.get_tickSize());
                 logger.info(String.format("Amending %s order from %f to %f (%f)", topBookOrd[1].getSide(), topBookOrd[1].getPrice(), newPrices[1], get_spread(newPrices[1], markPrice)));
                 if (!Settings.DRY_RUN)
                     e.amend_order(newSell);
@@ -679,15 +848,13 @@ class MarketMakerManager {
         if (this.openSellOrds.size() < 1 && topBookOrd[1] == null && !short_position_limit_exceeded()) {
             float markPrice = e.get_mark_price();
             float[] newPrices = get_new_order_prices();
-            JsonObject newSell = prepare_limit_order(-this.orderSize, newPrices[1]);
+            OrderIntent newSell = prepare_limit_order(-this.orderSize, newPrices[1]);
             orders.add(newSell);
-            logger.info(String.format("Creating sell order of %d contracts at %f (%f)", newSell.get("orderQty").getAsLong(), newPrices[1], get_spread(newPrices[1], markPrice)));
+            logger.info(String.format("Creating sell order of %d contracts at %f (%f)", newSell.getOrderQty(), newPrices[1], get_spread(newPrices[1], markPrice)));
 
             // amends current buy order if there is a buy order opened
             if (this.openBuyOrds.size() > 0 && topBookOrd[0] != null && topBookOrd[0].getPrice() != newPrices[0]) {
-                JsonObject newBuy = new JsonObject();
-                newBuy.addProperty("orderID", topBookOrd[0].getOrderID());
-                newBuy.addProperty("price", newPrices[0]);
+                OrderIntent newBuy = OrderIntent.amend_price(topBookOrd[0].getOrderID(), newPrices[0], e.get_tickSize());
                 logger.info(String.format("Amending %s order from %f to %f (%f)", topBookOrd[0].getSide(), topBookOrd[0].getPrice(), newPrices[0], get_spread(newPrices[0], markPrice)));
                 if (!Settings.DRY_RUN)
                     e.amend_order(newBuy);
@@ -699,8 +866,6 @@ class MarketMakerManager {
                 print_status();
                 // makes http request to place orders
                 Order[] ordResp = e.place_order_bulk(orders);
-                // interval after http request
-                Thread.sleep(API_REST_INTERVAL);
 
                 for (Order elem : ordResp) {
                     // if order placed with success and still open add it to open orders in local memory
@@ -720,9 +885,9 @@ class MarketMakerManager {
         List<List<Order>> openOrders = e.get_open_orders();
 
         // number of bids on the order book
-        int numBids = openOrders.get(0).size();
+        int numBids = e.get_open_count("Buy");
         // number of asks on the order book
-        int numAsks = openOrders.get(1).size();
+        int numAsks = e.get_open_count("Sell");
 
         List<String> toCancel = new ArrayList<>(numAsks + numBids);
 
@@ -786,15 +951,7 @@ class MarketMakerManager {
         amend_orders_qty();
 
         if (toCancel.size() > 0) {
-            JsonObject obj = new JsonObject();
-            JsonArray params = new JsonArray();
-
-            for (String orderID : toCancel)
-                params.add(orderID);
-            obj.add("orderID", params);
-            e.cancel_orders(obj);
-            // interval after http request
-            Thread.sleep(API_REST_INTERVAL);
+            e.cancel_orders(toCancel);
         }
 
         logger.debug(String.format("openBuyOrds size: %d", this.openBuyOrds.size()));
@@ -804,7 +961,7 @@ class MarketMakerManager {
     }
 
     private void print_status() {
-        float spreadIndex = get_spread_index();
+        float spreadIndex = e.get_spread_index();
         logger.info(String.format("Position: %d", e.get_position_size()));
         logger.info(String.format("Position entry price: %f", e.get_position_entry()));
         logger.info(String.format("Fills in the last 24h: %d", fillsCounter));
@@ -816,29 +973,60 @@ class MarketMakerManager {
         logger.info("-------------------------------------------------");
     }
 
+    /**
+     * Flags the values derived from the inputs that changed to be recomputed
+     *
+     * @param changed - inputs changed
+     */
+    private void invalidate(int changed) {
+        if ((changed & (MARK_PRICE_CHANGED | POSITION_CHANGED | TRADE_BINS_CHANGED)) != 0)
+            this.quotePricesDirty = true;
+    }
+
+    /**
+     * Logs decisions per second and decision latency since last report
+     */
+    private void report_decisions() {
+        long now = System.currentTimeMillis();
+        float perSecond = this.decisions * 1000f / Math.max(1L, now - this.decisionsReportTime);
+        logger.info(String.format("Decisions: %.2f/s Wake latency (us): %s Decision time (us): %s Orders: %s", perSecond,
+                this.wakeLatency, this.decisionTime, e.get_gateway_stats()));
+        this.decisions = 0L;
+        this.decisionsReportTime = now;
+    }
+
     private void run_loop() throws InterruptedException, NotImplementedException {
         while (true) {
+            // sleeps until an input changes or a timer fires, inputs are re-read after a while without changes
+            int changed = this.inputs.await(Settings.STRATEGY_MAX_IDLE);
+            long start = System.nanoTime();
+            if (changed != 0)
+                this.wakeLatency.record((start - this.inputs.getMarkedNanos()) / 1000L);
+            else
+                changed = ALL_CHANGED;
+            invalidate(changed);
 
             // Only updates / checks orders if websocket connection is up
-            if (e.isWebsocketOpen())
+            if (e.isWebsocketOpen()) {
                 converge_orders();
+                this.decisions++;
+            }
 
-            long now = System.currentTimeMillis();
             // recalculates order size
-            if (e.isWebsocketOpen() && Settings.FLEXIBLE_ORDER_SIZE[index] && e.get_position_size() == 0L && now > calcOrderSizeStamp) {
+            if (calcOrderSizeDue && e.isWebsocketOpen() && e.get_position_size() == 0L) {
                 logger.info("Recalculating single order quantities.");
-                calcOrderSizeStamp = calcOrderSizeStamp + WEEK_TO_MILLISECONDS;
+                calcOrderSizeDue = false;
                 calc_pos_max_delta();
                 logger.info(String.format("Current single order quantity: %d", this.orderSize));
                 amend_orders_qty();
             }
             // data sanity check
-            if (now > sanityCheckStamp) {
-                sanityCheckStamp = sanityCheckStamp + MINUTE_TO_MILLISECONDS;
+            if (sanityCheckDue) {
+                sanityCheckDue = false;
                 sanity_check();
+                report_decisions();
             }
-            // FOR TESTING PURPOSES
-            //Thread.sleep(5000);
+            this.decisionTime.record((System.nanoTime() - start) / 1000L);
         }
     }
 }
@@ -849,6 +1037,9 @@ public class MarketMaker {
 
     public static void main(String[] args) throws InterruptedException {
         Thread[] threads = new Thread[Settings.SYMBOL.length];
+        // one web socket connection shared by every symbol
+        WsConnection mexWsConnection = new WsConnection(Settings.TESTNET, Settings.API_KEY, Settings.API_SECRET,
+                Settings.TABLE_QUEUE_CAPACITY, Settings.TABLE_OVERFLOW_POLICY);
 
         for (int i = 0; i < threads.length; i++) {
             final int index = i;
@@ -857,7 +1048,7 @@ public class MarketMaker {
                 ThreadContext.put("ROUTINGKEY", symbol);
                 try {
                     logger.info(String.format("Starting execution in %s", symbol));
-                    new MarketMakerManager(index);
+                    new MarketMakerManager(index, mexWsConnection);
                 } catch (Exception e) {
                     logger.error("Exception log: ", e);
                 }
@@ -1,5 +1,9 @@
 package market_maker;
 
+import utils.OrderedDispatcher;
+import utils.VolatilityEstimator;
+import utils.WaitStrategy;
+
 public class Settings {
     public static final boolean TESTNET = true;
     public static final boolean DRY_RUN = false;
@@ -29,12 +33,21 @@ public class Settings {
 
     // Market making settings
     public static final float[] SPREAD_MAINTAIN_RATIO = {1.3f, 1.3f};
-    public static final int[] TRADE_BIN_SIZE = {240, 240};
+    public static final int[] TRADE_BIN_SIZE = {240, 240}; // volatility window in 1m candles (at most 1000, rest api limit)
+    public static final VolatilityEstimator[] VOLATILITY_ESTIMATOR = {VolatilityEstimator.CLOSE_TO_CLOSE, VolatilityEstimator.CLOSE_TO_CLOSE}; // CLOSE_TO_CLOSE, PARKINSON or GARMAN_KLASS
     public static final float[] DEFAULT_SKEW = {0.01f, 0.0f};
     public static final float[] QUOTE_SPREAD = {40f, 40f}; // realized volatility minutes to base our spread index
     public static final float[] QUOTE_SPREAD_FACTOR = {1f, 1f};
     public static final float[] QUOTE_MIN_SPREAD = {0.002f, 0.002f}; // Minimum spread to quote (eg: 0.002 = 0.2% minium spread)
     public static final boolean[] POST_ONLY = {false, false};
     public static final boolean[] CHECK_POSITION_LIMITS = {true, true};
+    public static final long STRATEGY_MAX_IDLE = 5000L; // orders are checked after this time (ms) even if no input changed
+    public static final long ORDER_BATCH_WINDOW = 10L; // order intents are gathered for this time (ms) and sent as bulk requests
+
+    // Websocket settings
+    public static final boolean[] ORDER_BOOK_L2 = {false, false}; // subscribes to the full orderBookL2 table
+    public static final int TABLE_QUEUE_CAPACITY = 1024; // maximum number of messages waiting to be applied per table
+    public static final OrderedDispatcher.OverflowPolicy TABLE_OVERFLOW_POLICY = OrderedDispatcher.OverflowPolicy.BLOCK; // instrument and tradeBin1m only, delta tables always block
+    public static final WaitStrategy ORDER_WAIT_STRATEGY = WaitStrategy.PARK_BACKOFF; // BUSY_SPIN, YIELD, PARK_BACKOFF or BLOCKING
 
 }
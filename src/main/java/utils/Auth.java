@@ -17,7 +17,8 @@ public class Auth {
     private final static Logger LOGGER = Logger.getLogger(Rest.class.getName());
 
     /**
-     * Builds a hmac signature given a key and data
+     * Builds a hmac signature given a key and data, for one-off signatures (requests of a client are signed by its
+     * HmacSigner)
      *
      * @param key  - key to be used in the hmac signature
      * @param data - data to be used in the hmac signature
@@ -0,0 +1,59 @@
+package utils;
+
+/**
+ * Set of change flags, marked by the threads that observe the inputs of a strategy and consumed by the single thread
+ * that runs it. The strategy thread sleeps until an input changes instead of re-reading its inputs in a loop, and
+ * learns which inputs changed so it only recomputes what depends on them.
+ */
+public class DirtyFlags {
+    private int flags;
+    // time the first of the pending flags was marked
+    private long firstMarkNanos;
+    // time the first of the flags returned by the last await was marked
+    private long markedNanos;
+
+    public DirtyFlags() {
+        this.flags = 0;
+        this.firstMarkNanos = 0L;
+        this.markedNanos = 0L;
+    }
+
+    /**
+     * Marks flags and wakes the waiting thread
+     *
+     * @param mask - flags to mark
+     */
+    public synchronized void mark(int mask) {
+        if (this.flags == 0)
+            this.firstMarkNanos = System.nanoTime();
+        this.flags |= mask;
+        notifyAll();
+    }
+
+    /**
+     * Waits until a flag is marked, then returns and clears the marked flags
+     *
+     * @param timeoutMs - maximum time to wait, in ms
+     * @return flags marked, 0 if the timeout expired
+     */
+    public synchronized int await(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (this.flags == 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L)
+                return 0;
+            wait(remaining);
+        }
+        int marked = this.flags;
+        this.flags = 0;
+        this.markedNanos = this.firstMarkNanos;
+        return marked;
+    }
+
+    /**
+     * @return time the first of the flags returned by the last await was marked, from System.nanoTime()
+     */
+    public synchronized long getMarkedNanos() {
+        return this.markedNanos;
+    }
+}
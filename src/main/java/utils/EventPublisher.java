@@ -0,0 +1,295 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Publisher of the changes of a web socket table / stream. Publishing never blocks the web socket workers: items are
+ * delivered asynchronously, in order, to each subscriber, and only while the subscriber has outstanding demand
+ * (Subscription.request). Items published while a subscriber has no demand are kept according to its mode:
+ * - CONFLATE: only the latest item is kept, for state that is read as a whole (eg: instrument, top of book)
+ * - BUFFER: items are kept in a bounded queue, dropping the oldest when full, for events (eg: executions)
+ *
+ * @param <T> - type of the items published
+ */
+public class EventPublisher<T> implements Flow.Publisher<T> {
+
+    /**
+     * What is kept for a subscriber while it has no demand
+     */
+    public enum Mode {
+        // keeps only the latest item
+        CONFLATE,
+        // keeps up to 'capacity' items, dropping the oldest
+        BUFFER
+    }
+
+    private static final Logger logger = LogManager.getLogger(EventPublisher.class.getName());
+    // delivers items of all publishers, each subscription is drained by at most one thread at a time
+    private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "event-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final Executor executor;
+    private final List<EventSubscription> subscriptions;
+
+    /**
+     * @param name - name of the table / stream published, used in logs
+     */
+    public EventPublisher(String name) {
+        this(name, DELIVERY);
+    }
+
+    /**
+     * @param name     - name of the table / stream published, used in logs
+     * @param executor - executor that delivers items to subscribers
+     */
+    public EventPublisher(String name, Executor executor) {
+        this.name = name;
+        this.executor = executor;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Subscribes with mode BUFFER and the default buffer size
+     *
+     * @param subscriber - subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscribe(subscriber, Mode.BUFFER, Flow.defaultBufferSize());
+    }
+
+    /**
+     * Subscribes to the items published
+     *
+     * @param subscriber - subscriber
+     * @param mode       - what is kept while the subscriber has no demand
+     * @param capacity   - maximum number of items kept with mode BUFFER, ignored with CONFLATE
+     */
+    public void subscribe(Flow.Subscriber<? super T> subscriber, Mode mode, int capacity) {
+        EventSubscription subscription = new EventSubscription(subscriber, mode, Math.max(1, capacity));
+        subscriber.onSubscribe(subscription);
+        if (!subscription.cancelled)
+            this.subscriptions.add(subscription);
+    }
+
+    /**
+     * Subscribes an handler with unbounded demand, items published while the handler runs are still conflated / buffered
+     *
+     * @param handler  - called with each item delivered
+     * @param mode     - what is kept while the handler runs
+     * @param capacity - maximum number of items kept with mode BUFFER, ignored with CONFLATE
+     */
+    public void subscribe(Consumer<? super T> handler, Mode mode, int capacity) {
+        subscribe(new Flow.Subscriber<T>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T item) {
+                handler.accept(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                logger.error(String.format("Subscription to %s failed.", name), throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, mode, capacity);
+    }
+
+    /**
+     * Publishes an item to all subscribers, never blocks
+     *
+     * @param item - item to publish, not null
+     */
+    public void publish(T item) {
+        for (EventSubscription subscription : this.subscriptions)
+            subscription.offer(item);
+    }
+
+    /**
+     * @return true if there is at least one subscriber, to skip building items nobody reads
+     */
+    public boolean hasSubscribers() {
+        return !this.subscriptions.isEmpty();
+    }
+
+    public int getSubscriberCount() {
+        return this.subscriptions.size();
+    }
+
+    /**
+     * @return number of items dropped because a BUFFER subscriber was full, over all subscribers
+     */
+    public long getDroppedItems() {
+        long dropped = 0L;
+        for (EventSubscription subscription : this.subscriptions)
+            dropped += subscription.getDropped();
+        return dropped;
+    }
+
+    /**
+     * Completes all subscriptions, after the items already kept are delivered
+     */
+    public void close() {
+        for (EventSubscription subscription : this.subscriptions)
+            subscription.complete();
+    }
+
+    private final class EventSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Mode mode;
+        private final int capacity;
+        private final ArrayDeque<T> buffer;
+        // number of pending drain requests, the drain runs while it is not 0
+        private final AtomicInteger wip;
+        private T latest;
+        private long demand;
+        private long dropped;
+        private boolean completed;
+        private Throwable error;
+        private volatile boolean cancelled;
+
+        EventSubscription(Flow.Subscriber<? super T> subscriber, Mode mode, int capacity) {
+            this.subscriber = subscriber;
+            this.mode = mode;
+            this.capacity = capacity;
+            this.buffer = mode == Mode.BUFFER ? new ArrayDeque<>(Math.min(capacity, 64)) : null;
+            this.wip = new AtomicInteger();
+            this.latest = null;
+            this.demand = 0L;
+            this.dropped = 0L;
+            this.completed = false;
+            this.error = null;
+            this.cancelled = false;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0L)
+                    this.error = new IllegalArgumentException(String.format("Non-positive request: %d", n));
+                else
+                    this.demand = this.demand + n < 0L ? Long.MAX_VALUE : this.demand + n;
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            subscriptions.remove(this);
+            synchronized (this) {
+                this.latest = null;
+                if (this.buffer != null)
+                    this.buffer.clear();
+            }
+        }
+
+        void offer(T item) {
+            synchronized (this) {
+                if (this.mode == Mode.CONFLATE) {
+                    this.latest = item;
+                } else {
+                    if (this.buffer.size() == this.capacity) {
+                        this.buffer.poll();
+                        this.dropped++;
+                    }
+                    this.buffer.add(item);
+                }
+            }
+            schedule();
+        }
+
+        void complete() {
+            synchronized (this) {
+                this.completed = true;
+            }
+            schedule();
+        }
+
+        synchronized long getDropped() {
+            return this.dropped;
+        }
+
+        private void schedule() {
+            if (!this.cancelled && this.wip.getAndIncrement() == 0)
+                executor.execute(this::drain);
+        }
+
+        private void drain() {
+            int missed = 1;
+            while (true) {
+                while (!this.cancelled) {
+                    T item;
+                    Throwable failure;
+                    boolean done;
+                    synchronized (this) {
+                        failure = this.error;
+                        item = this.demand > 0L ? next() : null;
+                        if (item != null)
+                            this.demand--;
+                        done = this.completed && isEmpty();
+                    }
+                    if (failure != null) {
+                        cancel();
+                        this.subscriber.onError(failure);
+                    } else if (item != null) {
+                        deliver(item);
+                    } else {
+                        if (done) {
+                            cancel();
+                            this.subscriber.onComplete();
+                        }
+                        break;
+                    }
+                }
+                missed = this.wip.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+
+        private void deliver(T item) {
+            try {
+                this.subscriber.onNext(item);
+            } catch (Throwable e) {
+                logger.error(String.format("Subscriber of %s failed, cancelling its subscription.", name), e);
+                cancel();
+            }
+        }
+
+        private T next() {
+            if (this.mode == Mode.CONFLATE) {
+                T item = this.latest;
+                this.latest = null;
+                return item;
+            }
+            return this.buffer.poll();
+        }
+
+        private boolean isEmpty() {
+            return this.mode == Mode.CONFLATE ? this.latest == null : this.buffer.isEmpty();
+        }
+    }
+}
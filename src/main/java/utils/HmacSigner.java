@@ -0,0 +1,128 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import static org.apache.commons.codec.digest.HmacAlgorithms.HMAC_SHA_256;
+
+/**
+ * HMAC SHA256 signer of the requests of one api key. Each thread signs with its own initialized Mac, encodes the payload
+ * into a reusable byte buffer and the digest into a reusable hex buffer, so only the returned signature is allocated.
+ */
+public class HmacSigner {
+    private static final Logger logger = LogManager.getLogger(HmacSigner.class.getName());
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<State> state;
+
+    /**
+     * @param secret - api secret used as the hmac key
+     */
+    public HmacSigner(String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_SHA_256.getName());
+        this.state = ThreadLocal.withInitial(this::init);
+    }
+
+    /**
+     * @return empty builder owned by the calling thread, to build the payload of the next sign call without allocating
+     */
+    public StringBuilder payload() {
+        StringBuilder payload = this.state.get().payload;
+        payload.setLength(0);
+        return payload;
+    }
+
+    /**
+     * Signs data
+     *
+     * @param data - data to sign
+     * @return signature as lowercase hex String
+     */
+    public String sign(CharSequence data) {
+        State s = this.state.get();
+        int length = s.encode(data);
+        try {
+            s.mac.update(s.input, 0, length);
+            s.mac.doFinal(s.digest, 0);
+        } catch (ShortBufferException e) {
+            // digest buffer is sized by the mac
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < s.digest.length; i++) {
+            s.hex[i * 2] = HEX[(s.digest[i] >> 4) & 0xF];
+            s.hex[i * 2 + 1] = HEX[s.digest[i] & 0xF];
+        }
+        return new String(s.hex);
+    }
+
+    private State init() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA_256.getName());
+            mac.init(this.key);
+            return new State(mac);
+        } catch (GeneralSecurityException e) {
+            logger.fatal(e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static final class State {
+        private final Mac mac;
+        private final byte[] digest;
+        private final char[] hex;
+        private final StringBuilder payload;
+        private byte[] input;
+
+        State(Mac mac) {
+            this.mac = mac;
+            this.digest = new byte[mac.getMacLength()];
+            this.hex = new char[this.digest.length * 2];
+            this.payload = new StringBuilder(256);
+            this.input = new byte[256];
+        }
+
+        /**
+         * Encodes data as UTF-8 into the input buffer
+         *
+         * @return number of bytes encoded
+         */
+        int encode(CharSequence data) {
+            int length = data.length();
+            // worst case of 3 bytes per char (surrogate pairs take 4 bytes for 2 chars)
+            if (this.input.length < length * 3)
+                this.input = new byte[Math.max(length * 3, this.input.length * 2)];
+            int n = 0;
+            for (int i = 0; i < length; i++) {
+                char c = data.charAt(i);
+                if (c < 0x80) {
+                    this.input[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    this.input[n++] = (byte) (0xC0 | (c >> 6));
+                    this.input[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(data.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, data.charAt(++i));
+                    this.input[n++] = (byte) (0xF0 | (cp >> 18));
+                    this.input[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    this.input[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    this.input[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate, replaced like String.getBytes
+                    this.input[n++] = (byte) '?';
+                } else {
+                    this.input[n++] = (byte) (0xE0 | (c >> 12));
+                    this.input[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    this.input[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the keep-alive connections of a rest client. Connections are opened by the Jersey HttpURLConnection connector
+ * with TCP_NODELAY and TCP keep-alive set, and kept by the JVM keep-alive cache, which evicts connections idle for longer
+ * than the server keep-alive timeout (5 s if the server does not send one). The pool opens connections ahead of the first
+ * request (warm up) and, every keep-alive period with fewer requests than warmed connections, pings the server once per
+ * warmed connection at the same time, so each ping takes a different cached connection and all of them are used before
+ * eviction. Order requests then do not pay for the TCP and TLS handshakes. The cache hands out the most recently used
+ * connection first, so a client that is busy but never sends concurrent requests only keeps one connection warm.
+ * The JVM keep-alive cache is global, so clients of the same server should share a pool, see shared().
+ */
+public class HttpConnectionPool {
+    private static final Logger logger = LogManager.getLogger(HttpConnectionPool.class.getName());
+    // warm up and keep-alive pings, never on the caller or timer thread
+    private static final ExecutorService PINGS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "http-pool-ping");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ConcurrentHashMap<String, HttpConnectionPool> SHARED = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final long keepAliveMs;
+    private final SSLSocketFactory socketFactory;
+    private final AtomicLong requests;
+    private final AtomicLong pings;
+    private final AtomicLong connections;
+    // requests other than pings made before the last keep-alive check
+    private long requestsAtCheck;
+    private boolean warmedUp;
+    private TimerWheel.Timeout keepAlive;
+
+    /**
+     * @param name        - name of the pool, used in logs
+     * @param maxPerRoute - maximum idle connections kept per host, a JVM wide setting, see configure_keep_alive_cache()
+     * @param keepAliveMs - keep-alive period, must be below the idle time after which the JVM evicts connections (5 s
+     *                    by default) minus the time of a ping, in ms (0 disables pings)
+     */
+    public HttpConnectionPool(String name, int maxPerRoute, long keepAliveMs) {
+        configure_keep_alive_cache(maxPerRoute);
+        this.name = name;
+        this.keepAliveMs = keepAliveMs;
+        this.socketFactory = new TunedSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+        this.requests = new AtomicLong();
+        this.pings = new AtomicLong();
+        this.connections = new AtomicLong();
+        this.requestsAtCheck = 0L;
+        this.warmedUp = false;
+        this.keepAlive = null;
+    }
+
+    /**
+     * Returns the pool shared by all clients of a server, creating it on first use
+     *
+     * @param name        - name of the server
+     * @param maxPerRoute - maximum idle connections kept per host, a JVM wide setting, see configure_keep_alive_cache()
+     * @param keepAliveMs - keep-alive period, see the constructor
+     * @return pool of the server
+     */
+    public static HttpConnectionPool shared(String name, int maxPerRoute, long keepAliveMs) {
+        return SHARED.computeIfAbsent(name, k -> new HttpConnectionPool(name, maxPerRoute, keepAliveMs));
+    }
+
+    /**
+     * @return connector of the Jersey client, opening connections through this pool
+     */
+    public ConnectorProvider getConnectorProvider() {
+        return new HttpUrlConnectorProvider().connectionFactory(this::open);
+    }
+
+    /**
+     * Opens connections in the background and starts the keep-alive pings, only the first call has effect
+     *
+     * @param ping        - cheap request to the server, must not throw
+     * @param connections - number of connections opened ahead, and kept alive
+     */
+    public synchronized void warmUp(Runnable ping, int connections) {
+        if (this.warmedUp)
+            return;
+        this.warmedUp = true;
+        long start = System.currentTimeMillis();
+        Runnable counted = () -> {
+            this.pings.incrementAndGet();
+            ping.run();
+        };
+        for (int i = 0; i < connections; i++) {
+            PINGS.execute(() -> {
+                counted.run();
+                logger.debug(String.format("%s connection warmed up in %d ms.", this.name, System.currentTimeMillis() - start));
+            });
+        }
+        if (this.keepAliveMs > 0L)
+            this.keepAlive = TimerWheel.shared().schedulePeriodic(() -> keep_alive(counted, connections), this.keepAliveMs);
+    }
+
+    /**
+     * Called every keep-alive period, pings every warmed connection if the requests of the period did not use them all
+     */
+    private synchronized void keep_alive(Runnable ping, int connections) {
+        long requests = this.requests.get() - this.pings.get();
+        long made = requests - this.requestsAtCheck;
+        this.requestsAtCheck = requests;
+        if (made >= connections)
+            return;
+        // concurrent, so each ping takes a different connection from the cache
+        for (int i = 0; i < connections; i++)
+            PINGS.execute(ping);
+    }
+
+    /**
+     * Stops the keep-alive pings
+     */
+    public synchronized void close() {
+        if (this.keepAlive != null)
+            this.keepAlive.cancel();
+        this.keepAlive = null;
+    }
+
+    /**
+     * @return requests made, pings included
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * @return connections opened (each one a TCP and TLS handshake)
+     */
+    public long getConnections() {
+        return this.connections.get();
+    }
+
+    @Override
+    public String toString() {
+        long requests = getRequests();
+        long connections = getConnections();
+        return String.format("%s requests: %d connections: %d reused: %.1f%%", this.name, requests, connections,
+                requests == 0L ? 0f : 100f * (requests - Math.min(requests, connections)) / requests);
+    }
+
+    /**
+     * Sizes the JVM keep-alive cache. The cache is shared by the whole JVM and reads its size once, when the first
+     * connection is made, so only the first pool sets it and later pools only warn if they ask for a different size.
+     *
+     * @param maxPerRoute - maximum idle connections kept per host
+     */
+    private static synchronized void configure_keep_alive_cache(int maxPerRoute) {
+        String current = System.getProperty("http.maxConnections");
+        if (current == null) {
+            System.setProperty("http.keepAlive", "true");
+            System.setProperty("http.maxConnections", String.valueOf(maxPerRoute));
+        } else if (!current.equals(String.valueOf(maxPerRoute)))
+            logger.warn(String.format("JVM keep-alive cache already sized to %s connections per host, %d ignored.",
+                    current, maxPerRoute));
+    }
+
+    private HttpURLConnection open(URL url) throws IOException {
+        this.requests.incrementAndGet();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        // the same factory instance for every request, the keep-alive cache only reuses connections of equal factories
+        if (connection instanceof HttpsURLConnection)
+            ((HttpsURLConnection) connection).setSSLSocketFactory(this.socketFactory);
+        return connection;
+    }
+
+    /**
+     * Sets the socket options of every connection opened, and counts them
+     */
+    private final class TunedSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        TunedSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private Socket tune(Socket socket) throws IOException {
+            connections.incrementAndGet();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return this.delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return this.delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return tune(this.delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return tune(this.delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return tune(this.delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return tune(this.delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return tune(this.delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return tune(this.delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
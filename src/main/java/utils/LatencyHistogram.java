@@ -0,0 +1,178 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Fixed memory latency histogram over a rolling time window. Values are counted in log-linear buckets (like HDR
+ * histograms) with a relative error of about 3%, from 0 up to 2^40, larger values are counted in the last bucket.
+ * The window is made of two intervals, the current and the previous one, so percentiles cover between one and two
+ * intervals of recent samples. The unit of the values is chosen by the caller (eg: ms or us).
+ */
+public class LatencyHistogram {
+    // 2^SUB_BITS linear sub-buckets per power of 2
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+    private static final int MAX_BIT = 40;
+    private static final int BUCKETS = SUB_COUNT + (MAX_BIT - SUB_BITS + 1) * HALF_COUNT;
+
+    private final long intervalMs;
+    // [0] current interval, [1] previous interval
+    private final long[][] counts;
+    private final long[] totals;
+    private final long[] maxs;
+    private final long[] sums;
+    private long intervalStart;
+    private long lifetimeCount;
+
+    /**
+     * @param intervalMs - duration of each of the two intervals of the window, in ms
+     */
+    public LatencyHistogram(long intervalMs) {
+        this.intervalMs = intervalMs;
+        this.counts = new long[2][BUCKETS];
+        this.totals = new long[2];
+        this.maxs = new long[2];
+        this.sums = new long[2];
+        this.intervalStart = System.currentTimeMillis();
+        this.lifetimeCount = 0L;
+    }
+
+    /**
+     * Records a sample, negative values (eg: clock skew) are recorded as 0
+     *
+     * @param value - latency
+     */
+    public synchronized void record(long value) {
+        rotate(System.currentTimeMillis());
+        value = Math.max(0L, value);
+        this.counts[0][index(value)]++;
+        this.totals[0]++;
+        this.sums[0] += value;
+        if (value > this.maxs[0])
+            this.maxs[0] = value;
+        this.lifetimeCount++;
+    }
+
+    /**
+     * Returns value at a given percentile of the samples in the window
+     *
+     * @param percentile - percentile, from 0 to 100
+     * @return upper bound of the bucket of the percentile (at most the maximum sample), 0 if there are no samples
+     */
+    public synchronized long getPercentile(double percentile) {
+        rotate(System.currentTimeMillis());
+        long total = this.totals[0] + this.totals[1];
+        if (total == 0)
+            return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100d * total));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts[0][i] + this.counts[1][i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), getMaxLocked());
+        }
+        return getMaxLocked();
+    }
+
+    /**
+     * @return number of samples in the window
+     */
+    public synchronized long getCount() {
+        rotate(System.currentTimeMillis());
+        return this.totals[0] + this.totals[1];
+    }
+
+    /**
+     * @return number of samples recorded since this histogram was created
+     */
+    public synchronized long getLifetimeCount() {
+        return this.lifetimeCount;
+    }
+
+    /**
+     * @return maximum sample in the window, 0 if there are no samples
+     */
+    public synchronized long getMax() {
+        rotate(System.currentTimeMillis());
+        return getMaxLocked();
+    }
+
+    /**
+     * @return mean of the samples in the window, 0 if there are no samples
+     */
+    public synchronized double getMean() {
+        rotate(System.currentTimeMillis());
+        long total = this.totals[0] + this.totals[1];
+        return total == 0 ? 0d : (double) (this.sums[0] + this.sums[1]) / total;
+    }
+
+    /**
+     * Discards the samples in the window
+     */
+    public synchronized void reset() {
+        clear(0);
+        clear(1);
+        this.intervalStart = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("count=%d p50=%d p90=%d p99=%d max=%d", getCount(), getPercentile(50d),
+                getPercentile(90d), getPercentile(99d), getMax());
+    }
+
+    private long getMaxLocked() {
+        return Math.max(this.maxs[0], this.maxs[1]);
+    }
+
+    /**
+     * Moves current interval to previous when it ends
+     */
+    private void rotate(long now) {
+        long elapsed = now - this.intervalStart;
+        if (elapsed < this.intervalMs)
+            return;
+        if (elapsed >= 2 * this.intervalMs) {
+            // no samples recorded in the last interval
+            clear(1);
+            clear(0);
+            this.intervalStart = now;
+            return;
+        }
+        long[] previous = this.counts[1];
+        this.counts[1] = this.counts[0];
+        this.counts[0] = previous;
+        this.totals[1] = this.totals[0];
+        this.maxs[1] = this.maxs[0];
+        this.sums[1] = this.sums[0];
+        clear(0);
+        this.intervalStart += this.intervalMs;
+    }
+
+    private void clear(int interval) {
+        Arrays.fill(this.counts[interval], 0L);
+        this.totals[interval] = 0L;
+        this.maxs[interval] = 0L;
+        this.sums[interval] = 0L;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT)
+            return (int) value;
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit > MAX_BIT)
+            return BUCKETS - 1;
+        int shift = highestBit - SUB_BITS + 1;
+        int sub = (int) (value >>> shift);
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (sub - HALF_COUNT);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+        long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,79 @@
+package utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms of a web socket connection, per table / stream:
+ * - exchange latency: time between the exchange timestamp of a message and its reception, in ms
+ * - apply latency: time between the reception of a message and the moment it was applied to memory, in us
+ * The reconnect policy reads rolling percentiles of the exchange latency, instead of reacting to a single sample.
+ */
+public class LatencyMonitor {
+    private final long intervalMs;
+    private final Map<String, LatencyHistogram> exchange;
+    private final Map<String, LatencyHistogram> apply;
+
+    /**
+     * @param intervalMs - duration of each of the two intervals of the rolling window, in ms
+     */
+    public LatencyMonitor(long intervalMs) {
+        this.intervalMs = intervalMs;
+        this.exchange = new ConcurrentHashMap<>();
+        this.apply = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records the exchange latency of a message
+     *
+     * @param table          - table / stream of message
+     * @param exchangeMillis - exchange timestamp of message, in epoch ms
+     * @param receivedMillis - reception timestamp of message, in epoch ms
+     */
+    public void recordExchange(String table, long exchangeMillis, long receivedMillis) {
+        getExchangeLatency(table).record(receivedMillis - exchangeMillis);
+    }
+
+    /**
+     * Records the apply latency of a message, must be called after the message was applied
+     *
+     * @param table         - table / stream of message
+     * @param receivedNanos - reception timestamp of message, from System.nanoTime()
+     */
+    public void recordApply(String table, long receivedNanos) {
+        getApplyLatency(table).record((System.nanoTime() - receivedNanos) / 1000L);
+    }
+
+    /**
+     * @param table - table / stream
+     * @return histogram of exchange latency of table, in ms
+     */
+    public LatencyHistogram getExchangeLatency(String table) {
+        return this.exchange.computeIfAbsent(table, k -> new LatencyHistogram(this.intervalMs));
+    }
+
+    /**
+     * @param table - table / stream
+     * @return histogram of apply latency of table, in us
+     */
+    public LatencyHistogram getApplyLatency(String table) {
+        return this.apply.computeIfAbsent(table, k -> new LatencyHistogram(this.intervalMs));
+    }
+
+    /**
+     * Returns true if the exchange latency of a table is degraded, based on its rolling percentiles
+     *
+     * @param table      - table / stream
+     * @param maxP50         - maximum median latency in ms
+     * @param tailPercentile - percentile of the tail latency (eg: 99)
+     * @param maxTail        - maximum tail latency in ms
+     * @param minSamples     - minimum number of samples in the window to take a decision
+     * @return true if p50 > maxP50 or the tail percentile > maxTail, false otherwise or if there are not enough samples
+     */
+    public boolean isDegraded(String table, long maxP50, double tailPercentile, long maxTail, long minSamples) {
+        LatencyHistogram histogram = this.exchange.get(table);
+        if (histogram == null || histogram.getCount() < minSamples)
+            return false;
+        return histogram.getPercentile(50d) > maxP50 || histogram.getPercentile(tailPercentile) > maxTail;
+    }
+}
@@ -0,0 +1,146 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values, that does not box keys or values nor allocate memory on
+ * put / remove (except when growing). This class is not thread safe.
+ */
+public class LongIntHashMap {
+    private final int missingValue;
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    /**
+     * @param initialCapacity - expected number of entries
+     * @param missingValue    - value returned by get() when key is not present
+     */
+    public LongIntHashMap(int initialCapacity, int missingValue) {
+        this.missingValue = missingValue;
+        allocate(tableSizeFor(initialCapacity * 2));
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns value mapped to key
+     *
+     * @param key - key to look up
+     * @return value of key, missingValue if key is not present
+     */
+    public int get(long key) {
+        int i = index(key);
+        while (this.used[i]) {
+            if (this.keys[i] == key)
+                return this.values[i];
+            i = (i + 1) & this.mask;
+        }
+        return this.missingValue;
+    }
+
+    /**
+     * Maps key to value, replacing previous value if key was present
+     *
+     * @param key   - key
+     * @param value - value
+     */
+    public void put(long key, int value) {
+        int i = index(key);
+        while (this.used[i]) {
+            if (this.keys[i] == key) {
+                this.values[i] = value;
+                return;
+            }
+            i = (i + 1) & this.mask;
+        }
+        this.used[i] = true;
+        this.keys[i] = key;
+        this.values[i] = value;
+        if (++this.size > this.resizeThreshold)
+            rehash(this.keys.length * 2);
+    }
+
+    /**
+     * Removes key from map
+     *
+     * @param key - key to remove
+     * @return value of removed key, missingValue if key was not present
+     */
+    public int remove(long key) {
+        int i = index(key);
+        while (this.used[i]) {
+            if (this.keys[i] == key) {
+                int value = this.values[i];
+                this.size--;
+                shiftBack(i);
+                return value;
+            }
+            i = (i + 1) & this.mask;
+        }
+        return this.missingValue;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        Arrays.fill(this.used, false);
+        this.size = 0;
+    }
+
+    /**
+     * Closes the gap left by a removed entry, so lookups of the following entries still find them
+     */
+    private void shiftBack(int gap) {
+        int i = (gap + 1) & this.mask;
+        while (this.used[i]) {
+            int home = index(this.keys[i]);
+            // moves entry to the gap if the gap is between its home slot and its current slot
+            if (((i - home) & this.mask) >= ((i - gap) & this.mask)) {
+                this.keys[gap] = this.keys[i];
+                this.values[gap] = this.values[i];
+                gap = i;
+            }
+            i = (i + 1) & this.mask;
+        }
+        this.used[gap] = false;
+    }
+
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & this.mask;
+    }
+
+    private void rehash(int newLength) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        boolean[] oldUsed = this.used;
+        allocate(newLength);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i])
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private void allocate(int length) {
+        this.keys = new long[length];
+        this.values = new int[length];
+        this.used = new boolean[length];
+        this.mask = length - 1;
+        this.resizeThreshold = length / 2;
+        this.size = 0;
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = 16;
+        while (size < n)
+            size <<= 1;
+        return size;
+    }
+}
@@ -0,0 +1,204 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Dispatch stage that hands messages to one long-lived worker per key (eg: one per websocket table), through a bounded
+ * queue. Messages with the same key are processed sequentially and in the order they were dispatched.
+ *
+ * @param <M> - type of the messages dispatched
+ */
+public class OrderedDispatcher<M> {
+
+    /**
+     * What to do when a message is dispatched to a worker whose queue is full
+     */
+    public enum OverflowPolicy {
+        // blocks the dispatching thread until there is free space in the queue
+        BLOCK,
+        // discards the oldest queued message to make room for the new one
+        DROP_OLDEST,
+        // discards the new message
+        DROP_NEWEST
+    }
+
+    private static final Logger logger = LogManager.getLogger(OrderedDispatcher.class.getName());
+
+    private final String name;
+    private final String routingKey;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Map<String, Worker> workers;
+
+    /**
+     * @param name           - name of the dispatcher, used to name worker threads
+     * @param routingKey     - log routing key of the worker threads
+     * @param queueCapacity  - maximum number of messages waiting to be processed per key
+     * @param overflowPolicy - policy to apply when a queue is full, for keys registered without their own policy
+     */
+    public OrderedDispatcher(String name, String routingKey, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this.name = name;
+        this.routingKey = routingKey;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.workers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registers an handler for messages with a given key and starts its worker thread
+     *
+     * @param key     - key of the messages
+     * @param handler - handler applied to every message dispatched with this key
+     */
+    public void register(String key, Consumer<M> handler) {
+        register(key, handler, this.overflowPolicy);
+    }
+
+    /**
+     * Registers an handler for messages with a given key and starts its worker thread. Keys whose messages modify the
+     * previous state (deltas) must use BLOCK, dropping one of them would corrupt the state.
+     *
+     * @param key            - key of the messages
+     * @param handler        - handler applied to every message dispatched with this key
+     * @param overflowPolicy - policy to apply when the queue of this key is full
+     */
+    public void register(String key, Consumer<M> handler, OverflowPolicy overflowPolicy) {
+        Worker worker = new Worker(key, handler, overflowPolicy);
+        if (this.workers.putIfAbsent(key, worker) == null)
+            worker.start();
+    }
+
+    /**
+     * Queues a message to be processed by the worker of the given key
+     *
+     * @param key     - key of the message
+     * @param message - message to be processed
+     * @return true if message was queued, false if it was dropped or there is no worker for the key
+     */
+    public boolean dispatch(String key, M message) {
+        Worker worker = this.workers.get(key);
+        if (worker == null)
+            return false;
+        return worker.offer(message);
+    }
+
+    /**
+     * Returns number of messages waiting to be processed for a key
+     *
+     * @param key - key of the messages
+     * @return queue depth, -1 if no worker is registered for the key
+     */
+    public int getQueueDepth(String key) {
+        Worker worker = this.workers.get(key);
+        return worker == null ? -1 : worker.queue.size();
+    }
+
+    /**
+     * Returns highest queue depth observed for a key
+     *
+     * @param key - key of the messages
+     * @return maximum queue depth, -1 if no worker is registered for the key
+     */
+    public int getMaxQueueDepth(String key) {
+        Worker worker = this.workers.get(key);
+        return worker == null ? -1 : worker.maxDepth;
+    }
+
+    /**
+     * Returns number of messages dropped for a key, due to the overflow policy
+     *
+     * @param key - key of the messages
+     * @return number of dropped messages, -1 if no worker is registered for the key
+     */
+    public long getDroppedMessages(String key) {
+        Worker worker = this.workers.get(key);
+        return worker == null ? -1L : worker.dropped.get();
+    }
+
+    /**
+     * Stops all worker threads, messages still queued are discarded
+     */
+    public void shutdown() {
+        for (Worker worker : this.workers.values())
+            worker.interrupt();
+        this.workers.clear();
+    }
+
+    /**
+     * Thread that processes, in order, the messages of a single key
+     */
+    private class Worker extends Thread {
+        private final Consumer<M> handler;
+        private final OverflowPolicy overflowPolicy;
+        private final BlockingQueue<M> queue;
+        private final AtomicLong dropped;
+        private volatile int maxDepth;
+
+        Worker(String key, Consumer<M> handler, OverflowPolicy overflowPolicy) {
+            super(String.format("%s-%s", name, key));
+            this.handler = handler;
+            this.overflowPolicy = overflowPolicy;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.dropped = new AtomicLong();
+            this.maxDepth = 0;
+        }
+
+        boolean offer(M message) {
+            boolean queued = this.queue.offer(message);
+            if (!queued) {
+                switch (this.overflowPolicy) {
+                    case BLOCK:
+                        try {
+                            this.queue.put(message);
+                            queued = true;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        while (!queued) {
+                            if (this.queue.poll() != null)
+                                this.dropped.incrementAndGet();
+                            queued = this.queue.offer(message);
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        this.dropped.incrementAndGet();
+                        break;
+                }
+            }
+            int depth = this.queue.size();
+            if (depth > this.maxDepth)
+                this.maxDepth = depth;
+            return queued;
+        }
+
+        @Override
+        public void run() {
+            ThreadContext.put("ROUTINGKEY", routingKey);
+            while (!Thread.interrupted()) {
+                M message;
+                try {
+                    message = this.queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    this.handler.accept(message);
+                } catch (Exception e) {
+                    // one bad message must not stop the worker
+                    logger.error(String.format("Error processing message on %s: ", getName()), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Price levels of an order book stored in primitive arrays indexed by price tick. Only a window of 'capacity' ticks is
+ * kept in memory, levels outside of it are ignored until the window is moved with recenter().
+ * Updates and reads do not allocate memory. This class is not thread safe.
+ */
+public class PriceLevelBook {
+    private final double tickSize;
+    private final int capacity;
+    private final double[] bidSize;
+    private final double[] askSize;
+    // tick of the price level stored at index 0
+    private long baseTick;
+    // index of best bid / best ask, -1 if side is empty
+    private int bestBid;
+    private int bestAsk;
+
+    /**
+     * @param tickSize - minimum price increment
+     * @param capacity - number of price ticks kept in memory
+     */
+    public PriceLevelBook(double tickSize, int capacity) {
+        this.tickSize = tickSize;
+        this.capacity = capacity;
+        this.bidSize = new double[capacity];
+        this.askSize = new double[capacity];
+        this.baseTick = 0L;
+        this.bestBid = -1;
+        this.bestAsk = -1;
+    }
+
+    /**
+     * Converts a price to its tick
+     *
+     * @param price - price to convert
+     * @return tick of price
+     */
+    public long toTick(double price) {
+        return Math.round(price / this.tickSize);
+    }
+
+    /**
+     * Converts a tick to its price
+     *
+     * @param tick - tick to convert
+     * @return price of tick
+     */
+    public double toPrice(long tick) {
+        return tick * this.tickSize;
+    }
+
+    public double getTickSize() {
+        return tickSize;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Checks if a tick is inside the window kept in memory
+     *
+     * @param tick - tick to check
+     * @return true if tick can be stored, false otherwise
+     */
+    public boolean inWindow(long tick) {
+        long index = tick - this.baseTick;
+        return index >= 0 && index < this.capacity;
+    }
+
+    /**
+     * Removes all price levels
+     */
+    public void clear() {
+        Arrays.fill(this.bidSize, 0d);
+        Arrays.fill(this.askSize, 0d);
+        this.bestBid = -1;
+        this.bestAsk = -1;
+    }
+
+    /**
+     * Moves the window kept in memory so it is centered in a given tick. Levels that fall outside the new window are
+     * discarded.
+     *
+     * @param midTick - tick at the center of the new window
+     */
+    public void recenter(long midTick) {
+        long shift = (midTick - this.capacity / 2) - this.baseTick;
+        if (shift == 0)
+            return;
+        this.baseTick += shift;
+        if (Math.abs(shift) >= this.capacity) {
+            clear();
+            return;
+        }
+        int s = (int) shift;
+        shiftArray(this.bidSize, s);
+        shiftArray(this.askSize, s);
+        this.bestBid = this.bestBid < 0 ? -1 : this.bestBid - s;
+        this.bestAsk = this.bestAsk < 0 ? -1 : this.bestAsk - s;
+        if (this.bestBid >= this.capacity)
+            this.bestBid = nextBid(this.capacity - 1);
+        else if (this.bestBid < 0)
+            this.bestBid = -1;
+        if (this.bestAsk < 0)
+            this.bestAsk = nextAsk(0);
+        else if (this.bestAsk >= this.capacity)
+            this.bestAsk = -1;
+    }
+
+    /**
+     * Sets size of a price level, a size of 0 removes the level
+     *
+     * @param bid  - true if bid side, false if ask side
+     * @param tick - tick of price level
+     * @param size - new size of price level
+     * @return true if level was stored, false if tick is outside the window kept in memory
+     */
+    public boolean set(boolean bid, long tick, double size) {
+        if (!inWindow(tick))
+            return false;
+        int index = (int) (tick - this.baseTick);
+        if (bid) {
+            this.bidSize[index] = size;
+            if (size > 0d) {
+                if (index > this.bestBid)
+                    this.bestBid = index;
+            } else if (index == this.bestBid)
+                this.bestBid = nextBid(index - 1);
+        } else {
+            this.askSize[index] = size;
+            if (size > 0d) {
+                if (this.bestAsk < 0 || index < this.bestAsk)
+                    this.bestAsk = index;
+            } else if (index == this.bestAsk)
+                this.bestAsk = nextAsk(index + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Returns size of a price level
+     *
+     * @param bid  - true if bid side, false if ask side
+     * @param tick - tick of price level
+     * @return size of price level, 0 if empty or outside the window kept in memory
+     */
+    public double getSize(boolean bid, long tick) {
+        if (!inWindow(tick))
+            return 0d;
+        int index = (int) (tick - this.baseTick);
+        return bid ? this.bidSize[index] : this.askSize[index];
+    }
+
+    public boolean hasBid() {
+        return this.bestBid >= 0;
+    }
+
+    public boolean hasAsk() {
+        return this.bestAsk >= 0;
+    }
+
+    /**
+     * @return tick of best bid, Long.MIN_VALUE if there are no bids
+     */
+    public long getBestBidTick() {
+        return this.bestBid < 0 ? Long.MIN_VALUE : this.baseTick + this.bestBid;
+    }
+
+    /**
+     * @return tick of best ask, Long.MAX_VALUE if there are no asks
+     */
+    public long getBestAskTick() {
+        return this.bestAsk < 0 ? Long.MAX_VALUE : this.baseTick + this.bestAsk;
+    }
+
+    /**
+     * @return size of best bid, 0 if there are no bids
+     */
+    public double getBestBidSize() {
+        return this.bestBid < 0 ? 0d : this.bidSize[this.bestBid];
+    }
+
+    /**
+     * @return size of best ask, 0 if there are no asks
+     */
+    public double getBestAskSize() {
+        return this.bestAsk < 0 ? 0d : this.askSize[this.bestAsk];
+    }
+
+    /**
+     * Copies the first n price levels of a side, starting at the top of the book
+     *
+     * @param bid    - true if bid side, false if ask side
+     * @param n      - maximum number of levels to copy
+     * @param prices - array where prices are copied to
+     * @param sizes  - array where sizes are copied to
+     * @return number of levels copied
+     */
+    public int getTopN(boolean bid, int n, double[] prices, double[] sizes) {
+        int count = 0;
+        n = Math.min(n, Math.min(prices.length, sizes.length));
+        if (bid) {
+            for (int i = this.bestBid; i >= 0 && count < n; i--) {
+                if (this.bidSize[i] > 0d) {
+                    prices[count] = toPrice(this.baseTick + i);
+                    sizes[count++] = this.bidSize[i];
+                }
+            }
+        } else if (this.bestAsk >= 0) {
+            for (int i = this.bestAsk; i < this.capacity && count < n; i++) {
+                if (this.askSize[i] > 0d) {
+                    prices[count] = toPrice(this.baseTick + i);
+                    sizes[count++] = this.askSize[i];
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of sizes from the top of the book up to (and including) a given tick
+     *
+     * @param bid       - true if bid side, false if ask side
+     * @param limitTick - last tick to include
+     * @return cumulative size
+     */
+    public double getCumulativeDepth(boolean bid, long limitTick) {
+        double depth = 0d;
+        long limit = Math.max(-1L, Math.min(this.capacity - 1L, limitTick - this.baseTick));
+        if (bid) {
+            for (int i = this.bestBid; i >= 0 && i >= limit; i--)
+                depth += this.bidSize[i];
+        } else if (this.bestAsk >= 0) {
+            for (int i = this.bestAsk; i <= limit; i++)
+                depth += this.askSize[i];
+        }
+        return depth;
+    }
+
+    /**
+     * Returns index of highest non empty bid at or below 'from'
+     */
+    private int nextBid(int from) {
+        for (int i = Math.min(from, this.capacity - 1); i >= 0; i--) {
+            if (this.bidSize[i] > 0d)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns index of lowest non empty ask at or above 'from'
+     */
+    private int nextAsk(int from) {
+        for (int i = Math.max(from, 0); i < this.capacity; i++) {
+            if (this.askSize[i] > 0d)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Shifts array content 'shift' positions to the left (right if negative), filling vacated positions with 0
+     */
+    private static void shiftArray(double[] arr, int shift) {
+        if (shift > 0) {
+            System.arraycopy(arr, shift, arr, 0, arr.length - shift);
+            Arrays.fill(arr, arr.length - shift, arr.length, 0d);
+        } else {
+            System.arraycopy(arr, 0, arr, -shift, arr.length + shift);
+            Arrays.fill(arr, 0, -shift, 0d);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client side rate limiter of the rest requests of an api key, a token bucket refilled continuously over the window of
+ * the exchange limit and corrected with the remaining budget reported in the response headers.
+ * Requests are served by priority lane: a lane can not take tokens while a more urgent lane is waiting, and each lane
+ * leaves a reserve of the budget to the more urgent ones, so cancels still go through when the budget is almost spent.
+ * All clients of the same venue and key share one governor, see shared().
+ */
+public class RateGovernor {
+
+    /**
+     * Priority lanes, most urgent first
+     */
+    public enum Priority {
+        CANCEL(0.0),
+        AMEND(0.1),
+        NEW(0.25),
+        READ(0.5);
+
+        // fraction of the budget this lane leaves to the more urgent lanes
+        private final double reserve;
+
+        Priority(double reserve) {
+            this.reserve = reserve;
+        }
+    }
+
+    private static final Logger logger = LogManager.getLogger(RateGovernor.class.getName());
+    private static final ConcurrentHashMap<String, RateGovernor> SHARED = new ConcurrentHashMap<>();
+    // delay returned to a lane waiting behind a more urgent one, in ms
+    private static final long MIN_DELAY = 10L;
+
+    private final String name;
+    private final long windowMs;
+    private double capacity;
+    private double tokens;
+    private long lastRefill;
+    private long holdOffUntil;
+    // number of threads waiting on each lane
+    private final int[] waiting;
+
+    /**
+     * @param name     - name of the governor, used in logs
+     * @param capacity - requests (or weight) allowed per window
+     * @param windowMs - window of the limit, in ms
+     */
+    public RateGovernor(String name, int capacity, long windowMs) {
+        this.name = name;
+        this.windowMs = windowMs;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.currentTimeMillis();
+        this.holdOffUntil = 0L;
+        this.waiting = new int[Priority.values().length];
+    }
+
+    /**
+     * Returns the governor shared by all clients of an api key, creating it on first use
+     *
+     * @param venue    - exchange name
+     * @param apiKey   - api key
+     * @param capacity - requests (or weight) allowed per window
+     * @param windowMs - window of the limit, in ms
+     * @return governor of the key
+     */
+    public static RateGovernor shared(String venue, String apiKey, int capacity, long windowMs) {
+        return SHARED.computeIfAbsent(venue + ":" + apiKey, k -> new RateGovernor(venue, capacity, windowMs));
+    }
+
+    /**
+     * Waits until the request can be sent and takes its cost from the budget
+     *
+     * @param priority - lane of the request
+     * @param cost     - cost of the request
+     */
+    public synchronized void acquire(Priority priority, int cost) throws InterruptedException {
+        this.waiting[priority.ordinal()]++;
+        try {
+            long delay;
+            while ((delay = take(priority, cost)) > 0L)
+                wait(delay);
+        } finally {
+            this.waiting[priority.ordinal()]--;
+        }
+        // a less urgent lane may be able to go now
+        notifyAll();
+    }
+
+    /**
+     * Takes the cost of the request from the budget if it can be sent now, without waiting
+     *
+     * @param priority - lane of the request
+     * @param cost     - cost of the request
+     * @return 0 if the request can be sent, otherwise ms to wait before trying again
+     */
+    public synchronized long tryAcquire(Priority priority, int cost) {
+        return take(priority, cost);
+    }
+
+    /**
+     * Corrects the budget with the one reported by the exchange
+     *
+     * @param remaining - requests (or weight) remaining in the current window
+     * @param limit     - requests (or weight) allowed per window, -1 if unknown
+     */
+    public synchronized void update(long remaining, long limit) {
+        refill();
+        if (limit > 0L && limit != (long) this.capacity) {
+            logger.info(String.format("%s rate limit is %d per %d ms.", this.name, limit, this.windowMs));
+            this.capacity = limit;
+        }
+        // requests still in flight are not in the remaining budget yet, keep the lowest
+        this.tokens = Math.max(0.0, Math.min(this.tokens, remaining));
+    }
+
+    /**
+     * Stops all lanes for a while, when the exchange rejected a request for exceeding the limit
+     *
+     * @param delayMs - minimum delay from now, in ms
+     */
+    public synchronized void holdOff(long delayMs) {
+        this.holdOffUntil = Math.max(this.holdOffUntil, System.currentTimeMillis() + delayMs);
+        this.tokens = 0.0;
+        logger.warn(String.format("%s rate limit exceeded, holding off requests for %d ms.", this.name, delayMs));
+    }
+
+    /**
+     * @return tokens currently available
+     */
+    public synchronized double getAvailable() {
+        refill();
+        return this.tokens;
+    }
+
+    /**
+     * @return 0 if the cost was taken, ms to wait otherwise
+     */
+    private long take(Priority priority, int cost) {
+        long now = refill();
+        if (now < this.holdOffUntil)
+            return this.holdOffUntil - now;
+        double needed = Math.min(this.capacity, cost + priority.reserve * this.capacity);
+        long delay = (long) Math.ceil((needed - this.tokens) * this.windowMs / this.capacity);
+        for (int i = 0; i < priority.ordinal(); i++) {
+            // more urgent lanes go first, waiting threads are woken when they are served
+            if (this.waiting[i] > 0)
+                return Math.max(delay, MIN_DELAY);
+        }
+        if (delay <= 0L) {
+            this.tokens -= cost;
+            return 0L;
+        }
+        return delay;
+    }
+
+    private long refill() {
+        long now = System.currentTimeMillis();
+        if (now > this.lastRefill) {
+            this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.capacity / this.windowMs);
+            this.lastRefill = now;
+        }
+        return now;
+    }
+}
@@ -0,0 +1,162 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reconnects a web socket client with jittered exponential backoff. Attempts run in a loop, on the caller thread for the
+ * first connection and on a background thread after a drop, so failed attempts never deepen the stack.
+ * The first attempt after a drop of a stable connection is immediate, the following ones wait a random delay between half
+ * and all of min(maxDelay, minDelay * 2^attempts), and never less than a hold off requested by the server (eg: 429).
+ */
+public class ReconnectManager {
+
+    /**
+     * Opens the connection of a client
+     */
+    public interface Connector {
+        /**
+         * Opens the connection, blocking until it is open
+         *
+         * @throws Exception - if the connection could not be opened
+         */
+        void connect() throws Exception;
+    }
+
+    private static final Logger logger = LogManager.getLogger(ReconnectManager.class.getName());
+
+    private final String name;
+    private final Connector connector;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    // consecutive attempts since the connection was last stable
+    private int attempts;
+    // true while the background thread is reconnecting
+    private boolean running;
+    // true if the connection dropped again while reconnecting
+    private boolean requested;
+    private long connectedAt;
+    private long holdOffUntil;
+
+    /**
+     * @param name       - name of the client, used as log routing key and to name the reconnect thread
+     * @param connector  - opens the connection of the client
+     * @param minDelayMs - delay after the first failed attempt, in ms
+     * @param maxDelayMs - maximum delay between attempts, in ms, a connection open for longer is considered stable
+     */
+    public ReconnectManager(String name, Connector connector, long minDelayMs, long maxDelayMs) {
+        this.name = name;
+        this.connector = connector;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.attempts = 0;
+        this.running = false;
+        this.requested = false;
+        this.connectedAt = 0L;
+        this.holdOffUntil = 0L;
+    }
+
+    /**
+     * Connects, blocking the caller until the connection is open
+     */
+    public void connect() throws InterruptedException {
+        while (true) {
+            boolean connected = attempt();
+            long delay;
+            synchronized (this) {
+                this.attempts++;
+                if (connected) {
+                    this.connectedAt = System.currentTimeMillis();
+                    return;
+                }
+                delay = backoff();
+            }
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Called when the connection drops, reconnects on a background thread and returns immediately
+     */
+    public void reconnect() {
+        synchronized (this) {
+            this.requested = true;
+            if (this.running)
+                return;
+            this.running = true;
+            if (System.currentTimeMillis() - this.connectedAt >= this.maxDelayMs)
+                this.attempts = 0;
+        }
+        Thread thread = new Thread(this::run, this.name + "-reconnect");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Delays the next attempts, when the server asks to wait before connecting again
+     *
+     * @param delayMs - minimum delay from now, in ms
+     */
+    public synchronized void holdOff(long delayMs) {
+        this.holdOffUntil = Math.max(this.holdOffUntil, System.currentTimeMillis() + delayMs);
+    }
+
+    /**
+     * @return consecutive attempts since the connection was last stable
+     */
+    public synchronized int getAttempts() {
+        return this.attempts;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                long delay;
+                synchronized (this) {
+                    delay = this.attempts == 0 ? this.holdOffUntil - System.currentTimeMillis() : backoff();
+                }
+                if (delay > 0)
+                    Thread.sleep(delay);
+                synchronized (this) {
+                    this.requested = false;
+                }
+                boolean connected = attempt();
+                synchronized (this) {
+                    this.attempts++;
+                    if (connected) {
+                        this.connectedAt = System.currentTimeMillis();
+                        // the connection may have dropped again while connecting
+                        if (!this.requested) {
+                            this.running = false;
+                            return;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                this.running = false;
+            }
+        }
+    }
+
+    private boolean attempt() {
+        try {
+            this.connector.connect();
+            return true;
+        } catch (Exception e) {
+            ThreadContext.put("ROUTINGKEY", this.name);
+            logger.error(String.format("Failed to connect to web socket server, attempt %d.", this.getAttempts() + 1));
+            return false;
+        }
+    }
+
+    private long backoff() {
+        long delay = Math.min(this.maxDelayMs, this.minDelayMs << Math.min(Math.max(this.attempts - 1, 0), 20));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        return Math.max(delay, this.holdOffUntil - System.currentTimeMillis());
+    }
+}
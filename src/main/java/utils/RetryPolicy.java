@@ -0,0 +1,80 @@
+package utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy of a kind of rest request: a request is retried at most maxAttempts times, never past its deadline, after
+ * a jittered exponential backoff (random between half and all of min(maxDelay, minDelay * 2^(attempt-1))).
+ * Retries are also limited by a budget shared by all requests of the policy: each request deposits 'budgetRatio' tokens
+ * and each retry withdraws one, so during an outage retries add at most that fraction of extra load.
+ * Requests that are not idempotent are only retried when the server surely did not process them.
+ */
+public class RetryPolicy {
+    // tokens of the budget, and initial balance, so isolated failures are always retried
+    private static final double MAX_BUDGET = 10.0;
+
+    private final String name;
+    private final int maxAttempts;
+    private final long deadlineMs;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final double budgetRatio;
+    private final boolean idempotent;
+    private double budget;
+
+    /**
+     * @param name        - name of the kind of request, used in logs
+     * @param maxAttempts - maximum number of attempts, the first included
+     * @param deadlineMs  - maximum time from the first attempt to the last retry, in ms
+     * @param minDelayMs  - backoff after the first failed attempt, in ms
+     * @param maxDelayMs  - maximum backoff, in ms
+     * @param budgetRatio - tokens deposited in the retry budget by each request
+     * @param idempotent  - true if the request can be repeated safely
+     */
+    public RetryPolicy(String name, int maxAttempts, long deadlineMs, long minDelayMs, long maxDelayMs, double budgetRatio,
+                       boolean idempotent) {
+        this.name = name;
+        this.maxAttempts = maxAttempts;
+        this.deadlineMs = deadlineMs;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.budgetRatio = budgetRatio;
+        this.idempotent = idempotent;
+        this.budget = MAX_BUDGET;
+    }
+
+    /**
+     * Called once per request, before its first attempt
+     */
+    public synchronized void deposit() {
+        this.budget = Math.min(MAX_BUDGET, this.budget + this.budgetRatio);
+    }
+
+    /**
+     * Decides if a failed attempt is retried, withdrawing the retry from the budget
+     *
+     * @param attempts       - attempts made so far
+     * @param startMillis    - time of the first attempt, in epoch ms
+     * @param minDelayMs     - minimum delay asked by the server (eg: until the rate limit resets), 0 if none
+     * @param maybeProcessed - true if the server may have processed the request
+     * @return delay before the retry in ms, -1 if the request must not be retried
+     */
+    public long retryDelay(int attempts, long startMillis, long minDelayMs, boolean maybeProcessed) {
+        if (attempts >= this.maxAttempts || (maybeProcessed && !this.idempotent))
+            return -1L;
+        long backoff = Math.min(this.maxDelayMs, this.minDelayMs << Math.min(Math.max(attempts - 1, 0), 20));
+        long delay = Math.max(minDelayMs, backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+        if (System.currentTimeMillis() + delay - startMillis > this.deadlineMs)
+            return -1L;
+        synchronized (this) {
+            if (this.budget < 1.0)
+                return -1L;
+            this.budget -= 1.0;
+        }
+        return delay;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
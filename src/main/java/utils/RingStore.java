@@ -0,0 +1,128 @@
+package utils;
+
+import java.util.function.IntFunction;
+
+/**
+ * Fixed capacity store of the last elements added, that overwrites the oldest element when full. Adding is O(1) and
+ * does not allocate memory. Readers get a snapshot array, oldest element first, that is only rebuilt after the store
+ * changed, so repeated reads between updates share the same array. Snapshots must not be modified by readers.
+ *
+ * @param <T> - type of the elements
+ */
+public class RingStore<T> {
+    private final T[] elements;
+    private final IntFunction<T[]> arrayFactory;
+    // index where next element is written
+    private int head;
+    private int size;
+    // incremented on every change
+    private long version;
+    private T[] snapshot;
+    private long snapshotVersion;
+
+    /**
+     * @param capacity     - maximum number of elements kept
+     * @param arrayFactory - creates arrays of the element type (eg: Execution[]::new)
+     */
+    public RingStore(int capacity, IntFunction<T[]> arrayFactory) {
+        this.elements = arrayFactory.apply(capacity);
+        this.arrayFactory = arrayFactory;
+        this.head = 0;
+        this.size = 0;
+        this.version = 0L;
+        this.snapshot = arrayFactory.apply(0);
+        this.snapshotVersion = 0L;
+    }
+
+    /**
+     * Adds an element, overwriting the oldest element if store is full
+     *
+     * @param e - element to add
+     */
+    public synchronized void add(T e) {
+        this.elements[this.head] = e;
+        this.head = (this.head + 1) % this.elements.length;
+        if (this.size < this.elements.length)
+            this.size++;
+        this.version++;
+    }
+
+    /**
+     * Replaces the content of the store
+     *
+     * @param data - new elements, oldest first, only the last 'capacity' elements are kept
+     */
+    public synchronized void replace(T[] data) {
+        clear();
+        for (T e : data)
+            add(e);
+    }
+
+    /**
+     * Removes all elements
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < this.elements.length; i++)
+            this.elements[i] = null;
+        this.head = 0;
+        this.size = 0;
+        this.version++;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    public int capacity() {
+        return this.elements.length;
+    }
+
+    /**
+     * @return number of changes applied to the store
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns element by age
+     *
+     * @param i - index, 0 is the oldest element
+     * @return element
+     */
+    public synchronized T get(int i) {
+        if (i < 0 || i >= this.size)
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", i, this.size));
+        return this.elements[physicalIndex(i)];
+    }
+
+    /**
+     * @return newest element, null if store is empty
+     */
+    public synchronized T getLast() {
+        return this.size == 0 ? null : this.elements[physicalIndex(this.size - 1)];
+    }
+
+    /**
+     * Returns elements in store, oldest first
+     *
+     * @return snapshot array, shared between readers until the store changes
+     */
+    public synchronized T[] snapshot() {
+        if (this.snapshotVersion != this.version) {
+            T[] copy = this.arrayFactory.apply(this.size);
+            for (int i = 0; i < this.size; i++)
+                copy[i] = this.elements[physicalIndex(i)];
+            this.snapshot = copy;
+            this.snapshotVersion = this.version;
+        }
+        return this.snapshot;
+    }
+
+    private int physicalIndex(int i) {
+        int first = this.head - this.size;
+        if (first < 0)
+            first += this.elements.length;
+        return (first + i) % this.elements.length;
+    }
+}
@@ -0,0 +1,108 @@
+package utils;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed capacity ring of the last elements of a stream, with a single writer and readers that never lock. Each element
+ * gets a sequence number, 0 for the first one, so readers can ask only for the elements added since their last read.
+ * Same protocol as TradeTape, for streams of objects (eg: klines); elements must not be modified once added.
+ *
+ * @param <T> - type of the elements
+ */
+public class SequencedRing<T> {
+    private final int mask;
+    private final Object[] elements;
+    // sequence of the next element the writer starts to write, slots of sequences below claimed - capacity are overwritten
+    private volatile long claimed;
+    // sequence of the next element, elements below it are complete
+    private volatile long published;
+
+    /**
+     * @param capacity - maximum number of elements kept, rounded up to a power of two
+     */
+    public SequencedRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.elements = new Object[size];
+        this.claimed = 0L;
+        this.published = 0L;
+    }
+
+    /**
+     * Adds an element, overwriting the oldest one if the ring is full. Must only be called by the writer thread.
+     *
+     * @param e - element to add
+     * @return sequence of the element
+     */
+    public long add(T e) {
+        long sequence = this.claimed;
+        this.claimed = sequence + 1;
+        VarHandle.storeStoreFence();
+        this.elements[(int) sequence & this.mask] = e;
+        this.published = sequence + 1;
+        return sequence;
+    }
+
+    /**
+     * @return sequence of the next element (number of elements added so far)
+     */
+    public long getSequence() {
+        return this.published;
+    }
+
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @return newest element, null if ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T getLast() {
+        while (true) {
+            long end = this.published;
+            if (end == 0L)
+                return null;
+            T e = (T) this.elements[(int) (end - 1) & this.mask];
+            VarHandle.loadLoadFence();
+            // overwritten only if the writer lapped the whole ring meanwhile
+            if (this.claimed - capacity() < end)
+                return e;
+        }
+    }
+
+    /**
+     * @return elements in the ring, oldest first
+     */
+    public List<T> snapshot() {
+        return since(0L);
+    }
+
+    /**
+     * Returns the elements from a sequence on, still in the ring. Elements already overwritten are skipped.
+     *
+     * @param fromSequence - sequence of the first element wanted
+     * @return elements, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> since(long fromSequence) {
+        int capacity = capacity();
+        long end = this.published;
+        long start = Math.max(fromSequence, end - capacity);
+        if (start >= end)
+            return new ArrayList<>(0);
+        Object[] copy = new Object[(int) (end - start)];
+        for (int i = 0; i < copy.length; i++)
+            copy[i] = this.elements[(int) (start + i) & this.mask];
+        // copies must be done before the writer position is read again
+        VarHandle.loadLoadFence();
+        long overwritten = this.claimed - capacity;
+        int dropped = (int) Math.min(copy.length, Math.max(0L, overwritten - start));
+        List<T> result = new ArrayList<>(copy.length - dropped);
+        for (int i = dropped; i < copy.length; i++)
+            result.add((T) copy[i]);
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, preallocated single-producer / single-consumer queue. Only one thread may call offer() / put() and only one
+ * thread may call poll() / take() at a time. Keeps occupancy and wakeup latency counters, the wakeup latency being the
+ * time between a message being published and the idle consumer picking it up.
+ *
+ * @param <E> - type of the elements
+ */
+public class SpscRingBuffer<E> {
+    private final Object[] buffer;
+    private final long[] publishNanos;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    // next position to be read by the consumer
+    private final AtomicLong head;
+    // next position to be written by the producer
+    private final AtomicLong tail;
+    // consumer thread, while waiting for messages
+    private volatile Thread waiter;
+
+    // counters
+    private volatile int maxOccupancy;
+    private volatile long wakeups;
+    private volatile long wakeupLatencyTotalNanos;
+    private volatile long wakeupLatencyMaxNanos;
+
+    /**
+     * @param capacity     - maximum number of elements, rounded up to a power of 2
+     * @param waitStrategy - strategy used by take() while the buffer is empty
+     */
+    public SpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        this.buffer = new Object[size];
+        this.publishNanos = new long[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+        this.waiter = null;
+    }
+
+    /**
+     * Adds an element, if there is free space
+     *
+     * @param e - element to add
+     * @return true if element was added, false if buffer is full
+     */
+    public boolean offer(E e) {
+        long t = this.tail.get();
+        int occupancy = (int) (t - this.head.get());
+        if (occupancy > this.mask)
+            return false;
+        int index = (int) (t & this.mask);
+        this.buffer[index] = e;
+        this.publishNanos[index] = System.nanoTime();
+        this.tail.set(t + 1);
+        if (occupancy + 1 > this.maxOccupancy)
+            this.maxOccupancy = occupancy + 1;
+        if (this.waitStrategy.parks()) {
+            Thread w = this.waiter;
+            if (w != null)
+                LockSupport.unpark(w);
+        }
+        return true;
+    }
+
+    /**
+     * Adds an element, waiting for free space if buffer is full
+     *
+     * @param e - element to add
+     */
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Removes the oldest element
+     *
+     * @return oldest element, null if buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = this.head.get();
+        if (h == this.tail.get())
+            return null;
+        int index = (int) (h & this.mask);
+        E e = (E) this.buffer[index];
+        this.buffer[index] = null;
+        this.head.lazySet(h + 1);
+        return e;
+    }
+
+    /**
+     * Removes the oldest element, waiting with the wait strategy while buffer is empty
+     *
+     * @return oldest element
+     */
+    public E take() throws InterruptedException {
+        E e = poll();
+        if (e != null)
+            return e;
+
+        int idleCount = 0;
+        Thread current = Thread.currentThread();
+        while (true) {
+            if (Thread.interrupted()) {
+                this.waiter = null;
+                throw new InterruptedException();
+            }
+            // registers as waiter before checking again, so a publish in between is not missed
+            this.waiter = current;
+            long h = this.head.get();
+            if (h != this.tail.get()) {
+                this.waiter = null;
+                long latency = System.nanoTime() - this.publishNanos[(int) (h & this.mask)];
+                e = poll();
+                record_wakeup(latency);
+                return e;
+            }
+            idleCount = this.waitStrategy.idle(idleCount);
+        }
+    }
+
+    /**
+     * @return number of elements in the buffer
+     */
+    public int size() {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    public int capacity() {
+        return this.buffer.length;
+    }
+
+    /**
+     * @return highest number of elements that were in the buffer at once
+     */
+    public int getMaxOccupancy() {
+        return this.maxOccupancy;
+    }
+
+    /**
+     * @return number of times the consumer woke up from idle to consume an element
+     */
+    public long getWakeups() {
+        return this.wakeups;
+    }
+
+    /**
+     * @return average wakeup latency in ns, 0 if the consumer never woke up
+     */
+    public long getAvgWakeupLatencyNanos() {
+        long n = this.wakeups;
+        return n == 0 ? 0L : this.wakeupLatencyTotalNanos / n;
+    }
+
+    /**
+     * @return maximum wakeup latency in ns
+     */
+    public long getMaxWakeupLatencyNanos() {
+        return this.wakeupLatencyMaxNanos;
+    }
+
+    // only called by the consumer thread
+    private void record_wakeup(long latency) {
+        this.wakeupLatencyTotalNanos += latency;
+        this.wakeups++;
+        if (latency > this.wakeupLatencyMaxNanos)
+            this.wakeupLatencyMaxNanos = latency;
+    }
+}
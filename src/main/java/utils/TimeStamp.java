@@ -1,18 +1,163 @@
 package utils;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-
+/**
+ * ISO-8601 timestamp parser / formatter (eg: '2020-06-05T12:01:02.123Z'), working directly on chars without creating
+ * Date or DateFormat objects. Accepts a fraction of second with any number of digits (truncated to ms) and a 'Z' or
+ * '+HH:MM' / '-HH:MM' offset, timestamps without offset are UTC.
+ */
 public class TimeStamp {
+    private static final long MS_PER_DAY = 86400000L;
 
+    /**
+     * Parses an ISO-8601 timestamp
+     *
+     * @param timestamp - timestamp
+     * @return epoch time in ms, -1 if timestamp is not valid
+     */
     public static long getTimestamp(String timestamp) {
-        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
-        try {
-            return format.parse(timestamp).getTime();
-        } catch (ParseException e) {
-            // Do nothing
+        if (timestamp == null)
+            return -1L;
+        return parse(timestamp, 0, timestamp.length());
+    }
+
+    /**
+     * Parses an ISO-8601 timestamp from a sequence of chars
+     *
+     * @param s      - chars
+     * @param offset - index of first char of timestamp
+     * @param length - length of timestamp
+     * @return epoch time in ms, -1 if timestamp is not valid
+     */
+    public static long parse(CharSequence s, int offset, int length) {
+        int end = offset + length;
+        // yyyy-MM-ddTHH:mm:ss
+        if (length < 19 || s.charAt(offset + 4) != '-' || s.charAt(offset + 7) != '-'
+                || (s.charAt(offset + 10) != 'T' && s.charAt(offset + 10) != ' ')
+                || s.charAt(offset + 13) != ':' || s.charAt(offset + 16) != ':')
+            return -1L;
+        int year = digits(s, offset, 4);
+        int month = digits(s, offset + 5, 2);
+        int day = digits(s, offset + 8, 2);
+        int hour = digits(s, offset + 11, 2);
+        int minute = digits(s, offset + 14, 2);
+        int second = digits(s, offset + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+                || minute > 59 || second < 0 || second > 60)
+            return -1L;
+
+        int i = offset + 19;
+        int millis = 0;
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            int scale = 100, count = 0;
+            while (i < end && isDigit(s.charAt(i))) {
+                millis += (s.charAt(i) - '0') * scale;
+                scale /= 10;
+                i++;
+                count++;
+            }
+            if (count == 0)
+                return -1L;
+        }
+
+        int offsetMinutes = 0;
+        if (i < end) {
+            char c = s.charAt(i);
+            if (c == 'Z' && i + 1 == end) {
+                i++;
+            } else if ((c == '+' || c == '-') && end - i == 6 && s.charAt(i + 3) == ':') {
+                int offsetHour = digits(s, i + 1, 2), offsetMinute = digits(s, i + 4, 2);
+                if (offsetHour < 0 || offsetMinute < 0)
+                    return -1L;
+                offsetMinutes = (offsetHour * 60 + offsetMinute) * (c == '-' ? -1 : 1);
+                i = end;
+            } else
+                return -1L;
+        }
+
+        long days = daysFromCivil(year, month, day);
+        return days * MS_PER_DAY + ((hour * 60L + minute - offsetMinutes) * 60L + second) * 1000L + millis;
+    }
+
+    /**
+     * Formats epoch time as an UTC ISO-8601 timestamp with ms precision (eg: '2020-06-05T12:01:02.123Z')
+     *
+     * @param epochMillis - epoch time in ms
+     * @param dst         - builder where the timestamp is appended
+     * @return dst
+     */
+    public static StringBuilder format(long epochMillis, StringBuilder dst) {
+        long days = Math.floorDiv(epochMillis, MS_PER_DAY);
+        int msOfDay = (int) Math.floorMod(epochMillis, MS_PER_DAY);
+
+        // civil from days (Howard Hinnant's algorithm)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        pad(dst, year, 4).append('-');
+        pad(dst, month, 2).append('-');
+        pad(dst, day, 2).append('T');
+        pad(dst, msOfDay / 3600000, 2).append(':');
+        pad(dst, msOfDay / 60000 % 60, 2).append(':');
+        pad(dst, msOfDay / 1000 % 60, 2).append('.');
+        pad(dst, msOfDay % 1000, 3).append('Z');
+        return dst;
+    }
+
+    /**
+     * Formats epoch time as an UTC ISO-8601 timestamp with ms precision (eg: '2020-06-05T12:01:02.123Z')
+     *
+     * @param epochMillis - epoch time in ms
+     * @return timestamp
+     */
+    public static String format(long epochMillis) {
+        return format(epochMillis, new StringBuilder(24)).toString();
+    }
+
+    /**
+     * Returns number of days since 1970-01-01 (Howard Hinnant's algorithm)
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private static int digits(CharSequence s, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c))
+                return -1;
+            value = value * 10 + (c - '0');
         }
-        return -1L;
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static StringBuilder pad(StringBuilder dst, long value, int width) {
+        for (long p = pow10(width - 1); p > 1 && value < p; p /= 10)
+            dst.append('0');
+        return dst.append(value);
+    }
+
+    private static long pow10(int n) {
+        long p = 1;
+        for (int i = 0; i < n; i++)
+            p *= 10;
+        return p;
     }
 }
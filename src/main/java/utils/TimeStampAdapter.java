@@ -0,0 +1,36 @@
+package utils;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Gson adapter that decodes ISO-8601 timestamps into epoch ms, to be used on long fields with
+ * '@JsonAdapter(TimeStampAdapter.class)'. Missing / null timestamps are decoded as 0.
+ */
+public class TimeStampAdapter extends TypeAdapter<Long> {
+
+    @Override
+    public void write(JsonWriter out, Long value) throws IOException {
+        if (value == null || value == 0L)
+            out.nullValue();
+        else
+            out.value(TimeStamp.format(value));
+    }
+
+    @Override
+    public Long read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return 0L;
+        }
+        if (in.peek() == JsonToken.NUMBER)
+            return in.nextLong();
+        String timestamp = in.nextString();
+        long value = TimeStamp.parse(timestamp, 0, timestamp.length());
+        return value < 0 ? 0L : value;
+    }
+}
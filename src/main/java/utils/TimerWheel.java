@@ -0,0 +1,248 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel, a single thread that expires timeouts with a resolution of one tick. Scheduling, cancelling and
+ * rescheduling a timeout are O(1), and postponing an active timeout (eg: resetting a heartbeat on every message) is a
+ * single volatile write.
+ * Tasks run on the timer thread, so they must be short, blocking work should be handed off to another thread.
+ */
+public class TimerWheel {
+    private static final Logger logger = LogManager.getLogger(TimerWheel.class.getName());
+
+    private static final long SHARED_TICK_MS = 10L;
+    private static final int SHARED_WHEEL_SIZE = 512;
+    private static volatile TimerWheel shared;
+
+    private final long tickMs;
+    private final int mask;
+    private final Timeout[] buckets;
+    private final long startNanos;
+    private final Thread thread;
+    // last tick processed by the timer thread
+    private long currentTick;
+
+    /**
+     * @param name      - name of the timer thread
+     * @param tickMs    - duration of a tick in ms (timer resolution)
+     * @param wheelSize - number of buckets of the wheel, rounded up to a power of 2
+     */
+    public TimerWheel(String name, long tickMs, int wheelSize) {
+        int size = 1;
+        while (size < wheelSize)
+            size <<= 1;
+        this.tickMs = tickMs;
+        this.mask = size - 1;
+        this.buckets = new Timeout[size];
+        this.startNanos = System.nanoTime();
+        this.currentTick = 0L;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Returns timer shared by all connectors and strategies of this process
+     *
+     * @return shared timer
+     */
+    public static TimerWheel shared() {
+        if (shared == null) {
+            synchronized (TimerWheel.class) {
+                if (shared == null)
+                    shared = new TimerWheel("timer-wheel", SHARED_TICK_MS, SHARED_WHEEL_SIZE);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Schedules a task to be executed once after a delay
+     *
+     * @param task    - task to execute
+     * @param delayMs - delay in ms
+     * @return timeout, that can be cancelled or rescheduled
+     */
+    public Timeout schedule(Runnable task, long delayMs) {
+        Timeout timeout = new Timeout(task, 0L);
+        timeout.reschedule(delayMs);
+        return timeout;
+    }
+
+    /**
+     * Schedules a task to be executed periodically, the first execution happens after one period
+     *
+     * @param task     - task to execute
+     * @param periodMs - period in ms
+     * @return timeout, that can be cancelled to stop the periodic execution
+     */
+    public Timeout schedulePeriodic(Runnable task, long periodMs) {
+        Timeout timeout = new Timeout(task, periodMs);
+        timeout.reschedule(periodMs);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread, pending timeouts never expire
+     */
+    public void stop() {
+        this.thread.interrupt();
+    }
+
+    private long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+    }
+
+    private void run() {
+        while (!Thread.interrupted()) {
+            long nextTickNanos = this.startNanos + TimeUnit.MILLISECONDS.toNanos((this.currentTick + 1) * this.tickMs);
+            long sleepNanos = nextTickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+
+            Timeout expired = null;
+            synchronized (this) {
+                long nowMs = nowMs();
+                long targetTick = nowMs / this.tickMs;
+                // catches up on every tick elapsed since last run, at most one full revolution
+                long firstTick = Math.max(this.currentTick + 1, targetTick - this.mask);
+                for (long tick = firstTick; tick <= targetTick; tick++) {
+                    this.currentTick = tick;
+                    Timeout t = this.buckets[(int) (tick & this.mask)];
+                    while (t != null) {
+                        Timeout next = t.next;
+                        if (t.deadlineMs <= nowMs) {
+                            unlink(t);
+                            t.nextExpired = expired;
+                            expired = t;
+                        } else if (t.linkedTick <= tick) {
+                            // deadline was postponed while linked, moves timeout to its new bucket
+                            unlink(t);
+                            link(t);
+                        }
+                        t = next;
+                    }
+                }
+            }
+
+            while (expired != null) {
+                Timeout t = expired;
+                expired = t.nextExpired;
+                t.nextExpired = null;
+                t.fire();
+            }
+        }
+    }
+
+    private void link(Timeout t) {
+        long tick = Math.max(this.currentTick + 1, (t.deadlineMs + this.tickMs - 1) / this.tickMs);
+        int index = (int) (tick & this.mask);
+        t.linkedTick = tick;
+        t.bucket = index;
+        t.prev = null;
+        t.next = this.buckets[index];
+        if (t.next != null)
+            t.next.prev = t;
+        this.buckets[index] = t;
+        t.linked = true;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.prev != null)
+            t.prev.next = t.next;
+        else
+            this.buckets[t.bucket] = t.next;
+        if (t.next != null)
+            t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        t.linked = false;
+    }
+
+    /**
+     * Handle of a task scheduled on the timer
+     */
+    public final class Timeout {
+        private final Runnable task;
+        private final long periodMs;
+        private volatile long deadlineMs;
+        private volatile boolean cancelled;
+        private volatile boolean linked;
+        // fields below are guarded by the timer lock
+        private long linkedTick;
+        private int bucket;
+        private Timeout prev, next, nextExpired;
+
+        private Timeout(Runnable task, long periodMs) {
+            this.task = task;
+            this.periodMs = periodMs;
+            this.cancelled = false;
+            this.linked = false;
+        }
+
+        /**
+         * Sets a new deadline for this timeout, activating it again if it already expired or was cancelled
+         *
+         * @param delayMs - delay in ms from now
+         */
+        public void reschedule(long delayMs) {
+            long newDeadline = nowMs() + delayMs;
+            long oldDeadline = this.deadlineMs;
+            this.deadlineMs = newDeadline;
+            this.cancelled = false;
+            // postponing a linked timeout does not need the lock, it is moved when its old bucket is reached
+            if (this.linked && newDeadline >= oldDeadline)
+                return;
+            synchronized (TimerWheel.this) {
+                if (this.linked)
+                    unlink(this);
+                link(this);
+            }
+        }
+
+        /**
+         * Cancels this timeout, the task will not be executed unless the timeout is rescheduled
+         */
+        public void cancel() {
+            this.cancelled = true;
+            synchronized (TimerWheel.this) {
+                if (this.linked)
+                    unlink(this);
+            }
+        }
+
+        /**
+         * @return true if timeout is waiting to expire, false otherwise
+         */
+        public boolean isActive() {
+            return this.linked && !this.cancelled;
+        }
+
+        private void fire() {
+            if (this.cancelled)
+                return;
+            // deadline was postponed after the timeout was collected as expired
+            if (this.deadlineMs > nowMs()) {
+                synchronized (TimerWheel.this) {
+                    if (!this.linked)
+                        link(this);
+                }
+                return;
+            }
+            try {
+                this.task.run();
+            } catch (Exception e) {
+                logger.error("Error executing timer task: ", e);
+            }
+            if (this.periodMs > 0 && !this.cancelled && !this.linked)
+                reschedule(this.periodMs);
+        }
+    }
+}
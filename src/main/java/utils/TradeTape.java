@@ -0,0 +1,217 @@
+package utils;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed capacity tape of the last trades of a stream, stored in primitive columns (price, quantity, time, trade id and
+ * maker flag) so adding a trade does not allocate memory. Each trade gets a sequence number, 0 for the first one.
+ * The tape has a single writer and any number of readers that never lock: a reader copies the trades it wants and then
+ * drops the ones the writer overwrote meanwhile, so it always gets a consistent run of consecutive trades.
+ */
+public class TradeTape {
+    private final int mask;
+    private final float[] prices;
+    private final float[] quantities;
+    private final long[] times;
+    private final long[] tradeIds;
+    private final boolean[] buyerMaker;
+    // sequence of the next trade the writer starts to write, slots of sequences below claimed - capacity are overwritten
+    private volatile long claimed;
+    // sequence of the next trade, trades below it are complete
+    private volatile long published;
+
+    /**
+     * @param capacity - maximum number of trades kept, rounded up to a power of two
+     */
+    public TradeTape(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.prices = new float[size];
+        this.quantities = new float[size];
+        this.times = new long[size];
+        this.tradeIds = new long[size];
+        this.buyerMaker = new boolean[size];
+        this.claimed = 0L;
+        this.published = 0L;
+    }
+
+    /**
+     * Adds a trade, overwriting the oldest one if the tape is full. Must only be called by the writer thread.
+     *
+     * @param price      - price
+     * @param quantity   - quantity
+     * @param time       - trade time, in epoch ms
+     * @param tradeId    - trade id (eg: aggregate trade id)
+     * @param buyerMaker - true if the buyer was the maker
+     * @return sequence of the trade
+     */
+    public long add(float price, float quantity, long time, long tradeId, boolean buyerMaker) {
+        long sequence = this.claimed;
+        this.claimed = sequence + 1;
+        // readers that see the new column values also see the slot claimed
+        VarHandle.storeStoreFence();
+        int i = (int) sequence & this.mask;
+        this.prices[i] = price;
+        this.quantities[i] = quantity;
+        this.times[i] = time;
+        this.tradeIds[i] = tradeId;
+        this.buyerMaker[i] = buyerMaker;
+        this.published = sequence + 1;
+        return sequence;
+    }
+
+    /**
+     * @return sequence of the next trade (number of trades added so far)
+     */
+    public long getSequence() {
+        return this.published;
+    }
+
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @return trades in the tape, oldest first
+     */
+    public Snapshot snapshot() {
+        return read(0L, new Snapshot());
+    }
+
+    /**
+     * Copies the trades from a sequence on, still in the tape, into a snapshot. Trades already overwritten are skipped,
+     * the first sequence of the snapshot tells if any was missed.
+     *
+     * @param fromSequence - sequence of the first trade wanted (eg: getNextSequence() of the previous snapshot)
+     * @param into         - snapshot to fill, reused between reads to avoid allocating memory
+     * @return the snapshot filled
+     */
+    public Snapshot read(long fromSequence, Snapshot into) {
+        int capacity = capacity();
+        long end = this.published;
+        long start = Math.max(fromSequence, end - capacity);
+        if (start >= end) {
+            into.set(Math.max(fromSequence, end), 0, 0);
+            return into;
+        }
+        into.ensureCapacity(capacity);
+        int count = (int) (end - start);
+        int first = (int) start & this.mask;
+        int tail = Math.min(count, capacity - first);
+        copy(first, into, 0, tail);
+        copy(0, into, tail, count - tail);
+        // copies must be done before the writer position is read again
+        VarHandle.loadLoadFence();
+        long overwritten = this.claimed - capacity;
+        int dropped = (int) Math.min(count, Math.max(0L, overwritten - start));
+        into.set(start + dropped, dropped, count - dropped);
+        return into;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("trades: %d capacity: %d", getSequence(), capacity());
+    }
+
+    private void copy(int from, Snapshot into, int to, int length) {
+        System.arraycopy(this.prices, from, into.prices, to, length);
+        System.arraycopy(this.quantities, from, into.quantities, to, length);
+        System.arraycopy(this.times, from, into.times, to, length);
+        System.arraycopy(this.tradeIds, from, into.tradeIds, to, length);
+        System.arraycopy(this.buyerMaker, from, into.buyerMaker, to, length);
+    }
+
+    /**
+     * Consecutive trades copied from a tape, oldest first. Owned by a single reader.
+     */
+    public static final class Snapshot {
+        private float[] prices = new float[0];
+        private float[] quantities = new float[0];
+        private long[] times = new long[0];
+        private long[] tradeIds = new long[0];
+        private boolean[] buyerMaker = new boolean[0];
+        private long firstSequence;
+        private int offset;
+        private int size;
+
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * @return sequence of the first trade of the snapshot
+         */
+        public long getFirstSequence() {
+            return this.firstSequence;
+        }
+
+        /**
+         * @return sequence to read from to get the trades after this snapshot
+         */
+        public long getNextSequence() {
+            return this.firstSequence + this.size;
+        }
+
+        /**
+         * @param i - index, 0 is the oldest trade
+         * @return price of trade
+         */
+        public float getPrice(int i) {
+            return this.prices[index(i)];
+        }
+
+        /**
+         * @param i - index, 0 is the oldest trade
+         * @return quantity of trade
+         */
+        public float getQuantity(int i) {
+            return this.quantities[index(i)];
+        }
+
+        /**
+         * @param i - index, 0 is the oldest trade
+         * @return time of trade, in epoch ms
+         */
+        public long getTime(int i) {
+            return this.times[index(i)];
+        }
+
+        /**
+         * @param i - index, 0 is the oldest trade
+         * @return id of trade
+         */
+        public long getTradeId(int i) {
+            return this.tradeIds[index(i)];
+        }
+
+        /**
+         * @param i - index, 0 is the oldest trade
+         * @return true if the buyer was the maker
+         */
+        public boolean isBuyerMaker(int i) {
+            return this.buyerMaker[index(i)];
+        }
+
+        private int index(int i) {
+            if (i < 0 || i >= this.size)
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", i, this.size));
+            return this.offset + i;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (this.prices.length >= capacity)
+                return;
+            this.prices = new float[capacity];
+            this.quantities = new float[capacity];
+            this.times = new long[capacity];
+            this.tradeIds = new long[capacity];
+            this.buyerMaker = new boolean[capacity];
+        }
+
+        private void set(long firstSequence, int offset, int size) {
+            this.firstSequence = firstSequence;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package utils;
+
+/**
+ * Estimators of the volatility of a series of candles, all maintained in O(1) per candle over a rolling window
+ */
+public enum VolatilityEstimator {
+    // standard deviation of the log returns close to close (rolling Welford)
+    CLOSE_TO_CLOSE,
+    // high / low range: var = sum(ln(H/L)^2) / (4 ln(2) n)
+    PARKINSON,
+    // open / high / low / close: var = sum(0.5 ln(H/L)^2 - (2 ln(2) - 1) ln(C/O)^2) / n
+    GARMAN_KLASS
+}
@@ -0,0 +1,91 @@
+package utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategy used by a consumer thread to wait for new messages, trading latency for cpu usage
+ */
+public interface WaitStrategy {
+
+    /**
+     * Lowest latency, keeps a core busy while there are no messages
+     */
+    WaitStrategy BUSY_SPIN = idleCount -> {
+        Thread.onSpinWait();
+        return idleCount + 1;
+    };
+
+    /**
+     * Low latency, yields the core to other threads while there are no messages
+     */
+    WaitStrategy YIELD = idleCount -> {
+        Thread.yield();
+        return idleCount + 1;
+    };
+
+    /**
+     * Spins, then yields, then parks for an increasing amount of time (up to 1ms) while there are no messages
+     */
+    WaitStrategy PARK_BACKOFF = parkBackoff(100, 10, 1000000L);
+
+    /**
+     * Lowest cpu usage, parks until the producer signals a new message
+     */
+    WaitStrategy BLOCKING = new WaitStrategy() {
+        @Override
+        public int idle(int idleCount) {
+            LockSupport.park(this);
+            return idleCount + 1;
+        }
+
+        @Override
+        public boolean parks() {
+            return true;
+        }
+    };
+
+    /**
+     * Called by the consumer while there are no messages to consume
+     *
+     * @param idleCount - number of times idle() was called since the last message was consumed
+     * @return updated idle count
+     */
+    int idle(int idleCount);
+
+    /**
+     * Returns true if this strategy parks the consumer thread, in which case producers must unpark it after publishing
+     *
+     * @return true if consumer thread may be parked
+     */
+    default boolean parks() {
+        return false;
+    }
+
+    /**
+     * Builds a strategy that spins, then yields, then parks with exponential backoff
+     *
+     * @param spins        - number of idle calls spent spinning
+     * @param yields       - number of idle calls spent yielding
+     * @param maxParkNanos - maximum park time in ns
+     * @return wait strategy
+     */
+    static WaitStrategy parkBackoff(int spins, int yields, long maxParkNanos) {
+        return new WaitStrategy() {
+            @Override
+            public int idle(int idleCount) {
+                if (idleCount < spins)
+                    Thread.onSpinWait();
+                else if (idleCount < spins + yields)
+                    Thread.yield();
+                else
+                    LockSupport.parkNanos(this, Math.min(maxParkNanos, 1000L << Math.min(20, idleCount - spins - yields)));
+                return idleCount + 1;
+            }
+
+            @Override
+            public boolean parks() {
+                return true;
+            }
+        };
+    }
+}